@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * InputFormat that packs the SimpleDBInputSplits planned by SimpleDBInputFormat into fewer
+ * CombineSimpleDBInputSplits, so a small simpledb.split.size can balance the work between
+ * tasks without running thousands of short tasks that spend most of their time starting JVMs.
+ * 
+ * Splits are packed in the order they were planned, so neighbouring ranges stay together,
+ * adding splits to a combined split until the next split would take it over the row or
+ * byte budget. A split larger than the budget gets a combined split of its own. Without a
+ * configured budget, the byte budget is the total estimated bytes divided by the numSplits
+ * hint, so the job runs about numSplits map tasks (set with mapred.map.tasks).
+ * 
+ * Use with:
+ * 
+ * jobConf.setInputFormat(CombineSimpleDBInputFormat.class);
+ * 
+ * Configuration, in addition to the SimpleDBInputFormat settings:
+ * 
+ * - simpledb.combine.max.rows: (OPTIONAL) Maximum rows in a combined split
+ * - simpledb.combine.max.bytes: (OPTIONAL) Maximum estimated bytes in a combined split
+ * - simpledb.combine.prefetch: (OPTIONAL) Set to true to open the next split in the background
+ *                              while the current split is read. Defaults to false
+ * 
+ * @author David Gildeh
+ */
+public class CombineSimpleDBInputFormat implements InputFormat<Text, MapWritable> {
+    
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(CombineSimpleDBInputFormat.class);
+    
+    // Configuration Name Constants
+    public static final String SIMPLEDB_COMBINE_MAX_ROWS = "simpledb.combine.max.rows";
+    public static final String SIMPLEDB_COMBINE_MAX_BYTES = "simpledb.combine.max.bytes";
+    public static final String SIMPLEDB_COMBINE_PREFETCH = "simpledb.combine.prefetch";
+    
+    // Plans the splits to combine
+    private final SimpleDBInputFormat inputFormat = new SimpleDBInputFormat();
+
+    /**
+     * Plans the splits with SimpleDBInputFormat and packs them into combined splits
+     * 
+     * @param jobConf       Hadoop Job Configuration
+     * @param numSplits     Hint for the number of splits, used for the byte budget if neither
+     *                      budget is configured
+     * @return              The combined splits
+     * @throws IOException 
+     */
+    public InputSplit[] getSplits(JobConf jobConf, int numSplits) throws IOException {
+        
+        InputSplit[] planned = inputFormat.getSplits(jobConf, numSplits);
+        List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>(planned.length);
+        long totalBytes = 0;
+        for (InputSplit split : planned) {
+            splits.add((SimpleDBInputSplit) split);
+            totalBytes += split.getLength();
+        }
+        
+        long maxRows = jobConf.getLong(SIMPLEDB_COMBINE_MAX_ROWS, Long.MAX_VALUE);
+        long maxBytes = jobConf.getLong(SIMPLEDB_COMBINE_MAX_BYTES, Long.MAX_VALUE);
+        if (maxRows == Long.MAX_VALUE && maxBytes == Long.MAX_VALUE) {
+            maxBytes = Math.max(1, (long) Math.ceil(totalBytes / (double) Math.max(1, numSplits)));
+        }
+        
+        List<CombineSimpleDBInputSplit> combined = combine(splits, maxRows, maxBytes);
+        LOG.info("Combined " + splits.size() + " splits into " + combined.size() + " splits of up to " 
+                + maxRows + " rows and " + maxBytes + " bytes");
+        
+        return combined.toArray(new CombineSimpleDBInputSplit[combined.size()]);
+    }
+    
+    /**
+     * Packs splits in order into combined splits within the row and byte budgets
+     * 
+     * @param splits        The splits to pack, in order
+     * @param maxRows       Maximum rows in a combined split
+     * @param maxBytes      Maximum estimated bytes in a combined split
+     * @return              The combined splits
+     */
+    static List<CombineSimpleDBInputSplit> combine(List<SimpleDBInputSplit> splits, long maxRows, long maxBytes) {
+        
+        List<CombineSimpleDBInputSplit> combined = new ArrayList<CombineSimpleDBInputSplit>();
+        List<SimpleDBInputSplit> current = new ArrayList<SimpleDBInputSplit>();
+        long rows = 0;
+        long bytes = 0;
+        
+        for (SimpleDBInputSplit split : splits) {
+            if (!current.isEmpty() && (rows + split.getRowCount() > maxRows || bytes + split.getLength() > maxBytes)) {
+                combined.add(new CombineSimpleDBInputSplit(current));
+                current.clear();
+                rows = 0;
+                bytes = 0;
+            }
+            current.add(split);
+            rows += split.getRowCount();
+            bytes += split.getLength();
+        }
+        
+        if (!current.isEmpty()) {
+            combined.add(new CombineSimpleDBInputSplit(current));
+        }
+        return combined;
+    }
+
+    /**
+     * Factory method to create new CombineSimpleDBRecordReaders
+     * 
+     * @param split         The CombineSimpleDBInputSplit to read
+     * @param jobConf       Hadoop Job Configuration
+     * @param reporter      Reporter to report progress to
+     * @return              The new CombineSimpleDBRecordReader
+     * @throws IOException 
+     */
+    public RecordReader<Text, MapWritable> getRecordReader(InputSplit split, JobConf jobConf, 
+            Reporter reporter) throws IOException {
+        
+        return new CombineSimpleDBRecordReader((CombineSimpleDBInputSplit) split, jobConf, reporter);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hadoop.mapred.InputSplit;
+
+/**
+ * InputSplit made of several SimpleDBInputSplits that are read one after another by the
+ * same task, created by CombineSimpleDBInputFormat.
+ * 
+ * @author David Gildeh
+ */
+public class CombineSimpleDBInputSplit implements InputSplit {
+
+    // The splits to read, in order
+    private List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
+
+    /**
+     * Default Constructor for when loading from file using ReadField Method
+     */
+    public CombineSimpleDBInputSplit() {}
+
+    /**
+     * Default Constructor for CombineSimpleDBInputSplit
+     * 
+     * @param splits    The splits to read, in order
+     */
+    public CombineSimpleDBInputSplit(List<SimpleDBInputSplit> splits) {
+        this.splits = new ArrayList<SimpleDBInputSplit>(splits);
+    }
+
+    /**
+     * Get the total estimated bytes of the splits
+     * 
+     * @return                  The estimated bytes in the combined split.
+     */
+    public long getLength() {
+        
+        long length = 0;
+        for (SimpleDBInputSplit split : splits) {
+            length += split.getLength();
+        }
+        return length;
+    }
+    
+    /**
+     * Get the total number of rows in the splits
+     * 
+     * @return                  The number of rows in the combined split.
+     */
+    public long getRowCount() {
+        
+        long rows = 0;
+        for (SimpleDBInputSplit split : splits) {
+            rows += split.getRowCount();
+        }
+        return rows;
+    }
+
+    /**
+     * SimpleDB data has no locality, so there are no locations
+     * 
+     * @return                  An empty array
+     * @throws IOException 
+     */
+    public String[] getLocations() throws IOException {
+        return new String[] {};
+    }
+    
+    /**
+     * Get the splits to read
+     * 
+     * @return  The splits, in order
+     */
+    public List<SimpleDBInputSplit> getSplits() {
+        return Collections.unmodifiableList(splits);
+    }
+
+    /**
+     * Serialises the Split Object so it can be persisted to disk
+     * 
+     * @param output            The output stream to write to
+     * @throws IOException 
+     */
+    public void write(DataOutput output) throws IOException {
+        
+        output.writeInt(splits.size());
+        for (SimpleDBInputSplit split : splits) {
+            split.write(output);
+        }
+    }
+
+    /**
+     * Read the Split from the serialised Split file to initialise InputSplit for
+     * processing
+     * 
+     * @param input         The input stream of file to read from
+     * @throws IOException 
+     */
+    public void readFields(DataInput input) throws IOException {
+        
+        int count = input.readInt();
+        splits = new ArrayList<SimpleDBInputSplit>(count);
+        for (int i = 0; i < count; i++) {
+            SimpleDBInputSplit split = new SimpleDBInputSplit();
+            split.readFields(input);
+            splits.add(split);
+        }
+    }
+    
+    /**
+     * Override toString() method
+     * 
+     * @return      String value of InputSplit 
+     */
+    @Override
+    public String toString() {
+        return splits.size() + " splits, rows=" + getRowCount() + ", length=" + getLength();
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * RecordReader for a CombineSimpleDBInputSplit, which reads each of its SimpleDBInputSplits
+ * in turn with a SimpleDBRecordReader, so all the SimpleDBRecordReader settings apply.
+ * 
+ * If simpledb.combine.prefetch is set to true, the reader for the next split is opened in the
+ * background as soon as the current one is opened. Opening a reader loads the whole split
+ * unless streaming, or starts its prefetchers, so the next split's first pages are ready
+ * by the time the current split is finished.
+ * 
+ * All the readers record their requests in one SimpleDBMetrics, which is summarised when this
+ * reader is closed.
+ * 
+ * If simpledb.reader.checkpoint.dir is set, a completed marker is saved for every sub-split
+ * once it has been read, and a retried attempt of the task skips the sub-splits with markers.
+ * Hadoop discards the map output of the failed attempt, so the skipped sub-splits are left
+ * out of the job output. Only use markers with Mappers that write to an external idempotent
+ * sink. Like checkpoints, markers are ignored while speculative execution of maps is on, as a
+ * speculative attempt would skip sub-splits finished by the attempt it runs alongside. See
+ * SimpleDBCheckpoint.
+ * 
+ * @author David Gildeh
+ */
+public class CombineSimpleDBRecordReader implements RecordReader<Text, MapWritable> {
+    
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(CombineSimpleDBRecordReader.class);
+    
+    // Combined split and its sub-splits
+    private final CombineSimpleDBInputSplit split;
+    private final List<SimpleDBInputSplit> splits;
+    
+    private final JobConf jobConf;
+    private final Reporter reporter;
+    
+    // Metrics shared by the readers of every sub-split
+    private final SimpleDBMetrics metrics;
+    
+    // Opens the next sub-split in the background, null if not prefetching
+    private ExecutorService executor = null;
+    private Future<SimpleDBRecordReader> nextReader = null;
+    
+    // Index of the current sub-split and its reader, null once all sub-splits are read
+    private int index = -1;
+    private SimpleDBRecordReader reader = null;
+    
+    // Rows read from finished sub-splits, and their estimated bytes for progress
+    private long rowsRead = 0;
+    private long bytesRead = 0;
+    
+    // Checkpoints of the sub-splits to mark completed ones with, null if not checkpointing
+    private SimpleDBCheckpoint[] checkpoints = null;
+    
+    // Sub-splits read by a previous attempt of the task
+    private final boolean[] completed;
+    
+    /**
+     * Default Constructor, opens the first sub-split
+     * 
+     * @param split         The combined split
+     * @param jobConf       Hadoop Job Configuration
+     * @param reporter      Reporter to report progress to
+     * @throws IOException 
+     */
+    public CombineSimpleDBRecordReader(CombineSimpleDBInputSplit split, JobConf jobConf, Reporter reporter) throws IOException {
+        this.split = split;
+        this.splits = split.getSplits();
+        this.jobConf = jobConf;
+        this.reporter = reporter;
+        this.metrics = new SimpleDBMetrics(reporter);
+        this.completed = new boolean[splits.size()];
+        
+        if (SimpleDBCheckpoint.isEnabled(jobConf)) {
+            loadCompleted();
+        }
+        
+        if (jobConf.getBoolean(CombineSimpleDBInputFormat.SIMPLEDB_COMBINE_PREFETCH, false) && splits.size() > 1) {
+            executor = Executors.newSingleThreadExecutor();
+        }
+        
+        openNext();
+    }
+    
+    /**
+     * Loads the completed markers saved by previous attempts of the task, so the sub-splits
+     * they finished aren't read again. Checkpointing is disabled if the markers can't be read
+     */
+    private void loadCompleted() {
+        
+        try {
+            checkpoints = new SimpleDBCheckpoint[splits.size()];
+            for (int i = 0; i < splits.size(); i++) {
+                checkpoints[i] = new SimpleDBCheckpoint(jobConf, splits.get(i));
+                if (checkpoints[i].load() && checkpoints[i].isCompleted()) {
+                    completed[i] = true;
+                    reporter.incrCounter(SimpleDBCheckpoint.Counter.SKIPPED_SPLITS, 1);
+                    reporter.incrCounter(SimpleDBCheckpoint.Counter.RESUMED_ROWS, checkpoints[i].getRows());
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to load checkpoints, reading every split without completed markers", e);
+            checkpoints = null;
+            Arrays.fill(completed, false);
+        }
+    }
+    
+    /**
+     * Gets the index of the next sub-split to read after a sub-split, skipping completed ones
+     * 
+     * @param after     The index of the sub-split, -1 for the first sub-split
+     * @return          The index, or the number of sub-splits if there are none left to read
+     */
+    private int nextIndex(int after) {
+        
+        int next = after + 1;
+        while (next < splits.size() && completed[next]) {
+            next++;
+        }
+        return next;
+    }
+    
+    /**
+     * Closes the current sub-split and opens the next one, prefetching the one after
+     * 
+     * @return              True - a sub-split was opened, False - all sub-splits are read
+     * @throws IOException 
+     */
+    private boolean openNext() throws IOException {
+        
+        if (reader != null) {
+            long rows = reader.getPos();
+            rowsRead += rows;
+            bytesRead += splits.get(index).getLength();
+            reader.close();
+            reader = null;
+            saveCompleted(rows);
+        }
+        
+        // Count the skipped sub-splits as read
+        int next = nextIndex(index);
+        for (int i = index + 1; i < next; i++) {
+            rowsRead += checkpoints[i].getRows();
+            bytesRead += splits.get(i).getLength();
+        }
+        
+        index = next;
+        if (index >= splits.size()) {
+            return false;
+        }
+        
+        if (nextReader != null) {
+            try {
+                reader = nextReader.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted opening SimpleDB split");
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to open SimpleDB split " + splits.get(index), e.getCause());
+            }
+            nextReader = null;
+        } else {
+            reader = new SimpleDBRecordReader(splits.get(index), jobConf, reporter, metrics);
+        }
+        
+        if (executor != null && nextIndex(index) < splits.size()) {
+            final SimpleDBInputSplit nextSplit = splits.get(nextIndex(index));
+            nextReader = executor.submit(new Callable<SimpleDBRecordReader>() {
+                public SimpleDBRecordReader call() {
+                    return new SimpleDBRecordReader(nextSplit, jobConf, reporter, metrics);
+                }
+            });
+        }
+        
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Reading split " + (index + 1) + " of " + splits.size() + ": " + splits.get(index));
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Marks the sub-split just read as completed. The split has been read, so failing to save
+     * the marker doesn't fail the task, a retried attempt just reads the sub-split again
+     * 
+     * @param rows      The number of rows read from the sub-split
+     */
+    private void saveCompleted(long rows) {
+        
+        if (checkpoints == null) {
+            return;
+        }
+        
+        try {
+            checkpoints[index].complete(rows);
+            reporter.incrCounter(SimpleDBCheckpoint.Counter.SAVED, 1);
+        } catch (IOException e) {
+            LOG.warn("Failed to mark split " + splits.get(index) + " completed", e);
+        }
+    }
+    
+    /**
+     * Get next Key/Value Record (Tuple) from the combined split
+     * 
+     * @param key           The key to set
+     * @param value         The HashMap value to set
+     * @return              True - next Item available, False - No more items available
+     * @throws IOException 
+     */
+    public boolean next(Text key, MapWritable value) throws IOException {
+        
+        while (reader != null) {
+            if (reader.next(key, value)) {
+                return true;
+            }
+            openNext();
+        }
+        return false;
+    }
+
+    /**
+     * Creates a new blank key for the next() method to set
+     * 
+     * @return  A new key
+     */
+    public Text createKey() {
+        return new Text();
+    }
+
+    /**
+     * Creates a new blank value for the next() method to set
+     * 
+     * @return A new value 
+     */
+    public MapWritable createValue() {
+        return new MapWritable();
+    }
+
+    /**
+     * Get the number of rows read from all the sub-splits
+     * 
+     * @return                  Current cursor position
+     * @throws IOException 
+     */
+    public long getPos() throws IOException {
+        return rowsRead + ((reader != null) ? reader.getPos() : 0);
+    }
+
+    /**
+     * Closes the open sub-splits and summarises the SimpleDB I/O of the task
+     * 
+     * @throws IOException 
+     */
+    public void close() throws IOException {
+        
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        
+        if (executor != null) {
+            executor.shutdownNow();
+            if (nextReader != null) {
+                try {
+                    nextReader.get().close();
+                } catch (Exception e) {
+                    // The prefetched split was never read, so its errors don't matter
+                }
+                nextReader = null;
+            }
+        }
+        
+        metrics.summarise(LOG, "combined split " + split);
+        reporter.setStatus("SimpleDB " + metrics);
+    }
+
+    /**
+     * Get progress through the combined split, weighting each sub-split by its estimated bytes
+     * 
+     * @return                  Percentage progress as float
+     * @throws IOException 
+     */
+    public float getProgress() throws IOException {
+        
+        long length = split.getLength();
+        if (reader == null || length <= 0) {
+            return (reader == null) ? 1.0f : 0.0f;
+        }
+        
+        float current = reader.getProgress() * splits.get(index).getLength();
+        return Math.min(1.0f, (bytesRead + current) / length);
+    }
+}
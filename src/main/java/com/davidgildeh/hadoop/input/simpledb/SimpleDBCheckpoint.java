@@ -0,0 +1,329 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.IOException;
+import java.util.UUID;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Checkpoint of how far a map task has read its split, saved on HDFS so a retried attempt of
+ * the task can resume near where the failed attempt stopped instead of re-reading the whole
+ * split from SimpleDB.
+ *
+ * The checkpoint holds the nextToken of the next page to read and the number of rows read
+ * before it, and is only saved at page boundaries, once every row before the token has been
+ * handed to the Mapper. A resumed attempt starts from the token, so the rows the failed attempt
+ * read after its last checkpoint are read again.
+ *
+ * Resuming skips rows in the job output. Hadoop discards the map output of a failed attempt,
+ * so the rows it read before its last checkpoint never reach the job output. Checkpoints are
+ * therefore only safe for Mappers whose work is writing each item to an external idempotent
+ * sink, e.g. a keyed store, where the failed attempt's writes survive it and re-written items
+ * are harmless. Speculative attempts run alongside the original attempt and would resume from
+ * checkpoints it is still writing, so checkpointing is disabled unless speculative execution
+ * of maps (mapred.map.tasks.speculative.execution) is turned off.
+ *
+ * Checkpoints are keyed by the job ID, task ID and a hash of the split, so every attempt of a
+ * task shares one checkpoint file per split, including tasks that read several splits, and a
+ * checkpoint is never applied to a different split. Each attempt writes through its own
+ * temporary file. The checkpoint is deleted when the task
+ * has read its whole split. Files left by tasks that never succeeded stay in the job's
+ * checkpoint directory until the job's driver calls cleanup() once the job has finished:
+ *
+ * RunningJob job = JobClient.runJob(jobConf);
+ * SimpleDBCheckpoint.cleanup(jobConf, job.getID().toString());
+ *
+ * Tasks reading a CombineSimpleDBInputSplit instead replace the checkpoint of each sub-split
+ * they finish with a completed marker, so a retried attempt skips the sub-splits already read
+ * and only re-reads rows of the sub-split the failed attempt stopped in. Completed markers
+ * can be used with any reader settings, as they don't need a nextToken. Skipped sub-splits are
+ * left out of the job output the same way, so markers have the same restrictions.
+ *
+ * Configuration:
+ *
+ * - simpledb.reader.checkpoint.dir: Directory on HDFS to save checkpoints in. Checkpointing is
+ *                                   only enabled when this is set and speculative execution of
+ *                                   maps is off
+ * - simpledb.reader.checkpoint.interval: (OPTIONAL) Pages to read between checkpoints. Defaults to 10
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBCheckpoint {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBCheckpoint.class);
+
+    // Configuration Name Constants
+    public static final String SIMPLEDB_READER_CHECKPOINT_DIR = "simpledb.reader.checkpoint.dir";
+    public static final String SIMPLEDB_READER_CHECKPOINT_INTERVAL = "simpledb.reader.checkpoint.interval";
+
+    // Checkpoint Counters
+    public static enum Counter { SAVED, RESUMED, RESUMED_ROWS, SKIPPED_SPLITS };
+
+    // Version of the checkpoint file format, files with a different version are ignored
+    private static final int CHECKPOINT_VERSION = 3;
+
+    private final JobConf jobConf;
+    private final Path checkpointFile;
+    private final Path tmpFile;
+    private final String splitHash;
+    private final int interval;
+
+    // Token and rows read of the loaded checkpoint
+    private String nextToken = null;
+    private long rows = 0;
+
+    // True if the loaded checkpoint marks the whole split as read
+    private boolean completed = false;
+
+    /**
+     * Default Constructor
+     *
+     * @param jobConf       Hadoop Job Configuration of the task
+     * @param split         The split the task reads
+     * @throws IOException  If the task ID isn't in the Job Configuration
+     */
+    public SimpleDBCheckpoint(JobConf jobConf, SimpleDBInputSplit split) throws IOException {
+
+        String jobId = jobConf.get("mapred.job.id");
+        String taskId = jobConf.get("mapred.tip.id");
+        if (jobId == null || taskId == null) {
+            throw new IOException("No task ID in the Job Configuration to key the checkpoint by");
+        }
+
+        this.jobConf = jobConf;
+        this.splitHash = getSplitHash(split);
+        this.checkpointFile = new Path(new Path(jobConf.get(SIMPLEDB_READER_CHECKPOINT_DIR), jobId), taskId + "-" + splitHash);
+        
+        // Attempts of a task write through their own temporary files so they can't corrupt each other's
+        String attemptId = jobConf.get("mapred.task.id");
+        this.tmpFile = checkpointFile.suffix(".tmp-" + ((attemptId != null) ? attemptId : UUID.randomUUID().toString()));
+        this.interval = Math.max(1, jobConf.getInt(SIMPLEDB_READER_CHECKPOINT_INTERVAL, 10));
+    }
+
+    /**
+     * Hash the serialised form of the split, which unlike toString() only changes with the
+     * fields the split is read by
+     *
+     * @param split         The split to hash
+     * @return              MD5 hash of the split
+     * @throws IOException
+     */
+    private static String getSplitHash(SimpleDBInputSplit split) throws IOException {
+
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        split.write(buffer);
+        return MD5Hash.digest(buffer.getData(), 0, buffer.getLength()).toString();
+    }
+
+    /**
+     * Check if checkpointing is enabled in the Job Configuration. Speculative attempts would
+     * resume from the checkpoints of the attempt they run alongside, so checkpointing is
+     * disabled with a warning while speculative execution of maps is on
+     *
+     * @param jobConf   Hadoop Job Configuration
+     * @return          True if simpledb.reader.checkpoint.dir is set and speculative execution
+     *                  of maps is off
+     */
+    public static boolean isEnabled(JobConf jobConf) {
+
+        if (jobConf.get(SIMPLEDB_READER_CHECKPOINT_DIR) == null) {
+            return false;
+        }
+        if (jobConf.getMapSpeculativeExecution()) {
+            LOG.warn(SIMPLEDB_READER_CHECKPOINT_DIR + " is ignored while mapred.map.tasks.speculative.execution is true");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of pages to read between checkpoints
+     *
+     * @return  The checkpoint interval in pages
+     */
+    public int getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * Loads the checkpoint saved by a previous attempt of the task, if there is one
+     *
+     * @return              True if a checkpoint for the split was loaded
+     * @throws IOException
+     */
+    public boolean load() throws IOException {
+
+        FileSystem fs = checkpointFile.getFileSystem(jobConf);
+        if (!fs.exists(checkpointFile)) {
+            return false;
+        }
+
+        FSDataInputStream in = fs.open(checkpointFile);
+        try {
+            if (in.readInt() != CHECKPOINT_VERSION || !splitHash.equals(Text.readString(in))) {
+                LOG.warn("Ignoring checkpoint for a different split or version at " + checkpointFile);
+                return false;
+            }
+
+            rows = in.readLong();
+            completed = in.readBoolean();
+            nextToken = completed ? null : Text.readString(in);
+
+            LOG.info((completed ? "Skipping split completed" : "Resuming split from checkpoint") 
+                    + " at " + checkpointFile + " after " + rows + " rows");
+            return true;
+
+        } catch (IOException e) {
+            // A corrupt checkpoint is no worse than a missing one, the split is read from the start
+            LOG.warn("Ignoring unreadable checkpoint at " + checkpointFile, e);
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Get the nextToken of the loaded checkpoint
+     *
+     * @return  The token of the next page to read
+     */
+    public String getNextToken() {
+        return this.nextToken;
+    }
+
+    /**
+     * Get the number of rows read before the loaded checkpoint
+     *
+     * @return  The rows read
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Check if the loaded checkpoint is a completed marker
+     *
+     * @return  True if the whole split was read by a previous attempt
+     */
+    public boolean isCompleted() {
+        return this.completed;
+    }
+
+    /**
+     * Saves a checkpoint, replacing any existing checkpoint for the task
+     *
+     * @param nextToken     The token of the next page to read
+     * @param rows          The number of rows read before the token
+     * @throws IOException
+     */
+    public void save(String nextToken, long rows) throws IOException {
+        write(nextToken, rows, false);
+    }
+
+    /**
+     * Replaces the checkpoint with a completed marker once the whole split has been read, so
+     * retried attempts of a task reading several splits skip it
+     *
+     * @param rows          The number of rows in the split
+     * @throws IOException
+     */
+    public void complete(long rows) throws IOException {
+        write(null, rows, true);
+    }
+
+    /**
+     * Writes the checkpoint file
+     */
+    private void write(String nextToken, long rows, boolean completed) throws IOException {
+
+        FileSystem fs = checkpointFile.getFileSystem(jobConf);
+
+        // Write to a temporary file first so a failed attempt never leaves a partial checkpoint
+        FSDataOutputStream out = fs.create(tmpFile, true);
+        try {
+            out.writeInt(CHECKPOINT_VERSION);
+            Text.writeString(out, splitHash);
+            out.writeLong(rows);
+            out.writeBoolean(completed);
+            if (!completed) {
+                Text.writeString(out, nextToken);
+            }
+        } finally {
+            out.close();
+        }
+
+        fs.delete(checkpointFile, false);
+        if (!fs.rename(tmpFile, checkpointFile)) {
+            fs.delete(tmpFile, false);
+            throw new IOException("Failed to save checkpoint to " + checkpointFile);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Saved " + (completed ? "completed marker" : "checkpoint") + " after " + rows 
+                    + " rows to " + checkpointFile);
+        }
+    }
+
+    /**
+     * Deletes the checkpoint once the task has read its whole split
+     *
+     * @throws IOException
+     */
+    public void delete() throws IOException {
+        checkpointFile.getFileSystem(jobConf).delete(checkpointFile, false);
+    }
+
+    /**
+     * Get the checkpoint file
+     *
+     * @return  The path of the checkpoint file
+     */
+    Path getFile() {
+        return this.checkpointFile;
+    }
+
+    /**
+     * Deletes the checkpoint directory of a job, with the checkpoints left by tasks that never
+     * succeeded. Call once the job has finished, whether it succeeded or not
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @param jobId         The ID of the finished job
+     * @throws IOException
+     */
+    public static void cleanup(JobConf jobConf, String jobId) throws IOException {
+
+        if (jobConf.get(SIMPLEDB_READER_CHECKPOINT_DIR) == null) {
+            return;
+        }
+
+        Path jobDir = new Path(jobConf.get(SIMPLEDB_READER_CHECKPOINT_DIR), jobId);
+        if (jobDir.getFileSystem(jobConf).delete(jobDir, true)) {
+            LOG.info("Deleted checkpoints of job " + jobId + " in " + jobDir);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * JVM-wide registry of SimpleDB clients. Each AmazonSimpleDBClient has its own HTTP
+ * connection pool, so rather than every SimpleDBDAO creating a new client, the clients are
+ * shared by everything in the JVM using the same credentials, endpoint and client settings.
+ * Connections stay open in the pool between DAOs, so getSplits, every RecordReader and
+ * reused task JVMs don't pay for new connections and TLS handshakes each time.
+ *
+ * The clients are thread safe and are never shut down, they live as long as the JVM. They
+ * are SimpleDBStreamingClients, so Selects can also be decoded without the SDK object model.
+ *
+ * Configuration:
+ *
+ * - simpledb.client.max.connections: (OPTIONAL) Maximum open HTTP connections in the pool.
+ *                                    Defaults to the AWS SDK default (50)
+ * - simpledb.client.socket.timeout: (OPTIONAL) Milliseconds to wait for data on an open
+ *                                    connection. Defaults to the AWS SDK default (50000)
+ * - simpledb.client.connection.timeout: (OPTIONAL) Milliseconds to wait when opening a
+ *                                    connection. Defaults to the AWS SDK default (50000)
+ * - simpledb.client.max.retries: (OPTIONAL) Number of times the AWS SDK retries a failed
+ *                                    request. Defaults to 0, as SimpleDBDAO retries failed
+ *                                    requests itself (see simpledb.retry.max), so every
+ *                                    attempt is seen by its rate limiter and counters
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBClientRegistry {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBClientRegistry.class);
+
+    // Configuration Name Constants
+    public static final String SIMPLEDB_CLIENT_MAX_CONNECTIONS = "simpledb.client.max.connections";
+    public static final String SIMPLEDB_CLIENT_SOCKET_TIMEOUT = "simpledb.client.socket.timeout";
+    public static final String SIMPLEDB_CLIENT_CONNECTION_TIMEOUT = "simpledb.client.connection.timeout";
+    public static final String SIMPLEDB_CLIENT_MAX_RETRIES = "simpledb.client.max.retries";
+
+    // SimpleDBDAO owns retries, so the SDK doesn't retry underneath it
+    public static final int DEFAULT_MAX_RETRIES = 0;
+
+    // Default AWS Endpoint, US-EAST
+    private static final String DEFAULT_ENDPOINT = "sdb.amazonaws.com";
+
+    // Shared clients keyed by credentials, endpoint and client settings
+    private static final Map<String, SimpleDBStreamingClient> CLIENTS = new HashMap<String, SimpleDBStreamingClient>();
+
+    /**
+     * Gets the shared client for the credentials, endpoint and client settings in the
+     * Job Configuration, creating it if this is the first time it's used in this JVM
+     *
+     * @param jobConf   Hadoop Job Configuration
+     * @return          The shared SimpleDB client
+     */
+    public static synchronized SimpleDBStreamingClient getClient(JobConf jobConf) {
+
+        String awsAccessKey = jobConf.get(SimpleDBDAO.SIMPLEDB_AWS_ACCESSKEY);
+        String awsSecretKey = jobConf.get(SimpleDBDAO.SIMPLEDB_AWS_SECRETKEY);
+        String endpoint = jobConf.get(SimpleDBDAO.SIMPLEDB_AWS_REGION, DEFAULT_ENDPOINT);
+        ClientConfiguration config = getClientConfiguration(jobConf);
+
+        // Only keep a hash of the secret key in the registry key
+        String key = awsAccessKey + "|" + MD5Hash.digest(String.valueOf(awsSecretKey)) + "|" + endpoint
+                + "|" + config.getMaxConnections() + "|" + config.getSocketTimeout()
+                + "|" + config.getConnectionTimeout() + "|" + config.getMaxErrorRetry();
+
+        SimpleDBStreamingClient client = CLIENTS.get(key);
+        if (client == null) {
+            client = new SimpleDBStreamingClient(new BasicAWSCredentials(awsAccessKey, awsSecretKey), config);
+            client.setEndpoint(endpoint);
+            CLIENTS.put(key, client);
+
+            LOG.info("Created SimpleDB client for " + endpoint + " with " + config.getMaxConnections() 
+                    + " max connections, " + CLIENTS.size() + " clients in registry");
+        }
+
+        return client;
+    }
+
+    /**
+     * Creates the AWS client configuration from the Job Configuration
+     *
+     * @param jobConf   Hadoop Job Configuration
+     * @return          The client configuration
+     */
+    static ClientConfiguration getClientConfiguration(JobConf jobConf) {
+
+        ClientConfiguration config = new ClientConfiguration();
+        config.setMaxConnections(jobConf.getInt(SIMPLEDB_CLIENT_MAX_CONNECTIONS, config.getMaxConnections()));
+        config.setSocketTimeout(jobConf.getInt(SIMPLEDB_CLIENT_SOCKET_TIMEOUT, config.getSocketTimeout()));
+        config.setConnectionTimeout(jobConf.getInt(SIMPLEDB_CLIENT_CONNECTION_TIMEOUT, config.getConnectionTimeout()));
+        config.setMaxErrorRetry(jobConf.getInt(SIMPLEDB_CLIENT_MAX_RETRIES, DEFAULT_MAX_RETRIES));
+        return config;
+    }
+}
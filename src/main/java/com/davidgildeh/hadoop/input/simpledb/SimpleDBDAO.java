@@ -18,20 +18,41 @@ package com.davidgildeh.hadoop.input.simpledb;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.simpledb.AmazonSimpleDB;
-import com.amazonaws.services.simpledb.AmazonSimpleDBClient;
+import com.amazonaws.ResponseMetadata;
+import com.amazonaws.services.simpledb.SimpleDBResponseMetadata;
 import com.amazonaws.services.simpledb.model.*;
+import com.amazonaws.services.simpledb.util.SimpleDBUtils;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
 
 /**
  * SimpleDB Client DAO with simple helper methods for accessing SimpleDB
  * 
+ * Select requests are rate limited per domain by a SimpleDBRateLimiter, and failed requests
+ * are retried with exponential backoff:
+ * 
+ * - simpledb.retry.max: (OPTIONAL) Times to retry a failed request. Defaults to 10
+ * - simpledb.retry.base.delay: (OPTIONAL) Milliseconds to back off after the first failure, doubling
+ *                              after each failure. Defaults to 100
+ * - simpledb.retry.max.delay: (OPTIONAL) Maximum milliseconds to back off. Defaults to 20000
+ * 
+ * Every Select request is recorded in the DAO's SimpleDBMetrics, which reports the request,
+ * retry, throttling, item, byte and BoxUsage counters and latencies to the task's Reporter.
+ * 
  * @author David Gildeh
  */
 public class SimpleDBDAO {
@@ -42,81 +63,266 @@ public class SimpleDBDAO {
     public static final String SIMPLEDB_AWS_REGION = "simpledb.aws.region";
     public static final String SIMPLEDB_DOMAIN = "simpledb.domain";
     public static final String SIMPLEDB_WHERE_QUERY = "simpledb.wherequery";
+    public static final String SIMPLEDB_SELECT_ATTRIBUTES = "simpledb.select.attributes";
+    public static final String SIMPLEDB_SELECT_KEYSONLY = "simpledb.select.keysonly";
+    public static final String SIMPLEDB_RETRY_MAX = "simpledb.retry.max";
+    public static final String SIMPLEDB_RETRY_BASE_DELAY = "simpledb.retry.base.delay";
+    public static final String SIMPLEDB_RETRY_MAX_DELAY = "simpledb.retry.max.delay";
     
     // Maximum Select Limit for SimpleDB
-    private static final int MAX_SELECT_LIMIT = 2500;
+    public static final int MAX_SELECT_LIMIT = 2500;
+    
+    // Matches the start of an ORDER BY in a where query
+    private static final Pattern ORDER_BY_PATTERN = Pattern.compile("\\s+order\\s+by\\s+", Pattern.CASE_INSENSITIVE);
     
     // Log4J Logger
     private static final Log LOG = LogFactory.getLog(SimpleDBDAO.class);
     
-    private final AmazonSimpleDB sdb;
+    private final SimpleDBStreamingClient sdb;
     private final String sdb_domain;
     private String whereQuery;
+    private SimpleDBKeyRange range = null;
+    private final String[] selectAttributes;
+    private final boolean keysOnly;
+    private final SimpleDBRateLimiter rateLimiter;
+    private final int maxRetries;
+    private final long retryBaseDelay;
+    private final long retryMaxDelay;
+    private final Random random = new Random();
+    
+    // Chooses the page size when scanning with getNextItemsPage()
+    private final SimpleDBPageSizer pageSizer;
+    
+    // Counters and latencies of the requests made
+    private SimpleDBMetrics metrics = new SimpleDBMetrics(Reporter.NULL);
     
     /**
-     * Default Constructor, initialises SimpleDB Client
+     * Default Constructor, gets the shared SimpleDB Client for the Job Configuration
+     * from the SimpleDBClientRegistry
      * 
      * @param jobConf   Hadoop Job Configuration
      */
     public SimpleDBDAO(JobConf jobConf) {
         
         // Load Configuration
-        String awsAccessKey = jobConf.get(SIMPLEDB_AWS_ACCESSKEY);
-        String awsSecretKey = jobConf.get(SIMPLEDB_AWS_SECRETKEY);
-        // Default to US-EAST Region
-        String simpleDBRegion = jobConf.get(SIMPLEDB_AWS_REGION, "sdb.amazonaws.com");
         sdb_domain = jobConf.get(SIMPLEDB_DOMAIN);
         whereQuery = jobConf.get(SIMPLEDB_WHERE_QUERY, null);
+        selectAttributes = getSelectAttributes(jobConf);
+        keysOnly = jobConf.getBoolean(SIMPLEDB_SELECT_KEYSONLY, false);
+        
+        // Retry and throttling settings
+        maxRetries = jobConf.getInt(SIMPLEDB_RETRY_MAX, 10);
+        retryBaseDelay = jobConf.getLong(SIMPLEDB_RETRY_BASE_DELAY, 100);
+        retryMaxDelay = jobConf.getLong(SIMPLEDB_RETRY_MAX_DELAY, 20000);
+        rateLimiter = SimpleDBRateLimiter.getLimiter(jobConf, sdb_domain);
+        pageSizer = new SimpleDBPageSizer(jobConf);
   
-        // Initialise SimpleDB Client  
-        sdb = new AmazonSimpleDBClient(new BasicAWSCredentials(awsAccessKey, awsSecretKey));
-        sdb.setEndpoint(simpleDBRegion);
+        // Get the shared SimpleDB Client, pooled across the JVM
+        sdb = SimpleDBClientRegistry.getClient(jobConf);
     }
     
     /**
-     * Does a paged query in SimpleDB
+     * Does a paged query in SimpleDB. Every request waits for a permit from the domain's
+     * rate limiter. Throttled (503), timed out and server error requests and client errors
+     * such as network failures are retried up to simpledb.retry.max times, with exponential 
+     * backoff and full jitter between attempts. Throttling also cuts the domain's request rate.
      *
      * @param query         The Select Query
      * @param nextToken     If there is a paging token to start from, or null if none
      * @return              The SelectResult from the query
+     * @throws AmazonClientException    If the query failed and can't be retried, or all the 
+     *                                  retries failed
      */
     private SelectResult doQuery(String query, String nextToken) {
-
-        SelectResult results = null;
         
-        try {
-
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Running Query: " + query);
+        return doQuery(query, nextToken, new Select<SelectResult>() {
+            public SelectResult run(SelectRequest selectRequest) {
+                SelectResult result = sdb.select(selectRequest);
+                metrics.recordResults(result.getItems().size(), SimpleDBPageSizer.estimateBytes(result.getItems()));
+                return result;
             }
+        });
+    }
+    
+    /**
+     * Does a paged query in SimpleDB, decoding the response straight into a page with
+     * the SimpleDBSelectDecoder. Retried the same way as other queries
+     *
+     * @param query         The Select Query
+     * @param nextToken     If there is a paging token to start from, or null if none
+     * @param page          The page to decode the results into
+     * @throws AmazonClientException    If the query failed and can't be retried, or all the 
+     *                                  retries failed
+     */
+    private void doQuery(String query, String nextToken, final SimpleDBSelectPage page) {
+        
+        doQuery(query, nextToken, new Select<Void>() {
+            public Void run(SelectRequest selectRequest) {
+                sdb.select(selectRequest, page);
+                metrics.recordResults(page.size(), SimpleDBPageSizer.estimateBytes(page));
+                return null;
+            }
+        });
+    }
+    
+    /**
+     * Runs a Select request with retries, recording the latency of every attempt and the
+     * retries, throttling, errors and BoxUsage in the metrics
+     *
+     * @param query         The Select Query
+     * @param nextToken     If there is a paging token to start from, or null if none
+     * @param select        Runs the Select request and returns its result
+     * @return              The result of the Select
+     * @throws AmazonClientException    If the query failed and can't be retried, or all the 
+     *                                  retries failed
+     */
+    private <T> T doQuery(String query, String nextToken, Select<T> select) {
+
+        for (int attempt = 0; ; attempt++) {
             
-            SelectRequest selectRequest = new SelectRequest(query);
+            try {
 
-            if (nextToken != null) {
-                selectRequest.setNextToken(nextToken);
-            }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Running Query: " + query);
+                }
 
-            results = sdb.select(selectRequest);
+                SelectRequest selectRequest = new SelectRequest(query);
 
-        } catch (AmazonServiceException ase) {
-            LOG.error("Caught an AmazonServiceException, which means your request made it "
-                    + "to Amazon SimpleDB, but was rejected with an error response for some reason.");
-            LOG.error("Select Query:     " + query);
-            LOG.error("Error Message:    " + ase.getMessage());
-            LOG.error("HTTP Status Code: " + ase.getStatusCode());
-            LOG.error("AWS Error Code:   " + ase.getErrorCode());
-            LOG.error("Error Type:       " + ase.getErrorType());
-            LOG.error("Request ID:       " + ase.getRequestId());
-        } catch (AmazonClientException ace) {
-            LOG.error("Caught an AmazonClientException, which means the client encountered "
-                    + "a serious internal problem while trying to communicate with SimpleDB, "
-                    + "such as not being able to access the network.");
-            LOG.error("Error Message: " + ace.getMessage());
-        } finally {
-            return results;
+                if (nextToken != null) {
+                    selectRequest.setNextToken(nextToken);
+                }
+
+                rateLimiter.acquire();
+                long start = System.currentTimeMillis();
+                T results;
+                try {
+                    results = select.run(selectRequest);
+                } finally {
+                    metrics.recordRequest(System.currentTimeMillis() - start);
+                }
+                rateLimiter.onSuccess();
+                recordBoxUsage(selectRequest);
+                return results;
+
+            } catch (AmazonServiceException ase) {
+                
+                boolean throttled = isThrottled(ase);
+                if (throttled) {
+                    rateLimiter.onThrottle();
+                }
+                
+                if (attempt >= maxRetries || !(throttled || isRetryable(ase))) {
+                    LOG.error("Caught an AmazonServiceException, which means your request made it "
+                            + "to Amazon SimpleDB, but was rejected with an error response for some reason.");
+                    LOG.error("Select Query:     " + query);
+                    LOG.error("Error Message:    " + ase.getMessage());
+                    LOG.error("HTTP Status Code: " + ase.getStatusCode());
+                    LOG.error("AWS Error Code:   " + ase.getErrorCode());
+                    LOG.error("Error Type:       " + ase.getErrorType());
+                    LOG.error("Request ID:       " + ase.getRequestId());
+                    LOG.error("Attempts:         " + (attempt + 1));
+                    metrics.recordError(throttled);
+                    throw ase;
+                }
+                
+                LOG.warn("Retrying SimpleDB query after " + ase.getErrorCode() + " (attempt " + (attempt + 1) + ")");
+                metrics.recordRetry(throttled);
+                
+            } catch (AmazonClientException ace) {
+                
+                if (attempt >= maxRetries) {
+                    LOG.error("Caught an AmazonClientException, which means the client encountered "
+                            + "a serious internal problem while trying to communicate with SimpleDB, "
+                            + "such as not being able to access the network.");
+                    LOG.error("Error Message: " + ace.getMessage());
+                    LOG.error("Attempts:      " + (attempt + 1));
+                    metrics.recordError(false);
+                    throw ace;
+                }
+                
+                LOG.warn("Retrying SimpleDB query after client error: " + ace.getMessage() + " (attempt " + (attempt + 1) + ")");
+                metrics.recordRetry(false);
+                
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted waiting to query SimpleDB", e);
+            }
+            
+            backoff(attempt);
+        }
+    }
+    
+    /**
+     * Records the BoxUsage SimpleDB returned in the response metadata of a request
+     * 
+     * @param selectRequest     The successful request
+     */
+    private void recordBoxUsage(SelectRequest selectRequest) {
+        
+        ResponseMetadata metadata = sdb.getCachedResponseMetadata(selectRequest);
+        if (metadata instanceof SimpleDBResponseMetadata) {
+            metrics.recordBoxUsage(((SimpleDBResponseMetadata) metadata).getBoxUsage());
         }
     }
     
+    /**
+     * Runs a Select request, so the same retries apply to every way of decoding the results
+     */
+    private interface Select<T> {
+        T run(SelectRequest selectRequest);
+    }
+    
+    /**
+     * Check if a service error means SimpleDB is throttling requests
+     * 
+     * @param ase   The service error
+     * @return      True if the request was throttled
+     */
+    static boolean isThrottled(AmazonServiceException ase) {
+        return ase.getStatusCode() == 503 || "ServiceUnavailable".equals(ase.getErrorCode());
+    }
+    
+    /**
+     * Check if a service error is temporary, so the request can be retried
+     * 
+     * @param ase   The service error
+     * @return      True if the request can be retried
+     */
+    static boolean isRetryable(AmazonServiceException ase) {
+        return ase.getStatusCode() >= 500 || "RequestTimeout".equals(ase.getErrorCode());
+    }
+    
+    /**
+     * Sleeps before retrying a request, for a random time up to an exponentially growing
+     * limit so concurrent tasks don't all retry at once
+     * 
+     * @param attempt   The attempt that failed, starting at 0
+     */
+    private void backoff(int attempt) {
+        
+        long delay = getBackoffDelay(attempt, retryBaseDelay, retryMaxDelay, random.nextDouble());
+        
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted retrying SimpleDB query", e);
+        }
+    }
+    
+    /**
+     * Gets the time to sleep before retrying a request
+     * 
+     * @param attempt       The attempt that failed, starting at 0
+     * @param baseDelay     The limit of the first retry's delay in milliseconds
+     * @param maxDelay      The largest limit in milliseconds
+     * @param random        A random number between 0 and 1
+     * @return              The delay in milliseconds, up to min(maxDelay, baseDelay * 2^attempt)
+     */
+    static long getBackoffDelay(int attempt, long baseDelay, long maxDelay, double random) {
+        return (long) (random * Math.min(maxDelay, baseDelay << Math.min(attempt, 30)));
+    }
+    
     /**
      * Creates a SimpleDB Query for a Count or Select
      * 
@@ -125,19 +331,91 @@ public class SimpleDBDAO {
      * @return          A Select statement to run on SimpleDB
      */
     private String createQuery(boolean isCount, long limit) {
+        return createQuery(isCount ? "COUNT(*)" : getSelectExpression(), whereQuery, range, null, limit);
+    }
+    
+    /**
+     * Creates the expression to select items with, either itemName() if only selecting
+     * keys, * or the quoted list of attributes set in simpledb.select.attributes
+     * 
+     * @return      The select expression
+     */
+    private String getSelectExpression() {
         
-        String query;
+        if (keysOnly) {
+            return SimpleDBKeyRange.ITEM_NAME;
+        } else if (selectAttributes == null) {
+            return "*";
+        }
         
-        if (isCount) {
-            query = "SELECT COUNT(*) FROM ";
-        } else {
-            query = "SELECT * FROM ";
+        String expression = "";
+        for (int i = 0; i < selectAttributes.length; i++) {
+            if (i > 0) {
+                expression += ", ";
+            }
+            expression += SimpleDBUtils.quoteName(selectAttributes[i]);
         }
+        return expression;
+    }
+    
+    /**
+     * Gets the list of attributes to select from simpledb.select.attributes
+     * 
+     * @param jobConf   Hadoop Job Configuration
+     * @return          The trimmed attribute names, or null to select all attributes
+     */
+    public static String[] getSelectAttributes(JobConf jobConf) {
+        
+        String[] attributes = jobConf.getStrings(SIMPLEDB_SELECT_ATTRIBUTES);
+        if (attributes == null || attributes.length == 0) {
+            return null;
+        }
+        
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = attributes[i].trim();
+        }
+        return attributes;
+    }
+    
+    /**
+     * Creates a SimpleDB Query. The where clause is the range (if any) ANDed with the 
+     * where query (if any). Any ORDER BY in the where query is moved after the combined
+     * where clause, unless an ORDER BY is given to override it
+     * 
+     * @param selectExpression  The expression to select, e.g. * or COUNT(*)
+     * @param whereQuery        The where query, or null to select all rows in the range
+     * @param range             The range of rows to select, null for all rows
+     * @param orderBy           The ORDER BY expression, or null to use the where query's ORDER BY
+     * @param limit             If > 0, will apply limit to query, else ignore
+     * @return                  A Select statement to run on SimpleDB
+     */
+    private String createQuery(String selectExpression, String whereQuery, SimpleDBKeyRange range, String orderBy, long limit) {
         
-        query += sdb_domain;
+        String query = "SELECT " + selectExpression + " FROM " + sdb_domain;
         
+        // Split the ORDER BY off the where query so the range can be ANDed with it
+        String whereClause = whereQuery;
         if (whereQuery != null) {
-            query += " WHERE " + whereQuery;
+            Matcher orderByMatcher = ORDER_BY_PATTERN.matcher(whereQuery);
+            if (orderByMatcher.find()) {
+                whereClause = whereQuery.substring(0, orderByMatcher.start());
+                if (orderBy == null) {
+                    orderBy = whereQuery.substring(orderByMatcher.end());
+                }
+            }
+        }
+        
+        if (range != null) {
+            query += " WHERE " + range.getWhereClause();
+            if (whereClause != null) {
+                query += " AND (" + whereClause + ")";
+            }
+        } else if (whereClause != null) {
+            query += " WHERE " + whereClause;
+        }
+        
+        if (orderBy != null) {
+            query += " ORDER BY " + orderBy;
         }
         
         if (limit > 0) {
@@ -169,29 +447,220 @@ public class SimpleDBDAO {
         this.whereQuery = whereQuery;
     }
     
+    /**
+     * ANDs a condition with a where query, keeping any ORDER BY at the end
+     * 
+     * @param whereQuery    The where query, or null if there is none
+     * @param condition     The condition to AND with it
+     * @return              The combined where query
+     */
+    public static String andWhere(String whereQuery, String condition) {
+        
+        if (whereQuery == null) {
+            return condition;
+        }
+        
+        Matcher orderByMatcher = ORDER_BY_PATTERN.matcher(whereQuery);
+        if (orderByMatcher.find()) {
+            return "(" + whereQuery.substring(0, orderByMatcher.start()) + ") AND " + condition 
+                    + whereQuery.substring(orderByMatcher.start());
+        }
+        return "(" + whereQuery + ") AND " + condition;
+    }
+    
+    /**
+     * Get the current range of rows queries are limited to, or null if none set
+     * 
+     * @return      The range
+     */
+    public SimpleDBKeyRange getRange() {
+        return this.range;
+    }
+    
+    /**
+     * Limit all queries to a range of rows, ANDed with the where query. Set null
+     * to clear it
+     * 
+     * @param range     The range to set
+     */
+    public void setRange(SimpleDBKeyRange range) {
+        this.range = range;
+    }
+    
+    /**
+     * Set the metrics to record requests in, which also reports the counters to their
+     * Reporter. Defaults to metrics that only report to Reporter.NULL
+     * 
+     * @param metrics   The metrics, which can be shared by several DAOs
+     */
+    public void setMetrics(SimpleDBMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Get the metrics requests are recorded in
+     * 
+     * @return  The metrics
+     */
+    public SimpleDBMetrics getMetrics() {
+        return this.metrics;
+    }
+    
     /**
      * Get the count for a Select query
      *
-     * @param query	WHERE Clause to select on, null if none
      * @return          Count of results
      */
     public long getCount() {
+        return getCount(range);
+    }
+    
+    /**
+     * Get the count for a Select query over a range of rows. Safe to call from 
+     * multiple threads to count different ranges at the same time
+     *
+     * @param range     The range to count, null for all rows
+     * @return          Count of results
+     */
+    public long getCount(SimpleDBKeyRange range) {
 
-        String countQuery = createQuery(true, -1);
+        String countQuery = createQuery("COUNT(*)", whereQuery, range, null, -1);
         long count = 0;
+        String nextToken = null;
 
         // Run Count Query, iterate over tokens if multiple tokens returned
-        SelectResult results = doQuery(countQuery, null);
-        count += getCountValue(results);
+        do {
+            SelectResult results = doQuery(countQuery, nextToken);
+            count += Math.max(0, getCountValue(results));
+            nextToken = results.getNextToken();
+        } while (nextToken != null);
+        
+        return count;
+    }
+    
+    /**
+     * Get the count for a Select query by dividing the item names into shards and counting
+     * the shards concurrently, which is much faster than one long chain of COUNT requests on
+     * large selections. The shards are equal lexicographic ranges between the first and last
+     * item names selected, with the outer shards open-ended, so the count is exact
+     * 
+     * @param shards    The number of shards to divide the item names into
+     * @param threads   The number of shards to count at the same time
+     * @return          Count of results
+     * @throws IOException
+     */
+    public long getParallelCount(int shards, int threads) throws IOException {
+        return getParallelCount(range, shards, threads);
+    }
+    
+    /**
+     * Get the count for a Select query over a range of item names by dividing the range into
+     * shards and counting the shards concurrently. Ranges over attributes can't be divided by
+     * item name so are counted with a single chain
+     * 
+     * @param range     The range to count, null for all rows
+     * @param shards    The number of shards to divide the item names into
+     * @param threads   The number of shards to count at the same time
+     * @return          Count of results
+     * @throws IOException
+     */
+    public long getParallelCount(SimpleDBKeyRange range, int shards, int threads) throws IOException {
+        
+        if (range != null && !range.getExpression().equals(SimpleDBKeyRange.ITEM_NAME)) {
+            return getCount(range);
+        }
+        
+        String first = getBoundaryItemName(range, false);
+        String last = getBoundaryItemName(range, true);
+        if (first == null) {
+            return 0;
+        }
+        if (shards <= 1 || first.compareTo(last) >= 0) {
+            return getCount(range);
+        }
+        
+        // Divide into shards, keeping the range's own bounds on the outer shards
+        List<SimpleDBKeyRange> shardRanges = new ArrayList<SimpleDBKeyRange>();
+        String lower = (range != null) ? range.getLower() : null;
+        for (String boundary : SimpleDBKeyRange.divide(first, last, shards)) {
+            shardRanges.add(new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, lower, boundary));
+            lower = boundary;
+        }
+        shardRanges.add(new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, lower, (range != null) ? range.getUpper() : null));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, shardRanges.size())));
+        List<Future<Long>> counts = new ArrayList<Future<Long>>();
+        
+        try {
+            for (final SimpleDBKeyRange shard : shardRanges) {
+                counts.add(executor.submit(new Callable<Long>() {
+                    public Long call() {
+                        return getCount(shard);
+                    }
+                }));
+            }
             
-        while (results.getNextToken() != null) {
-            count += getCountValue(results);    
-            // Get next results
-            results = doQuery(countQuery, results.getNextToken());
+            long count = 0;
+            for (Future<Long> shardCount : counts) {
+                count += shardCount.get();
+            }
+            
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Counted " + count + " rows in " + shardRanges.size() + " shards");
+            }
+            
+            return count;
+            
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted counting SimpleDB shards", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to count SimpleDB shards", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
+    }
+    
+    /**
+     * Get the first or last item name in a range of rows, in lexicographic order.
+     * Safe to call from multiple threads
+     * 
+     * @param range     The range of item names to search, null for all rows
+     * @param last      True - get the last item name, False - get the first item name
+     * @return          The item name, or null if there are no rows in the range
+     */
+    public String getBoundaryItemName(SimpleDBKeyRange range, boolean last) {
         
-        // Return 0 by default
-        return count;
+        if (range == null) {
+            range = new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, null, null);
+        }
+        
+        String query = createQuery(SimpleDBKeyRange.ITEM_NAME, whereQuery, range, 
+                SimpleDBKeyRange.ITEM_NAME + (last ? " DESC" : " ASC"), 1);
+        String nextToken = null;
+        
+        // Sorted queries can time out before finding a row, so follow the tokens until we get one
+        do {
+            SelectResult results = doQuery(query, nextToken);
+            if (!results.getItems().isEmpty()) {
+                return results.getItems().get(0).getName();
+            }
+            nextToken = results.getNextToken();
+        } while (nextToken != null);
+        
+        return null;
+    }
+    
+    /**
+     * Runs a single page of a count LIMIT query starting from the nextToken. Walking
+     * the nextToken chain of these pages counts through the domain in order, with
+     * each page counting at most limit rows
+     * 
+     * @param nextToken     The token to start counting from, or null for the start of the domain
+     * @param limit         The maximum number of rows to count in this page
+     * @return              The SelectResult of the count, use getCountValue() to get the count
+     */
+    public SelectResult getCountPage(String nextToken, long limit) {
+        return doQuery(createQuery(true, limit), nextToken);
     }
     
     /**
@@ -200,7 +669,7 @@ public class SimpleDBDAO {
      * @param result    The results of a count() query
      * @return          The count value
      */
-    private long getCountValue(SelectResult result) {
+    public long getCountValue(SelectResult result) {
         
         for (Item item : result.getItems()) {    
             for (Attribute attribute : item.getAttributes()) {
@@ -214,6 +683,37 @@ public class SimpleDBDAO {
         return -1;
     }
     
+    /**
+     * Get the item names in a range of rows in lexicographic order, ignoring the
+     * where query. Safe to call from multiple threads
+     * 
+     * @param range     The range of item names to get
+     * @param limit     The maximum number of item names to get, capped at MAX_SELECT_LIMIT
+     * @return          The item names, in order
+     */
+    public List<String> getAllItemNames(SimpleDBKeyRange range, int limit) {
+        
+        if (limit <= 0 || limit > MAX_SELECT_LIMIT) {
+            limit = MAX_SELECT_LIMIT;
+        }
+        
+        String query = createQuery(SimpleDBKeyRange.ITEM_NAME, null, range, SimpleDBKeyRange.ITEM_NAME + " ASC", limit);
+        List<String> itemNames = new ArrayList<String>();
+        String nextToken = null;
+        
+        do {
+            SelectResult results = doQuery(query, nextToken);
+            for (Item item : results.getItems()) {
+                if (itemNames.size() < limit) {
+                    itemNames.add(item.getName());
+                }
+            }
+            nextToken = results.getNextToken();
+        } while (nextToken != null && itemNames.size() < limit);
+        
+        return itemNames;
+    }
+    
     /**
      * Runs a count LIMIT query for LIMIT = offset to get the nextToken from
      * that row onwards
@@ -264,7 +764,8 @@ public class SimpleDBDAO {
         
         while(totalItems < limit) {
             
-            SelectResult results = doQuery(createQuery(false, MAX_SELECT_LIMIT), currentToken);
+            // Don't fetch rows past the limit on the last page
+            SelectResult results = doQuery(createQuery(false, Math.min(MAX_SELECT_LIMIT, limit - totalItems)), currentToken);
             for (Item item : results.getItems()) {
                 
                 if (totalItems < limit) {
@@ -282,6 +783,81 @@ public class SimpleDBDAO {
         return items;
     }
     
+    /**
+     * Gets a single page of items from the Domain starting at the nextToken. Unlike
+     * getItems() this only runs one Select request, so callers can page through a
+     * range without holding more than one page of items in memory
+     * 
+     * @param nextToken     The token to start the page from, or null for the start of the domain
+     * @param limit         The maximum items in the page, capped at MAX_SELECT_LIMIT
+     * @return              The SelectResult with the page of Items and the nextToken for the
+     *                      following page, which is null if there's no more data
+     */
+    public SelectResult getItemsPage(String nextToken, int limit) {
+        
+        if (limit <= 0 || limit > MAX_SELECT_LIMIT) {
+            limit = MAX_SELECT_LIMIT;
+        }
+        
+        return doQuery(createQuery(false, limit), nextToken);
+    }
+    
+    /**
+     * Gets a single page of items from the Domain starting at the nextToken, decoding the
+     * response straight into a reusable page instead of the AWS SDK object model
+     * 
+     * @param nextToken     The token to start the page from, or null for the start of the domain
+     * @param limit         The maximum items in the page, capped at MAX_SELECT_LIMIT
+     * @param page          The page to decode the Items and the nextToken for the following
+     *                      page into, which is null if there's no more data
+     */
+    public void getItemsPage(String nextToken, int limit, SimpleDBSelectPage page) {
+        
+        if (limit <= 0 || limit > MAX_SELECT_LIMIT) {
+            limit = MAX_SELECT_LIMIT;
+        }
+        
+        doQuery(createQuery(false, limit), nextToken, page);
+    }
+    
+    /**
+     * Gets the next page of a scan starting at the nextToken, with the page size chosen by
+     * the SimpleDBPageSizer from the items and response sizes seen so far and the rows left
+     * to read. Reports the page size and latency counters to the Reporter
+     * 
+     * @param nextToken         The token to start the page from, or null for the start of the domain
+     * @param remainingItems    The number of rows left to read, Long.MAX_VALUE if unknown
+     * @return                  The SelectResult with the page of Items and the nextToken for the
+     *                          following page, which is null if there's no more data
+     */
+    public SelectResult getNextItemsPage(String nextToken, long remainingItems) {
+        
+        int limit = pageSizer.getLimit(remainingItems);
+        long start = System.currentTimeMillis();
+        SelectResult result = doQuery(createQuery(false, limit), nextToken);
+        pageSizer.update(limit, result.getItems().size(), SimpleDBPageSizer.estimateBytes(result.getItems()), 
+                result.getNextToken() != null, System.currentTimeMillis() - start, metrics.getReporter());
+        return result;
+    }
+    
+    /**
+     * Gets the next page of a scan starting at the nextToken with an adaptive page size,
+     * decoding the response straight into a reusable page
+     * 
+     * @param nextToken         The token to start the page from, or null for the start of the domain
+     * @param remainingItems    The number of rows left to read, Long.MAX_VALUE if unknown
+     * @param page              The page to decode the Items and the nextToken for the following
+     *                          page into, which is null if there's no more data
+     */
+    public void getNextItemsPage(String nextToken, long remainingItems, SimpleDBSelectPage page) {
+        
+        int limit = pageSizer.getLimit(remainingItems);
+        long start = System.currentTimeMillis();
+        doQuery(createQuery(false, limit), nextToken, page);
+        pageSizer.update(limit, page.size(), SimpleDBPageSizer.estimateBytes(page), 
+                page.getNextToken() != null, System.currentTimeMillis() - start, metrics.getReporter());
+    }
+    
     /**
      * Select a list of unique results as Hashmap. The field will specify which 
      * field to return all unique results for, and the HashMap value for that field
@@ -294,7 +870,9 @@ public class SimpleDBDAO {
     public HashMap<String, Integer> doSelectUniqueQuery(final String field) {
         
         HashMap<String, Integer> uniqueResults = new HashMap<String, Integer>();
-        SelectResult results = doQuery(createQuery(false, -1), null);
+        // Only select the field we need
+        final String query = createQuery(SimpleDBUtils.quoteName(field), whereQuery, range, null, -1);
+        SelectResult results = doQuery(query, null);
         int totalCount = 0;
         
         while ((results.getNextToken() != null)) {
@@ -324,19 +902,91 @@ public class SimpleDBDAO {
             }
             
             // Get next results
-            results = doQuery(createQuery(false, -1), results.getNextToken());
+            results = doQuery(query, results.getNextToken());
         }
         
         // Return full list of unique results
         return uniqueResults;
     }
     
+    /**
+     * Lists the domains whose names start with a prefix, following the ListDomains nextToken
+     * 
+     * @param prefix    The domain name prefix
+     * @return          The matching domain names, in the order SimpleDB lists them
+     */
+    public List<String> listDomains(String prefix) {
+        
+        List<String> domains = new ArrayList<String>();
+        String nextToken = null;
+        
+        do {
+            ListDomainsResult result = sdb.listDomains(new ListDomainsRequest().withNextToken(nextToken));
+            for (String domain : result.getDomainNames()) {
+                if (domain.startsWith(prefix)) {
+                    domains.add(domain);
+                }
+            }
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+        
+        return domains;
+    }
+    
+    /**
+     * Get the highest value of an attribute in the rows selected by the where query and
+     * range. The where query must have a condition on the attribute so it can be sorted
+     * 
+     * @param attribute     The attribute name
+     * @return              The highest value, or null if there are no rows with the attribute
+     */
+    public String getMaxValue(String attribute) {
+        
+        String name = SimpleDBUtils.quoteName(attribute);
+        String query = createQuery(name, whereQuery, range, name + " DESC", 1);
+        String nextToken = null;
+        
+        // Sorted queries can time out before finding a row, so follow the tokens until we get one
+        do {
+            SelectResult results = doQuery(query, nextToken);
+            for (Item item : results.getItems()) {
+                for (Attribute value : item.getAttributes()) {
+                    if (value.getName().equals(attribute)) {
+                        return value.getValue();
+                    }
+                }
+            }
+            nextToken = results.getNextToken();
+        } while (nextToken != null);
+        
+        return null;
+    }
+    
     /**
      * Get total item count in domain
      * 
      * @return  Total Item Count in domain
      */
     public long getTotalItemCount() {       
-        return sdb.domainMetadata(new DomainMetadataRequest(sdb_domain)).getItemCount().longValue();
+        return getDomainMetadata().getItemCount().longValue();
+    }
+    
+    /**
+     * Get the DomainMetadata of the domain, with the item count, sizes and the
+     * timestamp the metadata was last updated
+     * 
+     * @return  The DomainMetadata of the domain
+     */
+    public DomainMetadataResult getDomainMetadata() {
+        return sdb.domainMetadata(new DomainMetadataRequest(sdb_domain));
+    }
+    
+    /**
+     * Get the SimpleDB domain this DAO queries
+     * 
+     * @return  The domain name
+     */
+    public String getDomain() {
+        return this.sdb_domain;
     }
 }
@@ -17,7 +17,17 @@
 package com.davidgildeh.hadoop.input.simpledb;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import com.amazonaws.services.simpledb.model.SelectResult;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.io.MapWritable;
@@ -37,9 +47,10 @@ import org.apache.hadoop.mapred.*;
  * 
  * The SimpleDBInputFormat splits the SimpleDB domain by simpledb.split.size (default 100,000) rows,
  * creating InputSplits for each range of rows with a startRow, endRow and nextToken to load the range
- * from SimpleDB. It iterates over the total number of rows in the SimpleDB Domain, or a filtered list of
- * rows if a simpledb.wherequery is provided, getting the nextToken for the end of that split so the next
- * split can load its rows from the end of the last split. 
+ * from SimpleDB. It walks the COUNT ... LIMIT nextToken chain over the SimpleDB Domain once, or a filtered
+ * list of rows if a simpledb.wherequery is provided, and creates a new split each time the running count
+ * crosses the split size, using the nextToken at that point so the next split can load its rows from the
+ * end of the last split. Planning therefore costs one pass over the domain however many splits there are. 
  * 
  * Once the InputSplits are created (note they're created in memory as an array so they only hold range
  * data for the RecordReaders to load across the cluster, and the number of splits needs to be small or
@@ -52,10 +63,88 @@ import org.apache.hadoop.mapred.*;
  * - simpledb.aws.accessKey: Your AWS Account Access Key to access SimpleDB
  * - simpledb.aws.secretKey: Your AWS Account Secret Key to access SimpleDB
  * - simpledb.domain: The SimpleDB Domain to load the data from
+ * - simpledb.domains: (OPTIONAL) Comma separated list of domains to read instead of simpledb.domain,
+ *                        for data sharded across domains. The splits of each domain are planned
+ *                        concurrently with all the settings below. The order tasks run in is left
+ *                        to JobClient, which sorts splits by length
+ * - simpledb.domain.prefix: (OPTIONAL) Read every domain whose name starts with the prefix, found
+ *                        with ListDomains, instead of simpledb.domain
+ * - simpledb.domain.tag: (OPTIONAL) Attribute the source domain is put in when reading several
+ *                        domains. Defaults to _domain, set empty to leave it out
+ * - simpledb.queries: (OPTIONAL) Comma separated names of where queries to run in one job instead
+ *                        of simpledb.wherequery, with each query's where clause set in
+ *                        simpledb.query.[name].where. Each query is planned concurrently. Items
+ *                        matching several queries are read once for each, so use disjoint queries
+ *                        unless the job wants that. Combines with several domains, running every
+ *                        query on every domain
+ * - simpledb.query.tag: (OPTIONAL) Attribute the query name is put in when running named queries.
+ *                        Defaults to _query, set empty to leave it out
  * - simpledb.aws.region: (OPTIONAL) The AWS Region the SimpleDB is in, defaults to US-EAST
+ * - simpledb.client.*: (OPTIONAL) HTTP connection pool size, timeouts and retries of the shared
+ *                        SimpleDB clients. See SimpleDBClientRegistry
+ * - simpledb.retry.*, simpledb.throttle.*: (OPTIONAL) Retry backoff of failed requests and adaptive
+ *                        per-domain rate limiting when SimpleDB throttles requests. See SimpleDBDAO
+ *                        and SimpleDBRateLimiter
  * - simpledb.split.size: (OPTIONAL) LIMIT size to page through rows in SimpleDB. Cannot be
  *                        greater than 100,000. Defaults to 100,000
  * - simpledb.wherequery: (OPTIONAL) Any where/order by query. Do not include LIMIT
+ * - simpledb.select.attributes: (OPTIONAL) Comma separated list of the attributes to select. Only
+ *                        these attributes are fetched from SimpleDB and put in the values. Defaults
+ *                        to all attributes
+ * - simpledb.select.keysonly: (OPTIONAL) Set to true to only select the item names with SELECT itemName(),
+ *                        for jobs that only need the keys. The values are always empty. Defaults to false
+ * - simpledb.reader.streaming: (OPTIONAL) Set to true to have the RecordReaders fetch one page
+ *                        of items at a time instead of loading the whole split into memory.
+ *                        Defaults to false
+ * - simpledb.reader.prefetch.depth: (OPTIONAL) Number of pages each RecordReader fetches ahead in
+ *                        the background while the Mappers process the current page. Turns on
+ *                        streaming when greater than 0. Defaults to 0
+ * - simpledb.reader.page.adaptive: (OPTIONAL) Set to false to stop streaming readers adapting
+ *                        the page size to the item size. Defaults to true
+ * - simpledb.reader.page.target.bytes: (OPTIONAL) Estimated response size adaptive pages aim
+ *                        for. Defaults to 900000
+ * - simpledb.reader.page.slow.millis: (OPTIONAL) Page fetch time that halves the adaptive page
+ *                        size. Defaults to 3000
+ * - simpledb.reader.raw: (OPTIONAL) Set to true to decode Select responses straight into Texts
+ *                        with the SimpleDBSelectDecoder instead of the AWS SDK object model.
+ *                        Turns on streaming, ignored when prefetching. Defaults to false
+ * - simpledb.reader.parallel.streams: (OPTIONAL) Number of sub-ranges each RecordReader divides
+ *                        a range split into and fetches concurrently. Defaults to 1
+ * - simpledb.reader.parallel.ordered: (OPTIONAL) Set to true to read the parallel sub-ranges in
+ *                        range order instead of the order pages arrive. Defaults to false
+ * - simpledb.reader.checkpoint.dir: (OPTIONAL) Directory on HDFS to save read checkpoints in, so
+ *                        retried tasks resume near where the failed attempt stopped. Resuming
+ *                        leaves rows out of the job output, so only use with Mappers that write
+ *                        to an external idempotent sink, and speculative execution of maps off.
+ *                        See SimpleDBCheckpoint
+ * - simpledb.reader.checkpoint.interval: (OPTIONAL) Pages to read between checkpoints. Defaults to 10
+ * - simpledb.split.strategy: (OPTIONAL) How to plan the splits, defaults to token:
+ *                        - token: Walk the COUNT nextToken chain as described above
+ *                        - itemname: Divide the item names into lexicographic ranges so each split
+ *                          is read with an independent itemName() >= a AND itemName() < b query.
+ *                          Ranges are found by bisecting between sampled first/last item names and
+ *                          counted concurrently by simpledb.split.threads (default 10) threads.
+ *                          Set simpledb.split.estimate to true to skip counting and instead divide the
+ *                          item names by an estimate of the rows selected, from the DomainMetadata and
+ *                          the where query selectivity over simpledb.split.estimate.samples (default 5)
+ *                          runs of simpledb.split.estimate.sample.size (default 1000) item names. The
+ *                          first and last splits are open-ended so no rows are lost to estimation errors
+ *                        - attribute: One split per bucket of a zero-padded numeric attribute such as
+ *                          a timestamp, ANDed with the simpledb.wherequery. Set the attribute name with
+ *                          simpledb.split.attribute, the range with simpledb.split.attribute.start
+ *                          (inclusive) and simpledb.split.attribute.end (exclusive), and the bucket width
+ *                          with simpledb.split.attribute.interval. Buckets with more rows than the split
+ *                          size are divided automatically
+ * - simpledb.incremental.attribute: (OPTIONAL) Modification time attribute to scan incrementally
+ *                        by, so each run only reads the items modified since the last successful run.
+ *                        Set simpledb.incremental.dir to the HDFS directory to save the watermarks in,
+ *                        and call SimpleDBWatermark.commit() once the job succeeds
+ * - simpledb.split.cache.dir: (OPTIONAL) Directory on HDFS to cache planned splits in, so they're 
+ *                        reused while the domain is unchanged. See SimpleDBSplitCache for the
+ *                        tolerance settings
+ * 
+ * To read a domain from a snapshot on HDFS while it is fresh enough, export it with
+ * SimpleDBSnapshot and use SimpleDBSnapshotInputFormat instead.
  * 
  * @author David Gildeh
  */
@@ -67,13 +156,60 @@ public class SimpleDBInputFormat  implements InputFormat<Text, MapWritable> {
     // Set the split size (number of rows), Max & default = 100,000
     public static final String SIMPLEDB_SPLIT_SIZE = "simpledb.split.size";
     
+    // Set how splits are planned, token (default) or itemname
+    public static final String SIMPLEDB_SPLIT_STRATEGY = "simpledb.split.strategy";
+    
+    // Split strategies
+    public static final String SPLIT_STRATEGY_TOKEN = "token";
+    public static final String SPLIT_STRATEGY_ITEMNAME = "itemname";
+    public static final String SPLIT_STRATEGY_ATTRIBUTE = "attribute";
+    
+    // Set to true to plan itemname splits from an estimate of the row count instead of counting
+    public static final String SIMPLEDB_SPLIT_ESTIMATE = "simpledb.split.estimate";
+    public static final String SIMPLEDB_SPLIT_ESTIMATE_SAMPLES = "simpledb.split.estimate.samples";
+    public static final String SIMPLEDB_SPLIT_ESTIMATE_SAMPLE_SIZE = "simpledb.split.estimate.sample.size";
+    
+    // Attribute range split settings
+    public static final String SIMPLEDB_SPLIT_ATTRIBUTE = "simpledb.split.attribute";
+    public static final String SIMPLEDB_SPLIT_ATTRIBUTE_START = "simpledb.split.attribute.start";
+    public static final String SIMPLEDB_SPLIT_ATTRIBUTE_END = "simpledb.split.attribute.end";
+    public static final String SIMPLEDB_SPLIT_ATTRIBUTE_INTERVAL = "simpledb.split.attribute.interval";
+    
+    // Comma separated list of domains to read instead of simpledb.domain
+    public static final String SIMPLEDB_DOMAINS = "simpledb.domains";
+    
+    // Read every domain starting with the prefix instead of simpledb.domain
+    public static final String SIMPLEDB_DOMAIN_PREFIX = "simpledb.domain.prefix";
+    
+    // Attribute to tag records with their source domain when reading several domains,
+    // defaults to _domain, set empty to not tag records
+    public static final String SIMPLEDB_DOMAIN_TAG = "simpledb.domain.tag";
+    public static final String DEFAULT_DOMAIN_TAG = "_domain";
+    
+    // Comma separated names of where queries to run instead of simpledb.wherequery, each
+    // set with simpledb.query.[name].where
+    public static final String SIMPLEDB_QUERIES = "simpledb.queries";
+    
+    // Attribute to tag records with the name of their query when running named queries,
+    // defaults to _query, set empty to not tag records
+    public static final String SIMPLEDB_QUERY_TAG = "simpledb.query.tag";
+    public static final String DEFAULT_QUERY_TAG = "_query";
+    
     // Name of 'time' field in SimpleDB domain to split data with
     private static final int MAX_SPLIT_SIZE = 100000;
     
+    // Default number of threads to plan range splits with
+    private static final int DEFAULT_SPLIT_THREADS = 10;
+    
+    // Default number of samples and item names per sample to estimate row counts with
+    private static final int DEFAULT_ESTIMATE_SAMPLES = 5;
+    private static final int DEFAULT_ESTIMATE_SAMPLE_SIZE = 1000;
+    
     /**
      * Main method to generate splits from SimpleDB. Takes a start and end date range
      * and generates split periods to filter SimpleDB based on split period given in 
-     * configuration
+     * configuration. If several domains or named queries are configured, the splits of every
+     * domain and query are planned concurrently
      * 
      * @param jobConf       The Map Task Job Configuration
      * @param numSplits     Hint to calculate the number of splits
@@ -82,6 +218,241 @@ public class SimpleDBInputFormat  implements InputFormat<Text, MapWritable> {
      */
     public InputSplit[] getSplits(JobConf jobConf, int numSplits) throws IOException {
         
+        // Pending watermarks left by a failed run must not be committed by this run
+        if (SimpleDBWatermark.isEnabled(jobConf)) {
+            SimpleDBWatermark.abort(jobConf);
+        }
+        
+        List<String> domains = getDomains(jobConf);
+        List<String> queries = getQueries(jobConf);
+        List<SimpleDBInputSplit> splits = (domains != null || queries != null) 
+                ? planUnionSplits(jobConf, domains, queries) : planSplits(jobConf);
+        
+        // Return array of splits
+        return splits.toArray(new SimpleDBInputSplit[splits.size()]);
+    }
+    
+    /**
+     * Gets the domains to read when sharded input is configured, from simpledb.domains or
+     * the domains starting with simpledb.domain.prefix
+     * 
+     * @param jobConf       The Job Configuration
+     * @return              The domains in order, or null to read only simpledb.domain
+     * @throws IOException  If no domains match
+     */
+    private List<String> getDomains(JobConf jobConf) throws IOException {
+        
+        List<String> domains;
+        String prefix = jobConf.get(SIMPLEDB_DOMAIN_PREFIX);
+        
+        if (jobConf.get(SIMPLEDB_DOMAINS) != null) {
+            domains = getList(jobConf, SIMPLEDB_DOMAINS);
+        } else if (prefix != null) {
+            domains = new SimpleDBDAO(jobConf).listDomains(prefix);
+        } else {
+            return null;
+        }
+        
+        if (domains.isEmpty()) {
+            throw new IOException("No SimpleDB domains found in " + SIMPLEDB_DOMAINS + " or with " 
+                    + SIMPLEDB_DOMAIN_PREFIX + " " + prefix);
+        }
+        
+        LOG.info("Reading " + domains.size() + " SimpleDB domains: " + domains);
+        return domains;
+    }
+    
+    /**
+     * Gets the names of the queries to run when named queries are configured in simpledb.queries
+     * 
+     * @param jobConf       The Job Configuration
+     * @return              The query names in order, or null to run only simpledb.wherequery
+     * @throws IOException  If a query has no simpledb.query.[name].where
+     */
+    private List<String> getQueries(JobConf jobConf) throws IOException {
+        
+        if (jobConf.get(SIMPLEDB_QUERIES) == null) {
+            return null;
+        }
+        
+        List<String> queries = getList(jobConf, SIMPLEDB_QUERIES);
+        for (String query : queries) {
+            getRequired(jobConf, getQueryWhereKey(query));
+        }
+        
+        LOG.info("Running " + queries.size() + " SimpleDB queries: " + queries);
+        return queries;
+    }
+    
+    /**
+     * Gets a comma separated list from the Job Configuration
+     * 
+     * @param jobConf       The Job Configuration
+     * @param name          The configuration name
+     * @return              The trimmed non-empty entries
+     */
+    private static List<String> getList(JobConf jobConf, String name) {
+        
+        List<String> entries = new ArrayList<String>();
+        for (String entry : jobConf.get(name, "").split(",")) {
+            if (!entry.trim().isEmpty()) {
+                entries.add(entry.trim());
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * Get the configuration name of a named query's where query
+     * 
+     * @param query     The query name
+     * @return          simpledb.query.[name].where
+     */
+    public static String getQueryWhereKey(String query) {
+        return "simpledb.query." + query + ".where";
+    }
+    
+    /**
+     * Plans the splits of every domain and query concurrently. The splits are returned taking
+     * one from each domain and query in turn, but JobClient sorts the splits by length before
+     * the tasks are scheduled, so this doesn't decide the order tasks run in
+     * 
+     * @param jobConf       The Job Configuration
+     * @param domains       The domains to plan, or null for simpledb.domain
+     * @param queries       The named queries to plan, or null for simpledb.wherequery
+     * @return              The splits of every domain and query, taking one from each in turn
+     * @throws IOException 
+     */
+    private List<SimpleDBInputSplit> planUnionSplits(final JobConf jobConf, List<String> domains, 
+            List<String> queries) throws IOException {
+        
+        if (domains == null) {
+            domains = Collections.singletonList(null);
+        }
+        if (queries == null) {
+            queries = Collections.singletonList(null);
+        }
+        
+        int threads = jobConf.getInt(SimpleDBRangeSplitPlanner.SIMPLEDB_SPLIT_THREADS, DEFAULT_SPLIT_THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, domains.size() * queries.size())));
+        List<List<SimpleDBInputSplit>> sourceSplits = new ArrayList<List<SimpleDBInputSplit>>();
+        
+        try {
+            List<Future<List<SimpleDBInputSplit>>> futures = new ArrayList<Future<List<SimpleDBInputSplit>>>();
+            for (final String domain : domains) {
+                for (final String query : queries) {
+                    futures.add(executor.submit(new Callable<List<SimpleDBInputSplit>>() {
+                        public List<SimpleDBInputSplit> call() throws IOException {
+                            List<SimpleDBInputSplit> splits = planSplits(getSplitConf(jobConf, domain, query));
+                            for (SimpleDBInputSplit split : splits) {
+                                split.setDomain(domain);
+                                split.setQuery(query);
+                            }
+                            return splits;
+                        }
+                    }));
+                }
+            }
+            
+            for (Future<List<SimpleDBInputSplit>> future : futures) {
+                sourceSplits.add(future.get());
+            }
+            
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted planning SimpleDB domains and queries");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to plan SimpleDB domains and queries", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        // Round robin over the domains and queries, which keeps the splits of the same size
+        // interleaved through JobClient's stable sort by length
+        List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
+        for (int i = 0; ; i++) {
+            boolean added = false;
+            for (List<SimpleDBInputSplit> list : sourceSplits) {
+                if (i < list.size()) {
+                    splits.add(list.get(i));
+                    added = true;
+                }
+            }
+            if (!added) {
+                break;
+            }
+        }
+        
+        return splits;
+    }
+    
+    /**
+     * Gets a copy of the Job Configuration that reads a single domain and query
+     * 
+     * @param jobConf       The Job Configuration
+     * @param domain        The domain to read, or null for simpledb.domain
+     * @param query         The named query to run, or null for simpledb.wherequery
+     * @return              The Job Configuration with simpledb.domain and simpledb.wherequery set
+     */
+    public static JobConf getSplitConf(JobConf jobConf, String domain, String query) {
+        
+        JobConf splitConf = new JobConf(jobConf);
+        if (domain != null) {
+            splitConf.set(SimpleDBDAO.SIMPLEDB_DOMAIN, domain);
+        }
+        if (query != null) {
+            splitConf.set(SimpleDBDAO.SIMPLEDB_WHERE_QUERY, jobConf.get(getQueryWhereKey(query)));
+        }
+        return splitConf;
+    }
+    
+    /**
+     * Gets a copy of the Job Configuration that reads a split's domain and query, with the
+     * split's filter ANDed with the where query
+     * 
+     * @param jobConf       The Job Configuration
+     * @param split         The split to read
+     * @return              The Job Configuration for the split
+     */
+    public static JobConf getSplitConf(JobConf jobConf, SimpleDBInputSplit split) {
+        
+        JobConf splitConf = getSplitConf(jobConf, split.getDomain(), split.getQuery());
+        if (split.getFilter() != null) {
+            splitConf.set(SimpleDBDAO.SIMPLEDB_WHERE_QUERY, 
+                    SimpleDBDAO.andWhere(splitConf.get(SimpleDBDAO.SIMPLEDB_WHERE_QUERY), split.getFilter()));
+        }
+        return splitConf;
+    }
+
+    /**
+     * Builds the key the splits are cached under, from every setting that changes the plan
+     *
+     * @param jobConf       The Job Configuration
+     * @param sdb           The DAO of the domain, with the where query to plan
+     * @param splitSize     The split size in rows
+     * @param strategy      The split strategy
+     * @return              The split cache key
+     */
+    static String getCacheKey(JobConf jobConf, SimpleDBDAO sdb, int splitSize, String strategy) {
+        return sdb.getWhereQuery() + "|" + splitSize + "|" + strategy
+                + "|" + jobConf.getBoolean(SIMPLEDB_SPLIT_ESTIMATE, false)
+                + "|" + jobConf.get(SIMPLEDB_SPLIT_ATTRIBUTE) + "|" + jobConf.get(SIMPLEDB_SPLIT_ATTRIBUTE_START)
+                + "|" + jobConf.get(SIMPLEDB_SPLIT_ATTRIBUTE_END) + "|" + jobConf.get(SIMPLEDB_SPLIT_ATTRIBUTE_INTERVAL);
+    }
+
+    /**
+     * Plans the splits of the domain in simpledb.domain. For incremental scans, only the
+     * items modified since the committed watermark are planned, and the high watermark is
+     * saved as pending
+     * 
+     * @param jobConf       The Job Configuration
+     * @return              The splits
+     * @throws IOException 
+     */
+    private List<SimpleDBInputSplit> planSplits(JobConf jobConf) throws IOException {
+        
         // Get the splitsize (number of rows), defaults to 100,000 as much larger seems to 
         // screw up getting accurate rows
         int splitSize = Integer.parseInt(jobConf.get(SimpleDBInputFormat.SIMPLEDB_SPLIT_SIZE, String.valueOf(MAX_SPLIT_SIZE)));
@@ -89,48 +460,150 @@ public class SimpleDBInputFormat  implements InputFormat<Text, MapWritable> {
             splitSize = MAX_SPLIT_SIZE;
         }
         
-        // Get total number of rows to calculate number of splits required
         SimpleDBDAO sdb = new SimpleDBDAO(jobConf);
-        long totalItems;
-        if (sdb.getWhereQuery() != null) {
-            totalItems = sdb.getCount();
-        } else {
-            totalItems = sdb.getTotalItemCount();
-        }
-
-        long totalSplits = 1;
-        if (splitSize < totalItems) {
-            totalSplits = totalItems / splitSize;
+        String strategy = jobConf.get(SIMPLEDB_SPLIT_STRATEGY, SPLIT_STRATEGY_TOKEN);
+        
+        // Limit incremental scans to the items between the committed and high watermarks
+        String filter = null;
+        if (SimpleDBWatermark.isEnabled(jobConf)) {
+            filter = SimpleDBWatermark.plan(jobConf, sdb);
+            if (filter == null) {
+                return new ArrayList<SimpleDBInputSplit>();
+            }
         }
-
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Total Rows:" + String.valueOf(totalItems));
-            LOG.debug("Total Splits:" + String.valueOf(totalSplits));
+        List<SimpleDBInputSplit> splits = null;
+        
+        // Reuse the cached splits if the domain hasn't changed since they were planned
+        SimpleDBSplitCache cache = null;
+        DomainMetadataResult metadata = null;
+        if (SimpleDBSplitCache.isEnabled(jobConf)) {
+            metadata = sdb.getDomainMetadata();
+            cache = new SimpleDBSplitCache(jobConf, sdb.getDomain(), getCacheKey(jobConf, sdb, splitSize, strategy));
+            splits = cache.load(metadata);
         }
         
-        // Array to hold splits
-        ArrayList<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
-       
-        // Create Splits
-        for (int i = 0; i  < totalSplits; i++) {
+        if (splits == null) {
+            int threads = jobConf.getInt(SimpleDBRangeSplitPlanner.SIMPLEDB_SPLIT_THREADS, DEFAULT_SPLIT_THREADS);
             
-            String splitToken = sdb.getSplitToken(i, splitSize);
-            long startRow = i * splitSize;
-            long endRow = startRow + splitSize;
-            if (endRow > totalItems) {
-                endRow = totalItems;
+            if (strategy.equals(SPLIT_STRATEGY_ITEMNAME) && jobConf.getBoolean(SIMPLEDB_SPLIT_ESTIMATE, false)) {
+                // Divide the item names by an estimate of the rows selected instead of counting them
+                if (metadata == null) {
+                    metadata = sdb.getDomainMetadata();
+                }
+                splits = new SimpleDBRangeSplitPlanner(sdb, splitSize, threads).planEstimatedItemNameSplits(
+                        metadata.getItemCount().longValue(),
+                        jobConf.getInt(SIMPLEDB_SPLIT_ESTIMATE_SAMPLES, DEFAULT_ESTIMATE_SAMPLES),
+                        jobConf.getInt(SIMPLEDB_SPLIT_ESTIMATE_SAMPLE_SIZE, DEFAULT_ESTIMATE_SAMPLE_SIZE));
+            } else if (strategy.equals(SPLIT_STRATEGY_ITEMNAME)) {
+                // Bisect the item names into ranges, counting the ranges concurrently
+                splits = new SimpleDBRangeSplitPlanner(sdb, splitSize, threads).planItemNameSplits();
+            } else if (strategy.equals(SPLIT_STRATEGY_ATTRIBUTE)) {
+                // One split per attribute bucket, dividing any bucket that's too large
+                splits = new SimpleDBRangeSplitPlanner(sdb, splitSize, threads).planAttributeSplits(
+                        getRequired(jobConf, SIMPLEDB_SPLIT_ATTRIBUTE),
+                        getRequired(jobConf, SIMPLEDB_SPLIT_ATTRIBUTE_START),
+                        getRequired(jobConf, SIMPLEDB_SPLIT_ATTRIBUTE_END),
+                        Long.parseLong(getRequired(jobConf, SIMPLEDB_SPLIT_ATTRIBUTE_INTERVAL)));
+            } else if (strategy.equals(SPLIT_STRATEGY_TOKEN)) {
+                // Walk the count chain once to find the split boundaries
+                splits = getTokenSplits(sdb, splitSize);
+            } else {
+                throw new IOException("Unknown " + SIMPLEDB_SPLIT_STRATEGY + ": " + strategy);
             }
             
-            SimpleDBInputSplit split = new SimpleDBInputSplit(startRow, endRow, splitToken);
-            splits.add(split);
-            
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Created Split: " + split.toString());
+            if (cache != null) {
+                cache.save(metadata, splits);
             }
         }
         
-        // Return array of splits
-        return splits.toArray(new SimpleDBInputSplit[splits.size()]);
+        // Size the splits in bytes from the domain's current average item size
+        if (metadata == null) {
+            metadata = sdb.getDomainMetadata();
+        }
+        long itemBytes = SimpleDBPageSizer.estimateItemBytes(metadata, jobConf.getBoolean(SimpleDBDAO.SIMPLEDB_SELECT_KEYSONLY, false));
+        for (SimpleDBInputSplit split : splits) {
+            split.setItemBytes(itemBytes);
+            split.setFilter(filter);
+        }
+        
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Estimated Item Bytes:" + String.valueOf(itemBytes));
+            LOG.debug("Total Rows:" + String.valueOf(splits.get(splits.size() - 1).getEndRow()));
+            LOG.debug("Total Splits:" + String.valueOf(splits.size()));
+        }
+        
+        // getSplits() has no Reporter, so planning is only summarised in the client log
+        sdb.getMetrics().summarise(LOG, "planning " + splits.size() + " splits of " + sdb.getDomain());
+        
+        return splits;
+    }
+
+    /**
+     * Gets a configuration value that must be set
+     * 
+     * @param jobConf       The Job Configuration
+     * @param name          The configuration name
+     * @return              The configuration value
+     * @throws IOException  If the value isn't set
+     */
+    private String getRequired(JobConf jobConf, String name) throws IOException {
+        
+        String value = jobConf.get(name);
+        if (value == null) {
+            throw new IOException(name + " must be set");
+        }
+        return value;
+    }
+    
+    /**
+     * Walks the COUNT ... LIMIT nextToken chain once, creating a split each time the running
+     * count crosses the split size. The count limit of each page is capped at the rows left 
+     * in the current split so the boundaries fall exactly on the split size, even when SimpleDB
+     * returns a partial count because the request timed out. The last split always runs to the 
+     * end of the chain so no rows are lost
+     * 
+     * @param sdb           The SimpleDBDAO to count with
+     * @param splitSize     The number of rows per split
+     * @return              The splits in domain order, always at least one
+     */
+    private List<SimpleDBInputSplit> getTokenSplits(SimpleDBDAO sdb, long splitSize) {
+        
+        List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
+        long totalItems = 0;
+        long startRow = 0;
+        String splitToken = null;
+        String nextToken = null;
+        
+        do {
+            SelectResult result = sdb.getCountPage(nextToken, (startRow + splitSize) - totalItems);
+            totalItems += Math.max(0, sdb.getCountValue(result));
+            nextToken = result.getNextToken();
+            
+            // Reached the split size with more rows to come, so start a new split
+            if (nextToken != null && (totalItems - startRow) >= splitSize) {
+                addSplit(splits, new SimpleDBInputSplit(startRow, totalItems, splitToken));
+                startRow = totalItems;
+                splitToken = nextToken;
+            }
+        } while (nextToken != null);
+        
+        addSplit(splits, new SimpleDBInputSplit(startRow, totalItems, splitToken));
+        return splits;
+    }
+    
+    /**
+     * Adds a split to the list of splits, logging it if debug is enabled
+     * 
+     * @param splits    The list of splits to add to
+     * @param split     The split to add
+     */
+    private void addSplit(List<SimpleDBInputSplit> splits, SimpleDBInputSplit split) {
+        
+        splits.add(split);
+        
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Created Split: " + split.toString());
+        }
     }
 
     /**
@@ -145,6 +618,6 @@ public class SimpleDBInputFormat  implements InputFormat<Text, MapWritable> {
      */
     public RecordReader<Text, MapWritable> getRecordReader(InputSplit split, JobConf jobConf, Reporter reporter) throws IOException {
         
-        return new SimpleDBRecordReader((SimpleDBInputSplit)split, jobConf);
+        return new SimpleDBRecordReader((SimpleDBInputSplit)split, jobConf, reporter);
     }    
 }
@@ -33,6 +33,15 @@ import org.apache.hadoop.mapred.InputSplit;
  * The SimpleDBInputSplit holds the start/end/splitToken for the range of rows so the
  * RecordReader can load the range and create key/value records (Tuples) for each row
  * 
+ * Splits planned by key range instead hold a SimpleDBKeyRange, which the RecordReader ANDs
+ * with the where query to read all rows in the range. The start/end rows of these splits are
+ * only the counts at planning time, used for the split length
+ * 
+ * The split length is the estimated bytes of the split, its row count times the average
+ * item size from the domain's DomainMetadata, so Hadoop runs the largest splits first and
+ * compares splits of domains with different item sizes fairly. Splits without an item size
+ * fall back to one byte per row
+ * 
  * @author David Gildeh
  */
 public class SimpleDBInputSplit implements InputSplit {
@@ -48,6 +57,21 @@ public class SimpleDBInputSplit implements InputSplit {
     
     // Next Token
     private String splitToken = null;
+    
+    // Key Range, null if the split is token based
+    private SimpleDBKeyRange range = null;
+    
+    // Estimated bytes per item, 0 if unknown
+    private long itemBytes = 0;
+    
+    // Domain to read, null for the simpledb.domain of the job
+    private String domain = null;
+    
+    // Named query to run, null for the simpledb.wherequery of the job
+    private String query = null;
+    
+    // Condition ANDed with the where query, such as the watermarks of an incremental scan
+    private String filter = null;
 
     /**
      * Default Constructor for when loading from file using ReadField Method
@@ -70,15 +94,54 @@ public class SimpleDBInputSplit implements InputSplit {
     }
     
     /**
-     * This is supposed to return the total number of Bytes in the data of the InputSplit. 
-     * However as this our data split is an ArrayList, we will just return the number of 
-     * items in the data as Bytes is complicated to calculate
+     * Constructor for a SimpleDBInputSplit over a range of keys, which is read
+     * from the start of the range without a token
      * 
-     * @return                  The number of rows in the input split.
+     * @param startRow      Row number of first item in split
+     * @param endRow        Row number of last item in Split
+     * @param range         The range of keys to read
+     */
+    public SimpleDBInputSplit(long startRow, long endRow, SimpleDBKeyRange range) {
+        this(startRow, endRow, (String) null);
+        this.range = range;
+    }
+    
+    /**
+     * Get the estimated number of bytes in the split, the row count times the estimated
+     * bytes per item, or the row count if the item size isn't known
+     * 
+     * @return                  The estimated bytes in the input split.
      */
     public long getLength() {
+        return getRowCount() * Math.max(1, itemBytes);
+    }
+    
+    /**
+     * Get the number of rows in the split, as counted when the split was planned
+     * 
+     * @return                  The number of rows in the input split.
+     */
+    public long getRowCount() {
         return (endRow - startRow);
     }
+    
+    /**
+     * Get the estimated bytes per item used for the split length
+     * 
+     * @return  The estimated bytes per item, 0 if unknown
+     */
+    public long getItemBytes() {
+        return this.itemBytes;
+    }
+    
+    /**
+     * Set the estimated bytes per item used for the split length
+     * 
+     * @param itemBytes     The estimated bytes per item, 0 if unknown
+     */
+    public void setItemBytes(long itemBytes) {
+        this.itemBytes = itemBytes;
+    }
 
     /**
      * Get the list of dates where the input split is located.
@@ -101,6 +164,15 @@ public class SimpleDBInputSplit implements InputSplit {
         return this.splitToken;
     }
     
+    /**
+     * Return the range of keys in the split
+     * 
+     * @return  The key range, or null if the split is token based
+     */
+    public SimpleDBKeyRange getRange() {
+        return this.range;
+    }
+    
     /**
      * Get the start row of split
      * 
@@ -119,6 +191,60 @@ public class SimpleDBInputSplit implements InputSplit {
         return this.endRow;
     }
     
+    /**
+     * Get the domain the split reads when the job reads several domains
+     * 
+     * @return  The domain, or null for the simpledb.domain of the job
+     */
+    public String getDomain() {
+        return this.domain;
+    }
+    
+    /**
+     * Set the domain the split reads
+     * 
+     * @param domain    The domain, or null for the simpledb.domain of the job
+     */
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+    
+    /**
+     * Get the named query the split runs when the job runs several queries
+     * 
+     * @return  The query name, or null for the simpledb.wherequery of the job
+     */
+    public String getQuery() {
+        return this.query;
+    }
+    
+    /**
+     * Set the named query the split runs
+     * 
+     * @param query     The query name, or null for the simpledb.wherequery of the job
+     */
+    public void setQuery(String query) {
+        this.query = query;
+    }
+    
+    /**
+     * Get the condition ANDed with the where query when the split is read
+     * 
+     * @return  The condition, or null if there is none
+     */
+    public String getFilter() {
+        return this.filter;
+    }
+    
+    /**
+     * Set the condition ANDed with the where query when the split is read
+     * 
+     * @param filter    The condition, or null if there is none
+     */
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+    
     /**
      * Serialises the Split Object so it can be persisted to disk
      * 
@@ -134,6 +260,23 @@ public class SimpleDBInputSplit implements InputSplit {
         } else {
             output.writeUTF(splitToken);
         }
+        output.writeBoolean(range != null);
+        if (range != null) {
+            range.write(output);
+        }
+        output.writeLong(itemBytes);
+        output.writeBoolean(domain != null);
+        if (domain != null) {
+            output.writeUTF(domain);
+        }
+        output.writeBoolean(query != null);
+        if (query != null) {
+            output.writeUTF(query);
+        }
+        output.writeBoolean(filter != null);
+        if (filter != null) {
+            output.writeUTF(filter);
+        }
         
         if (LOG.isDebugEnabled()) {
             LOG.debug("Writing SimpleDBInputSplit: " + this.toString());
@@ -155,6 +298,15 @@ public class SimpleDBInputSplit implements InputSplit {
         if (splitToken.equals("NULL")) {
             splitToken = null;
         }
+        range = null;
+        if (input.readBoolean()) {
+            range = new SimpleDBKeyRange();
+            range.readFields(input);
+        }
+        itemBytes = input.readLong();
+        domain = input.readBoolean() ? input.readUTF() : null;
+        query = input.readBoolean() ? input.readUTF() : null;
+        filter = input.readBoolean() ? input.readUTF() : null;
     }
     
     /**
@@ -165,6 +317,7 @@ public class SimpleDBInputSplit implements InputSplit {
     @Override
     public String toString() {
         return "startRow=" + String.valueOf(startRow) + ", endRow=" + String.valueOf(endRow)
-                + ", splitToken=" + splitToken;
+                + ", splitToken=" + splitToken + ", range=" + range + ", itemBytes=" + itemBytes
+                + ", domain=" + domain + ", query=" + query + ", filter=" + filter;
     }
 }
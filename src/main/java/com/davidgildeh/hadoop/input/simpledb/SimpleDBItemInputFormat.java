@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.IOException;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * InputFormat that reads SimpleDB items as compact SimpleDBItemWritable values instead of
+ * MapWritables, for jobs that pass the raw items through the shuffle. The key is the item
+ * name. Splits are planned by SimpleDBInputFormat, so all its settings apply.
+ * 
+ * Use with:
+ * 
+ * jobConf.setInputFormat(SimpleDBItemInputFormat.class);
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBItemInputFormat implements InputFormat<Text, SimpleDBItemWritable> {
+    
+    // Plans the splits
+    private final SimpleDBInputFormat inputFormat = new SimpleDBInputFormat();
+
+    /**
+     * Plans the splits the same way as SimpleDBInputFormat
+     * 
+     * @param jobConf       Hadoop Job Configuration
+     * @param numSplits     Hint for the number of splits, ignored
+     * @return              The splits
+     * @throws IOException 
+     */
+    public InputSplit[] getSplits(JobConf jobConf, int numSplits) throws IOException {
+        return inputFormat.getSplits(jobConf, numSplits);
+    }
+
+    /**
+     * Factory method to create new SimpleDBItemRecordReaders
+     * 
+     * @param split         The SimpleDBInputSplit to read
+     * @param jobConf       Hadoop Job Configuration
+     * @param reporter      Reporter to report progress to
+     * @return              The new SimpleDBItemRecordReader
+     * @throws IOException 
+     */
+    public RecordReader<Text, SimpleDBItemWritable> getRecordReader(InputSplit split, JobConf jobConf, 
+            Reporter reporter) throws IOException {
+        
+        return new SimpleDBItemRecordReader((SimpleDBInputSplit) split, jobConf, reporter);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.Item;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * RecordReader that produces the item name and a SimpleDBItemWritable for each item in a
+ * SimpleDBInputSplit. Items are fetched by a SimpleDBRecordReader, so streaming, prefetching
+ * and attribute selection are configured the same way. Items of sharded input and named
+ * queries are tagged with their source domain and query the same way.
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBItemRecordReader implements RecordReader<Text, SimpleDBItemWritable> {
+    
+    // Reads the items from SimpleDB
+    private final SimpleDBRecordReader reader;
+    
+    // Hadoop Job Configuration, used to create values with the attribute dictionary
+    private final JobConf jobConf;
+    
+    // Attributes to tag items with their source domain and query
+    private final Map<String, String> tags;
+
+    /**
+     * Default Constructor creates new SimpleDBItemRecordReader for a SimpleDBInputSplit
+     * 
+     * @param split     The Input Split
+     * @param jobConf   Hadoop Job Configuration
+     * @param reporter  Reporter to report progress to
+     */
+    public SimpleDBItemRecordReader(SimpleDBInputSplit split, JobConf jobConf, Reporter reporter) {
+        this.reader = new SimpleDBRecordReader(split, jobConf, reporter);
+        this.jobConf = jobConf;
+        this.tags = SimpleDBRecordReader.getTags(jobConf, split);
+    }
+
+    /**
+     * Get next Key/Value Record (Tuple) from the Split
+     * 
+     * @param key           The key to set to the item name
+     * @param value         The value to set to the item
+     * @return              True - next Item available, False - No more items available
+     * @throws IOException 
+     */
+    public boolean next(Text key, SimpleDBItemWritable value) throws IOException {
+        
+        if (reader.isRaw()) {
+            SimpleDBRawItem item = reader.nextRawItem();
+            if (item == null) {
+                return false;
+            }
+            key.set(item.getName());
+            value.set(item);
+        } else {
+            Item item = reader.nextItem();
+            if (item == null) {
+                return false;
+            }
+            key.set(item.getName());
+            value.set(item);
+        }
+        
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            value.setValue(tag.getKey(), tag.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Creates a new blank key for the next() method to set
+     * 
+     * @return  A new key
+     */
+    public Text createKey() {
+        return new Text();
+    }
+
+    /**
+     * Creates a new blank value with the job's attribute dictionary for the next() method to set
+     * 
+     * @return A new value 
+     */
+    public SimpleDBItemWritable createValue() {
+        return ReflectionUtils.newInstance(SimpleDBItemWritable.class, jobConf);
+    }
+
+    /**
+     * Get current position in Split
+     * 
+     * @return                  Current cursor position
+     * @throws IOException 
+     */
+    public long getPos() throws IOException {
+        return reader.getPos();
+    }
+
+    /**
+     * Called when RecordReader is closed
+     * 
+     * @throws IOException 
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Get percentage (float) progress of how far RecordReader has iterated over the Split
+     * 
+     * @return                  Percentage progress as float
+     * @throws IOException 
+     */
+    public float getProgress() throws IOException {
+        return reader.getProgress();
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Compact Writable for a SimpleDB item, with its item name and all the values of each
+ * attribute. It is much smaller on the wire than a MapWritable of Texts, which writes the
+ * class IDs and full name of every attribute in every record, so Mappers that output raw
+ * items shuffle less data.
+ *
+ * Attribute names in the per-job dictionary are written as their varint index in the
+ * dictionary, other names are written in full. Multi-valued attributes are written once
+ * with an array of values, and all lengths and counts are written as varints. The
+ * serialised form is:
+ *
+ * - item name: varint length + UTF-8 bytes
+ * - attribute count: varint
+ * - for each attribute: varint dictionary index + 1, or 0 followed by the name as varint
+ *   length + UTF-8 bytes, then a varint value count and each value as varint length + UTF-8 bytes
+ *
+ * The dictionary must be the same wherever the items are written and read, so it is taken
+ * from the Job Configuration when Hadoop creates the Writable. Items compare by item name,
+ * and the registered RawComparator compares the serialised item names without deserialising
+ * the items, so items can be sorted in the shuffle cheaply.
+ *
+ * Configuration:
+ *
+ * - simpledb.item.dictionary: (OPTIONAL) Comma separated list of the attribute names to encode
+ *                             by index. Defaults to simpledb.select.attributes, if set
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBItemWritable implements WritableComparable<SimpleDBItemWritable>, Configurable {
+
+    // Comma separated list of the attribute names to encode by index
+    public static final String SIMPLEDB_ITEM_DICTIONARY = "simpledb.item.dictionary";
+
+    static {
+        WritableComparator.define(SimpleDBItemWritable.class, new Comparator());
+    }
+
+    // Hadoop Configuration the dictionary was loaded from
+    private Configuration conf;
+
+    // Attribute names encoded by index, and the index of each name
+    private String[] dictionary = new String[0];
+    private Map<String, Integer> dictionaryIndex = new HashMap<String, Integer>();
+
+    // Item Name
+    private String itemName = "";
+
+    // Values of each attribute, in the order the attributes were added
+    private final Map<String, List<String>> attributes = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * Default Constructor for when loading using the ReadField Method. Hadoop sets the
+     * configuration with setConf() when it creates the Writable
+     */
+    public SimpleDBItemWritable() {}
+
+    /**
+     * Creates a SimpleDBItemWritable using the dictionary from a configuration
+     *
+     * @param conf      Hadoop Configuration
+     */
+    public SimpleDBItemWritable(Configuration conf) {
+        setConf(conf);
+    }
+
+    /**
+     * Loads the attribute name dictionary from the configuration
+     *
+     * @param conf      Hadoop Configuration
+     */
+    public void setConf(Configuration conf) {
+
+        this.conf = conf;
+
+        String names = conf.get(SIMPLEDB_ITEM_DICTIONARY, conf.get(SimpleDBDAO.SIMPLEDB_SELECT_ATTRIBUTES));
+        List<String> entries = new ArrayList<String>();
+        if (names != null) {
+            for (String name : names.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    entries.add(name.trim());
+                }
+            }
+        }
+
+        dictionary = entries.toArray(new String[entries.size()]);
+        dictionaryIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionaryIndex.put(dictionary[i], i);
+        }
+    }
+
+    /**
+     * Get the configuration the dictionary was loaded from
+     *
+     * @return  The configuration, or null if none was set
+     */
+    public Configuration getConf() {
+        return this.conf;
+    }
+
+    /**
+     * Sets this to a SimpleDB Item, replacing any existing attributes
+     *
+     * @param item      The SimpleDB Item
+     */
+    public void set(Item item) {
+
+        clear();
+        itemName = item.getName();
+        for (Attribute attribute : item.getAttributes()) {
+            addValue(attribute.getName(), attribute.getValue());
+        }
+    }
+
+    /**
+     * Sets this to a raw item decoded by the SimpleDBSelectDecoder, replacing any existing attributes
+     *
+     * @param item      The raw item
+     */
+    public void set(SimpleDBRawItem item) {
+
+        clear();
+        itemName = item.getName().toString();
+        for (int i = 0; i < item.getAttributeCount(); i++) {
+            addValue(item.getAttributeName(i).toString(), item.getAttributeValue(i).toString());
+        }
+    }
+
+    /**
+     * Removes the item name and all the attributes
+     */
+    public void clear() {
+        itemName = "";
+        attributes.clear();
+    }
+
+    /**
+     * Get the item name
+     *
+     * @return  The item name
+     */
+    public String getItemName() {
+        return this.itemName;
+    }
+
+    /**
+     * Set the item name
+     *
+     * @param itemName  The item name
+     */
+    public void setItemName(String itemName) {
+        this.itemName = itemName;
+    }
+
+    /**
+     * Get the names of the attributes, in the order they were added
+     *
+     * @return  The attribute names
+     */
+    public Set<String> getAttributeNames() {
+        return Collections.unmodifiableSet(attributes.keySet());
+    }
+
+    /**
+     * Get all the values of an attribute
+     *
+     * @param name      The attribute name
+     * @return          The values, empty if the attribute isn't set
+     */
+    public List<String> getValues(String name) {
+
+        List<String> values = attributes.get(name);
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Get the first value of an attribute
+     *
+     * @param name      The attribute name
+     * @return          The first value, or null if the attribute isn't set
+     */
+    public String getValue(String name) {
+
+        List<String> values = attributes.get(name);
+        return (values != null) ? values.get(0) : null;
+    }
+
+    /**
+     * Adds a value to an attribute, after any values it already has
+     *
+     * @param name      The attribute name
+     * @param value     The value to add
+     */
+    public void addValue(String name, String value) {
+
+        List<String> values = attributes.get(name);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            attributes.put(name, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Sets an attribute to a single value, replacing any values it already has
+     *
+     * @param name      The attribute name
+     * @param value     The value to set
+     */
+    public void setValue(String name, String value) {
+
+        List<String> values = new ArrayList<String>(1);
+        values.add(value);
+        attributes.put(name, values);
+    }
+
+    /**
+     * Serialises the item
+     *
+     * @param output            The output stream to write to
+     * @throws IOException
+     */
+    public void write(DataOutput output) throws IOException {
+
+        Text.writeString(output, itemName);
+        WritableUtils.writeVInt(output, attributes.size());
+
+        for (Map.Entry<String, List<String>> attribute : attributes.entrySet()) {
+            Integer index = dictionaryIndex.get(attribute.getKey());
+            if (index != null) {
+                WritableUtils.writeVInt(output, index + 1);
+            } else {
+                WritableUtils.writeVInt(output, 0);
+                Text.writeString(output, attribute.getKey());
+            }
+
+            List<String> values = attribute.getValue();
+            WritableUtils.writeVInt(output, values.size());
+            for (String value : values) {
+                Text.writeString(output, value);
+            }
+        }
+    }
+
+    /**
+     * Reads the serialised item
+     *
+     * @param input         The input stream to read from
+     * @throws IOException
+     */
+    public void readFields(DataInput input) throws IOException {
+
+        clear();
+        itemName = Text.readString(input);
+        int attributeCount = WritableUtils.readVInt(input);
+
+        for (int i = 0; i < attributeCount; i++) {
+            int code = WritableUtils.readVInt(input);
+            String name;
+            if (code == 0) {
+                name = Text.readString(input);
+            } else if (code <= dictionary.length) {
+                name = dictionary[code - 1];
+            } else {
+                throw new IOException("Attribute index " + (code - 1) + " is not in the dictionary of "
+                        + dictionary.length + " names, check " + SIMPLEDB_ITEM_DICTIONARY
+                        + " is the same when writing and reading");
+            }
+
+            int valueCount = WritableUtils.readVInt(input);
+            List<String> values = new ArrayList<String>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(Text.readString(input));
+            }
+            attributes.put(name, values);
+        }
+    }
+
+    /**
+     * Compares items by item name in code point order, which is the same order as the
+     * UTF-8 bytes compared by the RawComparator
+     *
+     * @param other     The item to compare to
+     * @return          The item name comparison
+     */
+    public int compareTo(SimpleDBItemWritable other) {
+
+        String name1 = this.itemName;
+        String name2 = other.itemName;
+        int length = Math.min(name1.length(), name2.length());
+
+        for (int i = 0; i < length; i++) {
+            int c1 = name1.charAt(i);
+            int c2 = name2.charAt(i);
+            if (c1 != c2) {
+                // Move surrogates above the rest of the BMP so pairs sort by code point
+                if (c1 >= 0xD800 && c2 >= 0xD800) {
+                    c1 += (c1 >= 0xE000) ? -0x800 : 0x2000;
+                    c2 += (c2 >= 0xE000) ? -0x800 : 0x2000;
+                }
+                return c1 - c2;
+            }
+        }
+        return name1.length() - name2.length();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (!(o instanceof SimpleDBItemWritable)) {
+            return false;
+        }
+        SimpleDBItemWritable other = (SimpleDBItemWritable) o;
+        return itemName.equals(other.itemName) && attributes.equals(other.attributes);
+    }
+
+    @Override
+    public int hashCode() {
+        return itemName.hashCode();
+    }
+
+    /**
+     * Override toString() method
+     *
+     * @return      String value of the item
+     */
+    @Override
+    public String toString() {
+        return itemName + " " + attributes;
+    }
+
+    /**
+     * RawComparator that compares serialised items by the UTF-8 bytes of their item names
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(SimpleDBItemWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+
+            try {
+                int length1 = readVInt(b1, s1);
+                int length2 = readVInt(b2, s2);
+                int start1 = s1 + WritableUtils.decodeVIntSize(b1[s1]);
+                int start2 = s2 + WritableUtils.decodeVIntSize(b2[s2]);
+                return compareBytes(b1, start1, length1, b2, start2, length2);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+}
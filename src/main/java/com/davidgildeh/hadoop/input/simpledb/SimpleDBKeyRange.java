@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.util.SimpleDBUtils;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * A lexicographic range of values of itemName() or an attribute, from the lower bound
+ * (inclusive) to the upper bound (exclusive). A null bound means the range is open on
+ * that side. The range is turned into a where clause that is ANDed with the where query,
+ * so each range can be counted or read independently of any other range.
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBKeyRange implements Writable {
+
+    // Expression to range over the item names
+    public static final String ITEM_NAME = "itemName()";
+
+    // Maximum number of characters after the common prefix to use when finding midpoints
+    private static final int MAX_MIDPOINT_DIGITS = 4;
+
+    // Expression to range over, itemName() or a quoted attribute name
+    private String expression;
+
+    // Inclusive lower bound, or null if none
+    private String lower;
+
+    // Exclusive upper bound, or null if none
+    private String upper;
+
+    /**
+     * Default Constructor for when loading from file using ReadField Method
+     */
+    public SimpleDBKeyRange() {}
+
+    /**
+     * Default Constructor for SimpleDBKeyRange
+     *
+     * @param expression    The expression to range over, ITEM_NAME or an attribute name
+     *                      quoted with SimpleDBUtils.quoteName()
+     * @param lower         The inclusive lower bound, or null if none
+     * @param upper         The exclusive upper bound, or null if none
+     */
+    public SimpleDBKeyRange(String expression, String lower, String upper) {
+        this.expression = expression;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * Get the expression the range is over
+     *
+     * @return  The expression, ITEM_NAME or a quoted attribute name
+     */
+    public String getExpression() {
+        return this.expression;
+    }
+
+    /**
+     * Get the inclusive lower bound
+     *
+     * @return  The lower bound, or null if none
+     */
+    public String getLower() {
+        return this.lower;
+    }
+
+    /**
+     * Get the exclusive upper bound
+     *
+     * @return  The upper bound, or null if none
+     */
+    public String getUpper() {
+        return this.upper;
+    }
+
+    /**
+     * Creates the where clause that selects the rows in the range. If the range has
+     * no bounds the clause only requires the expression to be set, which is also needed
+     * for SimpleDB to be able to sort on the expression
+     *
+     * @return  The where clause for the range
+     */
+    public String getWhereClause() {
+
+        if (lower == null && upper == null) {
+            return expression + " IS NOT NULL";
+        }
+
+        String clause = "";
+
+        if (lower != null) {
+            clause += expression + " >= " + SimpleDBUtils.quoteValue(lower);
+        }
+
+        if (upper != null) {
+            if (lower != null) {
+                clause += " AND ";
+            }
+            clause += expression + " < " + SimpleDBUtils.quoteValue(upper);
+        }
+
+        return clause;
+    }
+
+    /**
+     * Finds a string roughly halfway between lo and hi in lexicographic order, so that
+     * lo < midpoint <= hi. The characters after the common prefix of lo and hi are treated
+     * as digits in a base covering only the characters used, so keys that share long prefixes
+     * or use a small alphabet (e.g. digits) are still divided evenly.
+     *
+     * @param lo    The lower string, must be less than hi
+     * @param hi    The upper string
+     * @return      A string greater than lo and less than or equal to hi
+     */
+    public static String midpoint(String lo, String hi) {
+
+        if (lo.compareTo(hi) >= 0) {
+            throw new IllegalArgumentException("'" + lo + "' is not less than '" + hi + "'");
+        }
+
+        // Find the common prefix
+        int prefix = 0;
+        while (prefix < lo.length() && prefix < hi.length() && lo.charAt(prefix) == hi.charAt(prefix)) {
+            prefix++;
+        }
+
+        // Find the range of characters used after the prefix, digit 0 means the string has ended
+        char minChar = Character.MAX_VALUE;
+        char maxChar = Character.MIN_VALUE;
+        for (String s : new String[] { lo, hi }) {
+            for (int i = prefix; i < s.length() && i < prefix + MAX_MIDPOINT_DIGITS; i++) {
+                minChar = (char) Math.min(minChar, s.charAt(i));
+                maxChar = (char) Math.max(maxChar, s.charAt(i));
+            }
+        }
+        long base = (maxChar - minChar) + 2;
+
+        // Use as many digits as fit in a long
+        int digits = 1;
+        long scale = base;
+        while (digits < MAX_MIDPOINT_DIGITS && scale < (Long.MAX_VALUE / 2) / base) {
+            scale *= base;
+            digits++;
+        }
+
+        long mid = (toNumber(lo, prefix, digits, minChar, base) + toNumber(hi, prefix, digits, minChar, base) + 1) / 2;
+
+        // Convert the midpoint back to characters, dropping trailing end of string digits
+        long[] values = new long[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            values[i] = mid % base;
+            mid /= base;
+        }
+        int length = digits;
+        while (length > 1 && values[length - 1] == 0) {
+            length--;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (minChar + Math.max(0, values[i] - 1));
+        }
+        String candidate = hi.substring(0, prefix) + new String(chars);
+
+        if (lo.compareTo(candidate) < 0 && candidate.compareTo(hi) <= 0) {
+            return candidate;
+        }
+
+        // Fall back to the first character after the prefix that is greater than lo
+        if (prefix < lo.length() && hi.charAt(prefix) - lo.charAt(prefix) == 1) {
+            return hi.substring(0, prefix + 1);
+        }
+        char next = (prefix < lo.length()) ? (char) ((lo.charAt(prefix) + hi.charAt(prefix) + 1) / 2) : hi.charAt(prefix);
+        return hi.substring(0, prefix) + next;
+    }
+
+    /**
+     * Divides the strings between lo and hi into parts by repeatedly finding midpoints,
+     * returning the boundaries between the parts in order. Fewer boundaries are returned
+     * if there aren't enough strings between lo and hi
+     *
+     * @param lo        The lower string, must be less than hi
+     * @param hi        The upper string
+     * @param parts     The number of parts to divide into
+     * @return          Up to parts - 1 boundaries, in order
+     */
+    public static List<String> divide(String lo, String hi, int parts) {
+
+        List<String> boundaries = new ArrayList<String>();
+        addBoundaries(boundaries, lo, hi, parts);
+        return boundaries;
+    }
+
+    /**
+     * Adds the boundaries dividing lo to hi into parts, in order
+     */
+    private static void addBoundaries(List<String> boundaries, String lo, String hi, int parts) {
+
+        if (parts <= 1 || lo.compareTo(hi) >= 0) {
+            return;
+        }
+
+        String mid = midpoint(lo, hi);
+        addBoundaries(boundaries, lo, mid, parts / 2);
+        if (mid.compareTo(hi) < 0) {
+            boundaries.add(mid);
+            addBoundaries(boundaries, mid, hi, parts - (parts / 2));
+        }
+    }
+
+    /**
+     * Converts the characters of a string after the prefix into a number
+     *
+     * @param s         The string to convert
+     * @param prefix    The length of the common prefix to skip
+     * @param digits    The number of characters to convert
+     * @param minChar   The character that maps to digit 1
+     * @param base      The base of the number
+     * @return          The number value of the characters
+     */
+    private static long toNumber(String s, int prefix, int digits, char minChar, long base) {
+
+        long value = 0;
+        for (int i = prefix; i < prefix + digits; i++) {
+            long digit = (i < s.length()) ? Math.min(base - 1, Math.max(1, s.charAt(i) - minChar + 1)) : 0;
+            value = value * base + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Serialises the range
+     *
+     * @param output            The output stream to write to
+     * @throws IOException
+     */
+    public void write(DataOutput output) throws IOException {
+
+        output.writeUTF(expression);
+        writeBound(output, lower);
+        writeBound(output, upper);
+    }
+
+    /**
+     * Reads the serialised range
+     *
+     * @param input         The input stream to read from
+     * @throws IOException
+     */
+    public void readFields(DataInput input) throws IOException {
+
+        expression = input.readUTF();
+        lower = readBound(input);
+        upper = readBound(input);
+    }
+
+    /**
+     * Writes a bound that may be null
+     */
+    private static void writeBound(DataOutput output, String bound) throws IOException {
+
+        output.writeBoolean(bound != null);
+        if (bound != null) {
+            output.writeUTF(bound);
+        }
+    }
+
+    /**
+     * Reads a bound that may be null
+     */
+    private static String readBound(DataInput input) throws IOException {
+
+        if (input.readBoolean()) {
+            return input.readUTF();
+        }
+        return null;
+    }
+
+    /**
+     * Override toString() method
+     *
+     * @return      String value of the range
+     */
+    @Override
+    public String toString() {
+        return "[" + lower + ", " + upper + ") on " + expression;
+    }
+}
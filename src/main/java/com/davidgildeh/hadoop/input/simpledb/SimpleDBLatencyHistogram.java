@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of request latencies in milliseconds, with buckets spaced roughly
+ * logarithmically from 1ms to 20s so percentiles are accurate to within one bucket whatever
+ * the latency. Recording a latency is a single atomic increment, so requests from concurrent
+ * threads can share one histogram.
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBLatencyHistogram {
+    
+    // Upper bound in milliseconds of each bucket, the last bucket holds everything larger
+    private static final long[] BUCKET_BOUNDS = {
+        1, 2, 3, 5, 7, 10, 15, 20, 30, 50, 70, 100, 150, 200, 300, 500, 700,
+        1000, 1500, 2000, 3000, 5000, 7000, 10000, 20000, Long.MAX_VALUE
+    };
+    
+    // Number of latencies in each bucket
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length);
+    
+    /**
+     * Records a latency
+     * 
+     * @param millis    The latency in milliseconds
+     */
+    public void record(long millis) {
+        
+        int bucket = 0;
+        while (millis > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+    }
+    
+    /**
+     * Get the number of latencies recorded
+     * 
+     * @return  The number of latencies
+     */
+    public long getCount() {
+        
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+    
+    /**
+     * Get a percentile of the latencies recorded, as the upper bound of the bucket it falls in.
+     * Latencies above the largest bucket are reported as the largest bucket bound
+     * 
+     * @param percentile    The percentile, e.g. 95 for p95
+     * @return              The latency in milliseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return (i < BUCKET_BOUNDS.length - 1) ? BUCKET_BOUNDS[i] : BUCKET_BOUNDS[BUCKET_BOUNDS.length - 2];
+            }
+        }
+        return BUCKET_BOUNDS[BUCKET_BOUNDS.length - 2];
+    }
+    
+    /**
+     * Override toString() method
+     * 
+     * @return      The count and p50/p95/p99 latencies
+     */
+    @Override
+    public String toString() {
+        return getCount() + " requests, p50=" + getPercentile(50) + "ms p95=" + getPercentile(95) 
+                + "ms p99=" + getPercentile(99) + "ms";
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Collects the SimpleDB I/O metrics of a task, or of split planning, and reports them as
+ * Hadoop counters. A task's SimpleDBDAOs share one SimpleDBMetrics, so the counters and the
+ * select latency histogram cover every request the task makes, from any thread.
+ * 
+ * Job counters, summed over all tasks:
+ * 
+ * - REQUESTS: Select requests sent, including retries
+ * - RETRIES: Select requests that were retried
+ * - THROTTLES: Select requests SimpleDB throttled
+ * - ERRORS: Select requests that failed after all retries
+ * - ITEMS: Items returned by Select requests
+ * - BYTES: Estimated response bytes of Select requests
+ * - BOX_USAGE_NANOHOURS: SimpleDB BoxUsage of successful Select requests, in billionths of a machine hour
+ * - SELECT_MILLIS: Total time spent in Select requests
+ * - SELECT_UNDER_*, SELECT_OVER_5S: Histogram of Select latencies
+ * 
+ * Per-task counters, set when the task finishes, only meaningful on the task's own counters page:
+ * 
+ * - TASK_SELECT_P50_MILLIS, TASK_SELECT_P95_MILLIS, TASK_SELECT_P99_MILLIS: Select latency percentiles
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBMetrics {
+    
+    // SimpleDB I/O Counters
+    public static enum Counter { 
+        REQUESTS, RETRIES, THROTTLES, ERRORS, ITEMS, BYTES, BOX_USAGE_NANOHOURS, SELECT_MILLIS,
+        SELECT_UNDER_50MS, SELECT_UNDER_100MS, SELECT_UNDER_250MS, SELECT_UNDER_500MS,
+        SELECT_UNDER_1S, SELECT_UNDER_2S, SELECT_UNDER_5S, SELECT_OVER_5S,
+        TASK_SELECT_P50_MILLIS, TASK_SELECT_P95_MILLIS, TASK_SELECT_P99_MILLIS
+    };
+    
+    // Upper bounds in milliseconds of the latency histogram counters
+    private static final long[] LATENCY_COUNTER_BOUNDS = { 50, 100, 250, 500, 1000, 2000, 5000 };
+    private static final Counter[] LATENCY_COUNTERS = {
+        Counter.SELECT_UNDER_50MS, Counter.SELECT_UNDER_100MS, Counter.SELECT_UNDER_250MS, Counter.SELECT_UNDER_500MS,
+        Counter.SELECT_UNDER_1S, Counter.SELECT_UNDER_2S, Counter.SELECT_UNDER_5S
+    };
+    
+    // Reporter to report counters to
+    private final Reporter reporter;
+    
+    // Select latencies
+    private final SimpleDBLatencyHistogram latencies = new SimpleDBLatencyHistogram();
+    
+    // Totals kept for the summary, as counters can't be read back from Reporter.NULL
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttles = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong boxUsageNanohours = new AtomicLong();
+
+    /**
+     * Default Constructor
+     * 
+     * @param reporter  Reporter to report counters to, Reporter.NULL if there isn't one
+     */
+    public SimpleDBMetrics(Reporter reporter) {
+        this.reporter = reporter;
+    }
+    
+    /**
+     * Get the Reporter the metrics are reported to
+     * 
+     * @return  The Reporter
+     */
+    public Reporter getReporter() {
+        return this.reporter;
+    }
+    
+    /**
+     * Records a Select request that got a response, successful or not
+     * 
+     * @param millis    The time taken by the request
+     */
+    public void recordRequest(long millis) {
+        
+        requests.incrementAndGet();
+        latencies.record(millis);
+        reporter.incrCounter(Counter.REQUESTS, 1);
+        reporter.incrCounter(Counter.SELECT_MILLIS, millis);
+        
+        Counter bucket = Counter.SELECT_OVER_5S;
+        for (int i = 0; i < LATENCY_COUNTER_BOUNDS.length; i++) {
+            if (millis < LATENCY_COUNTER_BOUNDS[i]) {
+                bucket = LATENCY_COUNTERS[i];
+                break;
+            }
+        }
+        reporter.incrCounter(bucket, 1);
+    }
+    
+    /**
+     * Records the results of a successful Select request
+     * 
+     * @param itemCount     The number of items returned
+     * @param byteCount     The estimated response size
+     */
+    public void recordResults(long itemCount, long byteCount) {
+        
+        items.addAndGet(itemCount);
+        bytes.addAndGet(byteCount);
+        reporter.incrCounter(Counter.ITEMS, itemCount);
+        reporter.incrCounter(Counter.BYTES, byteCount);
+    }
+    
+    /**
+     * Records the BoxUsage SimpleDB charged for a successful Select request
+     * 
+     * @param boxUsage      The BoxUsage in machine hours
+     */
+    public void recordBoxUsage(double boxUsage) {
+        
+        long nanohours = Math.round(boxUsage * 1e9);
+        boxUsageNanohours.addAndGet(nanohours);
+        reporter.incrCounter(Counter.BOX_USAGE_NANOHOURS, nanohours);
+    }
+    
+    /**
+     * Records a Select request that will be retried
+     * 
+     * @param throttled     True if the request was throttled
+     */
+    public void recordRetry(boolean throttled) {
+        
+        retries.incrementAndGet();
+        reporter.incrCounter(Counter.RETRIES, 1);
+        recordThrottle(throttled);
+    }
+    
+    /**
+     * Records a Select request that failed after all retries
+     * 
+     * @param throttled     True if the last attempt was throttled
+     */
+    public void recordError(boolean throttled) {
+        
+        errors.incrementAndGet();
+        reporter.incrCounter(Counter.ERRORS, 1);
+        recordThrottle(throttled);
+    }
+    
+    private void recordThrottle(boolean throttled) {
+        
+        if (throttled) {
+            throttles.incrementAndGet();
+            reporter.incrCounter(Counter.THROTTLES, 1);
+        }
+    }
+    
+    /**
+     * Get the Select latency histogram
+     * 
+     * @return  The latency histogram
+     */
+    public SimpleDBLatencyHistogram getLatencies() {
+        return this.latencies;
+    }
+    
+    /**
+     * Reports the latency percentiles as per-task counters and logs a summary of the
+     * metrics. Call once, when the task or planning is finished
+     * 
+     * @param log       The log to write the summary to
+     * @param name      What the metrics are for, e.g. the split
+     */
+    public void summarise(Log log, String name) {
+        
+        reporter.incrCounter(Counter.TASK_SELECT_P50_MILLIS, latencies.getPercentile(50));
+        reporter.incrCounter(Counter.TASK_SELECT_P95_MILLIS, latencies.getPercentile(95));
+        reporter.incrCounter(Counter.TASK_SELECT_P99_MILLIS, latencies.getPercentile(99));
+        
+        log.info("SimpleDB I/O for " + name + ": " + toString());
+    }
+    
+    /**
+     * Override toString() method
+     * 
+     * @return      Summary of the metrics
+     */
+    @Override
+    public String toString() {
+        return "selects " + latencies + ", " + retries + " retries, " + throttles + " throttled, " 
+                + errors + " failed, " + items + " items, ~" + bytes + " bytes, BoxUsage " 
+                + String.format("%.6f", boxUsageNanohours.get() / 1e9) + " hours";
+    }
+}
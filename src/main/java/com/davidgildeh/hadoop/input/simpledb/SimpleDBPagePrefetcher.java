@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.SelectResult;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Background fetcher that follows the nextToken chain of a split and fills a bounded
+ * queue of Select pages, so SimpleDB round trips overlap with the Mappers processing
+ * the current page.
+ *
+ * The fetcher stops once it has fetched maxItems items or SimpleDB has no more pages.
+ * At most depth pages are queued at any time, plus the one page being fetched, so the
+ * memory used is bounded by the prefetch depth.
+ *
+ * The fetcher can also run several streams at once, one thread per SimpleDBDAO, with each
+ * DAO limited to a different range of the split. Pages from all the streams are put on the
+ * same queue in the order they arrive, with depth pages queued per stream.
+ *
+ * The following counters are reported while taking pages off the queue to help tune
+ * the prefetch depth:
+ *
+ * - PAGES: Number of pages taken off the queue
+ * - QUEUE_DEPTH: Sum of the queue depth seen before each take, divide by PAGES for the average
+ * - STALLS: Number of takes that had to wait for a page to be fetched
+ * - STALL_MILLIS: Total time the consumer spent waiting for pages
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBPagePrefetcher {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBPagePrefetcher.class);
+
+    // Prefetch Counters
+    public static enum Counter { PAGES, QUEUE_DEPTH, STALLS, STALL_MILLIS };
+
+    // How often to report progress while waiting for a page
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+
+    // Marker put on the queue once there are no more pages
+    private static final SelectResult END_OF_PAGES = new SelectResult();
+
+    // SimpleDBDAO Clients, one per stream
+    private final List<SimpleDBDAO> sdbs;
+
+    // Token to start fetching from
+    private final String startToken;
+
+    // Maximum number of items to fetch
+    private final long maxItems;
+
+    // Bounded queue of fetched pages
+    private final BlockingQueue<SelectResult> queue;
+
+    // Background fetching threads, one per stream
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    // Set when the prefetcher is closed by the consumer
+    private volatile boolean closed = false;
+
+    // Error thrown by the fetching thread, if any
+    private volatile RuntimeException error = null;
+
+    // Number of streams that haven't been taken off the queue to the end yet
+    private int activeStreams;
+
+    /**
+     * Default Constructor
+     *
+     * @param sdb           The SimpleDBDAO to fetch pages with
+     * @param startToken    The token to start fetching from, null for the start of the domain
+     * @param maxItems      Stop fetching once this many items have been fetched
+     * @param depth         Maximum number of pages to queue ahead of the consumer
+     */
+    public SimpleDBPagePrefetcher(SimpleDBDAO sdb, String startToken, long maxItems, int depth) {
+        this(Arrays.asList(sdb), startToken, maxItems, depth);
+    }
+
+    /**
+     * Constructor for fetching several streams at once
+     *
+     * @param sdbs          The SimpleDBDAOs to fetch pages with, one stream per DAO
+     * @param startToken    The token each stream starts fetching from, null for the start of its range
+     * @param maxItems      Each stream stops fetching once this many items have been fetched
+     * @param depth         Maximum number of pages to queue ahead of the consumer per stream
+     */
+    public SimpleDBPagePrefetcher(List<SimpleDBDAO> sdbs, String startToken, long maxItems, int depth) {
+        this.sdbs = sdbs;
+        this.startToken = startToken;
+        this.maxItems = maxItems;
+        this.queue = new ArrayBlockingQueue<SelectResult>(depth * sdbs.size());
+        this.activeStreams = sdbs.size();
+    }
+
+    /**
+     * Starts the background fetching threads
+     */
+    public void start() {
+
+        for (final SimpleDBDAO sdb : sdbs) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    fetch(sdb);
+                }
+            }, "SimpleDB prefetcher");
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Fetches pages until the stream is complete or the prefetcher is closed
+     *
+     * @param sdb       The SimpleDBDAO to fetch the stream with
+     */
+    private void fetch(SimpleDBDAO sdb) {
+
+        try {
+            long fetched = 0;
+            String token = startToken;
+
+            do {
+                SelectResult page = sdb.getNextItemsPage(token, maxItems - fetched);
+                fetched += page.getItems().size();
+                token = page.getNextToken();
+                queue.put(page);
+            } while (token != null && fetched < maxItems && !closed);
+
+        } catch (InterruptedException e) {
+            // Closed by the consumer, nothing more to do
+            return;
+        } catch (RuntimeException e) {
+            LOG.error("Error prefetching pages from SimpleDB", e);
+            error = e;
+        }
+
+        try {
+            if (!closed) {
+                queue.put(END_OF_PAGES);
+            }
+        } catch (InterruptedException e) {
+            // Closed by the consumer, nothing more to do
+        }
+    }
+
+    /**
+     * Takes the next page off the queue, waiting for it to be fetched if necessary.
+     * Reports progress while waiting so the task doesn't time out
+     *
+     * @param reporter      Reporter to report progress and counters to
+     * @return              The next page, or null if there are no more pages
+     * @throws IOException  If the fetching thread failed
+     */
+    public SelectResult take(Reporter reporter) throws IOException {
+
+        if (activeStreams == 0) {
+            return null;
+        }
+
+        reporter.incrCounter(Counter.QUEUE_DEPTH, queue.size());
+        SelectResult page = queue.poll();
+
+        try {
+            if (page == null) {
+                long stallStart = System.currentTimeMillis();
+                while ((page = queue.poll(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS)) == null) {
+                    reporter.progress();
+                }
+                reporter.incrCounter(Counter.STALLS, 1);
+                reporter.incrCounter(Counter.STALL_MILLIS, System.currentTimeMillis() - stallStart);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for SimpleDB page");
+        }
+
+        if (error != null) {
+            activeStreams = 0;
+            throw new IOException("Failed to prefetch pages from SimpleDB", error);
+        }
+
+        if (page == END_OF_PAGES) {
+            activeStreams--;
+            return take(reporter);
+        }
+
+        reporter.incrCounter(Counter.PAGES, 1);
+        return page;
+    }
+
+    /**
+     * Stops the fetching threads and discards any queued pages
+     */
+    public void close() {
+
+        closed = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        queue.clear();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import com.amazonaws.services.simpledb.model.Item;
+import java.util.List;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Chooses the LIMIT of each Select page a reader fetches. SimpleDB truncates Select
+ * responses at 1MB or 5 seconds, so asking for MAX_SELECT_LIMIT wide items returns many
+ * small truncated pages with unpredictable latency. Instead, the sizer tracks the average
+ * size of the items returned and asks for as many items as fit in the target response size,
+ * shrinks the limit to what SimpleDB actually returned when a page is truncated near the size
+ * cap, and halves it when full pages get close to the time limit. Pages truncated by the time
+ * limit, which filtered scans return empty or short, leave the limit alone, as a smaller page
+ * wouldn't scan any faster. The limit grows again while full pages come back quickly. It is
+ * never more than the rows left in the split, so the last page doesn't fetch rows past the end
+ * of the split.
+ * 
+ * Item sizes are estimated from the lengths of the item names, attribute names and values
+ * plus the XML markup around them.
+ * 
+ * The following counters are reported for every page, divide by PAGES for averages:
+ * 
+ * - PAGES: Number of pages fetched
+ * - PAGE_ITEMS: Total items returned
+ * - PAGE_LIMIT: Total LIMIT requested
+ * - PAGE_BYTES: Total estimated response bytes
+ * - PAGE_MILLIS: Total time spent fetching pages, including retries
+ * - TRUNCATED_PAGES: Number of pages SimpleDB returned fewer items than the limit with more to come
+ * - SLOW_PAGES: Number of pages that took longer than the slow page time
+ * 
+ * Configuration:
+ * 
+ * - simpledb.reader.page.adaptive: (OPTIONAL) Set to false to always ask for the rows left in
+ *                                  the split, up to MAX_SELECT_LIMIT. Defaults to true
+ * - simpledb.reader.page.target.bytes: (OPTIONAL) Estimated response size to aim for. Defaults
+ *                                  to 900000, leaving room under SimpleDB's 1MB cap
+ * - simpledb.reader.page.slow.millis: (OPTIONAL) Page fetch time that halves the limit, to keep
+ *                                  clear of SimpleDB's 5 second cap. Defaults to 3000
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBPageSizer {
+    
+    // Configuration Name Constants
+    public static final String SIMPLEDB_READER_PAGE_ADAPTIVE = "simpledb.reader.page.adaptive";
+    public static final String SIMPLEDB_READER_PAGE_TARGET_BYTES = "simpledb.reader.page.target.bytes";
+    public static final String SIMPLEDB_READER_PAGE_SLOW_MILLIS = "simpledb.reader.page.slow.millis";
+    
+    // Page Counters
+    public static enum Counter { PAGES, PAGE_ITEMS, PAGE_LIMIT, PAGE_BYTES, PAGE_MILLIS, TRUNCATED_PAGES, SLOW_PAGES };
+    
+    // Estimated bytes of XML markup around each item and each attribute in a response
+    private static final int ITEM_OVERHEAD_BYTES = 30;
+    private static final int ATTRIBUTE_OVERHEAD_BYTES = 60;
+    
+    // Fraction of the target response size above which a truncated page hit the size cap
+    private static final double SIZE_CAPPED_FRACTION = 0.75;
+    
+    // Lowest limit slow pages halve the limit to
+    private static final int MIN_SLOW_LIMIT = 100;
+    
+    // Weight of the latest page in the average item size
+    private static final double ITEM_SIZE_WEIGHT = 0.3;
+    
+    private final boolean adaptive;
+    private final long targetBytes;
+    private final long slowMillis;
+    
+    // Current limit before capping to the rows left
+    private int limit = SimpleDBDAO.MAX_SELECT_LIMIT;
+    
+    // Moving average of the estimated bytes per item, 0 until the first items are seen
+    private double bytesPerItem = 0;
+
+    /**
+     * Default Constructor
+     * 
+     * @param jobConf   Hadoop Job Configuration
+     */
+    public SimpleDBPageSizer(JobConf jobConf) {
+        this.adaptive = jobConf.getBoolean(SIMPLEDB_READER_PAGE_ADAPTIVE, true);
+        this.targetBytes = jobConf.getLong(SIMPLEDB_READER_PAGE_TARGET_BYTES, 900000);
+        this.slowMillis = jobConf.getLong(SIMPLEDB_READER_PAGE_SLOW_MILLIS, 3000);
+    }
+    
+    /**
+     * Get the limit for the next page
+     * 
+     * @param remainingItems    The number of rows left to read in the split
+     * @return                  The LIMIT to request, between 1 and MAX_SELECT_LIMIT
+     */
+    public synchronized int getLimit(long remainingItems) {
+        return (int) Math.max(1, Math.min(remainingItems, adaptive ? limit : SimpleDBDAO.MAX_SELECT_LIMIT));
+    }
+    
+    /**
+     * Updates the limit from a page that was fetched and reports the page counters
+     * 
+     * @param requested     The LIMIT requested
+     * @param items         The number of items returned
+     * @param bytes         The estimated response size
+     * @param hasMore       True if the page has a nextToken
+     * @param millis        The time taken to fetch the page
+     * @param reporter      Reporter to report the counters to
+     */
+    public synchronized void update(int requested, int items, long bytes, boolean hasMore, long millis, Reporter reporter) {
+        
+        boolean truncated = hasMore && items < requested;
+        boolean slow = millis >= slowMillis;
+        
+        reporter.incrCounter(Counter.PAGES, 1);
+        reporter.incrCounter(Counter.PAGE_ITEMS, items);
+        reporter.incrCounter(Counter.PAGE_LIMIT, requested);
+        reporter.incrCounter(Counter.PAGE_BYTES, bytes);
+        reporter.incrCounter(Counter.PAGE_MILLIS, millis);
+        if (truncated) {
+            reporter.incrCounter(Counter.TRUNCATED_PAGES, 1);
+        }
+        if (slow) {
+            reporter.incrCounter(Counter.SLOW_PAGES, 1);
+        }
+        
+        if (!adaptive) {
+            return;
+        }
+        
+        if (items > 0) {
+            double pageBytesPerItem = (double) bytes / items;
+            bytesPerItem = (bytesPerItem == 0) ? pageBytesPerItem 
+                    : (ITEM_SIZE_WEIGHT * pageBytesPerItem) + ((1 - ITEM_SIZE_WEIGHT) * bytesPerItem);
+        }
+        
+        if (truncated) {
+            // Ask for what SimpleDB managed to return when it ran out of response size. Pages
+            // cut short by the time limit say nothing about the item size, so keep the limit
+            if (items > 0 && bytes >= SIZE_CAPPED_FRACTION * targetBytes) {
+                limit = items;
+            }
+        } else if (items >= requested && requested >= limit) {
+            // Full page that wasn't capped by the rows left, try a bigger page
+            limit = Math.min(SimpleDBDAO.MAX_SELECT_LIMIT, limit + Math.max(1, limit / 4));
+        }
+        
+        if (slow && !truncated && items > 0) {
+            limit = Math.max(Math.min(limit, MIN_SLOW_LIMIT), Math.min(limit, items) / 2);
+        }
+        
+        if (bytesPerItem > 0) {
+            limit = (int) Math.max(1, Math.min(limit, targetBytes / bytesPerItem));
+        }
+    }
+    
+    /**
+     * Estimates the response size of a page of items from the AWS SDK
+     * 
+     * @param items     The items in the page
+     * @return          The estimated size in bytes
+     */
+    public static long estimateBytes(List<Item> items) {
+        
+        long bytes = 0;
+        for (Item item : items) {
+            bytes += ITEM_OVERHEAD_BYTES + item.getName().length();
+            for (Attribute attribute : item.getAttributes()) {
+                bytes += ATTRIBUTE_OVERHEAD_BYTES + attribute.getName().length() + attribute.getValue().length();
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * Estimates the response size of a page of raw items
+     * 
+     * @param page      The page of items
+     * @return          The estimated size in bytes
+     */
+    public static long estimateBytes(SimpleDBSelectPage page) {
+        
+        long bytes = 0;
+        for (int i = 0; i < page.size(); i++) {
+            SimpleDBRawItem item = page.getItem(i);
+            bytes += ITEM_OVERHEAD_BYTES + item.getName().getLength();
+            for (int j = 0; j < item.getAttributeCount(); j++) {
+                bytes += ATTRIBUTE_OVERHEAD_BYTES + item.getAttributeName(j).getLength() 
+                        + item.getAttributeValue(j).getLength();
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * Estimates the average response size of an item in a domain from its DomainMetadata,
+     * the same way page sizes are estimated. Attribute names are assumed to be the domain's
+     * average name length. The estimate covers all the attributes, so it overstates items
+     * when only some attributes are selected
+     * 
+     * @param metadata  The domain's DomainMetadata
+     * @param keysOnly  True if only the item names are selected
+     * @return          The estimated bytes per item, 0 if the domain is empty
+     */
+    public static long estimateItemBytes(DomainMetadataResult metadata, boolean keysOnly) {
+        
+        long itemCount = metadata.getItemCount().longValue();
+        if (itemCount <= 0) {
+            return 0;
+        }
+        
+        long bytes = itemCount * ITEM_OVERHEAD_BYTES + metadata.getItemNamesSizeBytes().longValue();
+        if (!keysOnly) {
+            long valueCount = metadata.getAttributeValueCount().longValue();
+            long nameCount = metadata.getAttributeNameCount().longValue();
+            long nameBytes = (nameCount > 0) ? metadata.getAttributeNamesSizeBytes().longValue() / nameCount : 0;
+            bytes += valueCount * (ATTRIBUTE_OVERHEAD_BYTES + nameBytes) + metadata.getAttributeValuesSizeBytes().longValue();
+        }
+        return bytes / itemCount;
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.util.SimpleDBUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Plans SimpleDBInputSplits over key ranges instead of nextToken chains. As each range is
+ * read with its own where clause, the ranges don't depend on each other and are counted
+ * concurrently on a bounded thread pool.
+ *
+ * Item name ranges are planned by bisection. Starting with the range of all item names,
+ * each range is counted, and if it holds more than the split size, the first and last item
+ * names in the range are sampled and the range is cut at the lexicographic midpoint between
+ * them. Both halves are then counted at the same time, until every range fits in a split.
+ * The first range is counted with a parallel sharded count, as nothing else runs alongside it.
+ *
+ * Attribute ranges are planned over a zero-padded numeric attribute, such as a timestamp,
+ * with one range per bucket interval between a start and end value. Every bucket is counted
+ * concurrently, and any bucket holding more than the split size is divided into equal
+ * sub-buckets, enough to fit the split size, which are counted again in the same way. This
+ * stops busy periods from becoming straggler tasks.
+ *
+ * Estimated item name ranges skip counting altogether, so planning only takes a handful of
+ * requests. The number of rows selected is estimated from the DomainMetadata item count, and
+ * if there is a where query, from its selectivity over a few samples of consecutive item names
+ * spread across the domain. The item names are then divided into enough equal lexicographic
+ * ranges for the estimate. The first and last ranges are open-ended so no rows are lost if the
+ * estimate or the item name distribution is off, the splits are only uneven.
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBRangeSplitPlanner {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBRangeSplitPlanner.class);
+
+    // Number of threads to count ranges with, defaults to 10
+    public static final String SIMPLEDB_SPLIT_THREADS = "simpledb.split.threads";
+
+    // SimpleDBDAO Client
+    private final SimpleDBDAO sdb;
+
+    // Maximum rows per split
+    private final long splitSize;
+
+    // Number of threads to count ranges with
+    private final int threads;
+    
+    // Number of digits attribute range bounds are zero-padded to
+    private int attributeWidth = 0;
+
+    /**
+     * Default Constructor
+     *
+     * @param sdb           The SimpleDBDAO to count ranges with
+     * @param splitSize     Maximum rows per split
+     * @param threads       Number of threads to count ranges with
+     */
+    public SimpleDBRangeSplitPlanner(SimpleDBDAO sdb, long splitSize, int threads) {
+        this.sdb = sdb;
+        this.splitSize = splitSize;
+        this.threads = threads;
+    }
+
+    /**
+     * Plans splits over ranges of item names, each holding at most the split size rows
+     * unless all the rows in a range have the same item name
+     *
+     * @return              The splits in item name order, always at least one
+     * @throws IOException
+     */
+    public List<SimpleDBInputSplit> planItemNameSplits() throws IOException {
+
+        SimpleDBKeyRange root = new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, null, null);
+        List<RangeCount> ranges = countRanges(Arrays.asList(root));
+        return createSplits(ranges, root);
+    }
+    
+    /**
+     * Plans splits over ranges of item names from an estimate of the rows selected instead
+     * of counting the rows. The first and last splits are open-ended so all rows are read
+     * whatever the estimate
+     *
+     * @param itemCount     The DomainMetadata item count
+     * @param samples       The number of item name samples to estimate the where query selectivity with
+     * @param sampleSize    The number of consecutive item names in each sample
+     * @return              The splits in item name order, always at least one
+     * @throws IOException
+     */
+    public List<SimpleDBInputSplit> planEstimatedItemNameSplits(long itemCount, int samples, int sampleSize) 
+            throws IOException {
+        
+        SimpleDBKeyRange all = new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, null, null);
+        String first = sdb.getBoundaryItemName(all, false);
+        String last = sdb.getBoundaryItemName(all, true);
+        
+        if (first == null || last == null || first.compareTo(last) >= 0) {
+            LOG.info("Not enough rows to divide, creating a single split");
+            return createSplits(new ArrayList<RangeCount>(), all);
+        }
+        
+        // Estimate how many rows the where query selects
+        double selectivity = 1.0;
+        if (sdb.getWhereQuery() != null) {
+            selectivity = estimateSelectivity(first, last, samples, sampleSize);
+        }
+        long estimate = (long) Math.ceil(itemCount * selectivity);
+        int parts = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (estimate + splitSize - 1) / splitSize));
+        
+        LOG.info("Estimated " + estimate + " rows from " + itemCount + " items with selectivity " 
+                + selectivity + ", dividing into " + parts + " splits");
+        
+        // Divide the item names between the first and last into equal ranges, open at both ends
+        List<String> boundaries = SimpleDBKeyRange.divide(first, last, parts);
+        List<RangeCount> ranges = new ArrayList<RangeCount>();
+        long rowsPerRange = estimate / (boundaries.size() + 1);
+        String lower = null;
+        for (String boundary : boundaries) {
+            ranges.add(new RangeCount(new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, lower, boundary), rowsPerRange));
+            lower = boundary;
+        }
+        ranges.add(new RangeCount(new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, lower, null), rowsPerRange));
+        
+        return createSplits(ranges, all);
+    }
+    
+    /**
+     * Estimates the fraction of rows the where query selects by sampling runs of consecutive
+     * item names spread evenly between the first and last item names, and counting how many
+     * rows in each run the where query selects. The samples are taken concurrently
+     *
+     * @param first         The first item name in the domain
+     * @param last          The last item name in the domain
+     * @param samples       The number of runs to sample
+     * @param sampleSize    The number of item names in each run, up to MAX_SELECT_LIMIT - 1
+     * @return              The estimated selectivity, between 0 and 1
+     * @throws IOException
+     */
+    private double estimateSelectivity(String first, String last, int samples, int sampleSize) 
+            throws IOException {
+        
+        // Leave room in one page for the name after the run
+        final int runSize = Math.max(1, Math.min(sampleSize, SimpleDBDAO.MAX_SELECT_LIMIT - 1));
+        
+        List<String> starts = new ArrayList<String>();
+        starts.add(first);
+        starts.addAll(SimpleDBKeyRange.divide(first, last, samples));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, starts.size()));
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        
+        for (final String start : starts) {
+            results.add(executor.submit(new Callable<long[]>() {
+                public long[] call() {
+                    
+                    // Sample a run of item names from the start, then count the selected rows in the run.
+                    // The name after the run is its exclusive end, or the run reaches the end of the domain
+                    List<String> itemNames = sdb.getAllItemNames(
+                            new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, start, null), runSize + 1);
+                    if (itemNames.isEmpty()) {
+                        return new long[] { 0, 0 };
+                    }
+                    
+                    int sampled = Math.min(runSize, itemNames.size());
+                    String end = (itemNames.size() > runSize) ? itemNames.get(runSize) : null;
+                    long selected = sdb.getCount(new SimpleDBKeyRange(SimpleDBKeyRange.ITEM_NAME, start, end));
+                    return new long[] { sampled, selected };
+                }
+            }));
+        }
+        
+        long sampled = 0;
+        long selected = 0;
+        try {
+            for (Future<long[]> result : results) {
+                sampled += result.get()[0];
+                selected += result.get()[1];
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted sampling SimpleDB domain", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to sample SimpleDB domain", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Where query selected " + selected + " of " + sampled + " sampled rows");
+        }
+        
+        return (sampled == 0) ? 1.0 : Math.min(1.0, (double) selected / sampled);
+    }
+    
+    /**
+     * Plans splits over buckets of a zero-padded numeric attribute, from the start value
+     * (inclusive) to the end value (exclusive). Buckets holding more than the split size rows
+     * are divided until they fit, or until they're only one value wide. Bounds are zero-padded
+     * to the length of the longer of start and end
+     *
+     * @param attribute     The name of the attribute to split on
+     * @param start         The zero-padded start value, inclusive
+     * @param end           The zero-padded end value, exclusive
+     * @param interval      The width of each bucket
+     * @return              The splits in attribute order, always at least one
+     * @throws IOException
+     */
+    public List<SimpleDBInputSplit> planAttributeSplits(String attribute, String start, String end, long interval) 
+            throws IOException {
+        
+        if (interval <= 0) {
+            throw new IOException("Attribute split interval must be greater than 0, was " + interval);
+        }
+        
+        attributeWidth = Math.max(start.length(), end.length());
+        String expression = SimpleDBUtils.quoteName(attribute);
+        long startValue = Long.parseLong(start);
+        long endValue = Long.parseLong(end);
+        
+        List<SimpleDBKeyRange> buckets = new ArrayList<SimpleDBKeyRange>();
+        for (long lower = startValue; lower < endValue; lower += interval) {
+            long upper = Math.min(endValue, lower + interval);
+            buckets.add(new SimpleDBKeyRange(expression, pad(lower), pad(upper)));
+        }
+        
+        if (buckets.isEmpty()) {
+            throw new IOException("Attribute split start " + start + " is not before end " + end);
+        }
+        
+        LOG.info("Counting " + buckets.size() + " buckets of " + attribute + " from " + start + " to " + end);
+        return createSplits(countRanges(buckets), buckets.get(0));
+    }
+    
+    /**
+     * Zero-pads an attribute value to the attribute width
+     *
+     * @param value     The value to pad
+     * @return          The zero-padded value
+     */
+    private String pad(long value) {
+        return SimpleDBUtils.encodeZeroPadding(value, attributeWidth);
+    }
+
+    /**
+     * Counts the range, recursively dividing any range with more than the split size rows
+     * until all the ranges fit into a split. Empty ranges are kept, so the ranges still cover
+     * every key
+     *
+     * @param roots         The ranges to count and divide
+     * @return              The counted ranges
+     * @throws IOException
+     */
+    private List<RangeCount> countRanges(List<SimpleDBKeyRange> roots) throws IOException {
+
+        List<RangeCount> ranges = new ArrayList<RangeCount>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<RangeCount> completion = new ExecutorCompletionService<RangeCount>(executor);
+
+        try {
+            int pending = 0;
+            for (SimpleDBKeyRange root : roots) {
+                completion.submit(new CountTask(root, roots.size() == 1));
+                pending++;
+            }
+
+            while (pending > 0) {
+                RangeCount result = completion.take().get();
+                pending--;
+
+                if (result.children != null) {
+                    for (SimpleDBKeyRange child : result.children) {
+                        completion.submit(new CountTask(child, false));
+                        pending++;
+                    }
+                } else {
+                    ranges.add(result);
+                }
+            }
+
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted planning SimpleDB splits", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to plan SimpleDB splits", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Sorts the counted ranges into key order and creates a split for each, with the
+     * start and end rows set from the counts. Empty ranges are merged into the range before
+     * them, or the one after for leading empty ranges, so items written into an empty range
+     * after planning are still read
+     *
+     * @param ranges        The counted ranges
+     * @param emptyRange    The range to create a split for if there are no rows
+     * @return              The splits, always at least one
+     */
+    private List<SimpleDBInputSplit> createSplits(List<RangeCount> ranges, SimpleDBKeyRange emptyRange) {
+
+        Collections.sort(ranges, new Comparator<RangeCount>() {
+            public int compare(RangeCount a, RangeCount b) {
+                String aLower = a.range.getLower();
+                String bLower = b.range.getLower();
+                if (aLower == null || bLower == null) {
+                    return (aLower == null ? 0 : 1) - (bLower == null ? 0 : 1);
+                }
+                return aLower.compareTo(bLower);
+            }
+        });
+
+        List<RangeCount> merged = new ArrayList<RangeCount>();
+        SimpleDBKeyRange leading = null;
+        for (RangeCount range : ranges) {
+            if (range.count == 0 && !merged.isEmpty()) {
+                RangeCount previous = merged.remove(merged.size() - 1);
+                merged.add(new RangeCount(join(previous.range, range.range), previous.count));
+            } else if (range.count == 0) {
+                leading = (leading == null) ? range.range : join(leading, range.range);
+            } else {
+                merged.add((leading == null) ? range : new RangeCount(join(leading, range.range), range.count));
+                leading = null;
+            }
+        }
+        if (leading != null) {
+            merged.add(new RangeCount(leading, 0));
+        }
+
+        List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
+        long startRow = 0;
+        for (RangeCount range : merged) {
+            splits.add(new SimpleDBInputSplit(startRow, startRow + range.count, range.range));
+            startRow += range.count;
+        }
+
+        // Always create at least one split so the job still runs over an empty domain
+        if (splits.isEmpty()) {
+            splits.add(new SimpleDBInputSplit(0, 0, emptyRange));
+        }
+
+        if (LOG.isDebugEnabled()) {
+            for (SimpleDBInputSplit split : splits) {
+                LOG.debug("Created Split: " + split.toString());
+            }
+        }
+
+        return splits;
+    }
+
+    /**
+     * Joins two adjacent ranges
+     *
+     * @param first     The first range
+     * @param second    The range starting where the first ends
+     * @return          The range from the start of the first to the end of the second
+     */
+    private static SimpleDBKeyRange join(SimpleDBKeyRange first, SimpleDBKeyRange second) {
+        return new SimpleDBKeyRange(first.getExpression(), first.getLower(), second.getUpper());
+    }
+
+    /**
+     * Counts a range, and divides it if it's too large. Item name ranges are divided in two
+     * at the midpoint item name, attribute ranges are divided into enough equal sub-buckets
+     * to fit the split size
+     */
+    private class CountTask implements Callable<RangeCount> {
+
+        private final SimpleDBKeyRange range;
+        private final boolean sharded;
+
+        /**
+         * @param range     The range to count
+         * @param sharded   True to count the range with a parallel sharded count, used when
+         *                  it's the only range so there's nothing else to count concurrently
+         */
+        public CountTask(SimpleDBKeyRange range, boolean sharded) {
+            this.range = range;
+            this.sharded = sharded;
+        }
+
+        public RangeCount call() throws IOException {
+
+            long count = sharded ? sdb.getParallelCount(range, threads, threads) : sdb.getCount(range);
+            RangeCount result = new RangeCount(range, count);
+
+            if (count > splitSize && !range.getExpression().equals(SimpleDBKeyRange.ITEM_NAME)) {
+                result.children = divideAttributeRange(range, count);
+            } else if (count > splitSize) {
+                String first = sdb.getBoundaryItemName(range, false);
+                String last = sdb.getBoundaryItemName(range, true);
+
+                // Can't divide a range that only has rows with one item name
+                if (first != null && last != null && first.compareTo(last) < 0) {
+                    String midpoint = SimpleDBKeyRange.midpoint(first, last);
+                    result.children = new SimpleDBKeyRange[] {
+                        new SimpleDBKeyRange(range.getExpression(), range.getLower(), midpoint),
+                        new SimpleDBKeyRange(range.getExpression(), midpoint, range.getUpper())
+                    };
+                }
+            }
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Counted " + count + " rows in " + range);
+            }
+
+            return result;
+        }
+        
+        /**
+         * Divides a zero-padded numeric attribute range into equal sub-buckets
+         *
+         * @param range     The range to divide
+         * @param count     The number of rows in the range
+         * @return          The sub-buckets, or null if the range is only one value wide
+         */
+        private SimpleDBKeyRange[] divideAttributeRange(SimpleDBKeyRange range, long count) {
+            
+            long lower = Long.parseLong(range.getLower());
+            long upper = Long.parseLong(range.getUpper());
+            long width = upper - lower;
+            if (width <= 1) {
+                return null;
+            }
+            
+            long parts = Math.min(width, Math.max(2, (count + splitSize - 1) / splitSize));
+            long interval = (width + parts - 1) / parts;
+            
+            List<SimpleDBKeyRange> children = new ArrayList<SimpleDBKeyRange>();
+            for (long childLower = lower; childLower < upper; childLower += interval) {
+                long childUpper = Math.min(upper, childLower + interval);
+                children.add(new SimpleDBKeyRange(range.getExpression(), pad(childLower), pad(childUpper)));
+            }
+            
+            return children.toArray(new SimpleDBKeyRange[children.size()]);
+        }
+    }
+
+    /**
+     * A range with its row count, and the ranges it was divided into if it was too large
+     */
+    private static class RangeCount {
+
+        private final SimpleDBKeyRange range;
+        private final long count;
+        private SimpleDBKeyRange[] children = null;
+
+        public RangeCount(SimpleDBKeyRange range, long count) {
+            this.range = range;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Adaptive per-domain request rate limiter using additive-increase/multiplicative-decrease
+ * (AIMD), the same way TCP finds the bandwidth of a link. Every request to a domain first
+ * waits for a permit at the current rate. Each successful request raises the rate a little,
+ * so the rate grows by the additive increase every second, and each throttled request cuts
+ * the rate by the decrease factor. The rate therefore converges on the highest request rate
+ * SimpleDB will sustain for the domain instead of tasks failing when they're throttled.
+ *
+ * The limiter starts at the maximum rate so unthrottled jobs aren't slowed down. Limiters
+ * are shared by everything in the JVM querying the same domain on the same endpoint.
+ *
+ * Configuration:
+ *
+ * - simpledb.throttle.max.rate: (OPTIONAL) Maximum and starting requests per second per domain.
+ *                               Defaults to 1000
+ * - simpledb.throttle.min.rate: (OPTIONAL) Minimum requests per second per domain. Defaults to 1
+ * - simpledb.throttle.increase: (OPTIONAL) Requests per second the rate grows by every second
+ *                               without throttling. Defaults to 5
+ * - simpledb.throttle.decrease: (OPTIONAL) Factor the rate is multiplied by when throttled.
+ *                               Defaults to 0.5
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBRateLimiter {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBRateLimiter.class);
+
+    // Configuration Name Constants
+    public static final String SIMPLEDB_THROTTLE_MAX_RATE = "simpledb.throttle.max.rate";
+    public static final String SIMPLEDB_THROTTLE_MIN_RATE = "simpledb.throttle.min.rate";
+    public static final String SIMPLEDB_THROTTLE_INCREASE = "simpledb.throttle.increase";
+    public static final String SIMPLEDB_THROTTLE_DECREASE = "simpledb.throttle.decrease";
+
+    // Minimum time between rate decreases, so a burst of throttled requests that were all
+    // sent at the old rate only cuts the rate once
+    private static final long DECREASE_INTERVAL_NANOS = 1000000000L;
+
+    // Shared limiters keyed by endpoint and domain
+    private static final Map<String, SimpleDBRateLimiter> LIMITERS = new HashMap<String, SimpleDBRateLimiter>();
+
+    private final double maxRate;
+    private final double minRate;
+    private final double increase;
+    private final double decrease;
+
+    // Current requests per second
+    private double rate;
+
+    // Time the next permit is available
+    private long nextPermitNanos = System.nanoTime();
+
+    // Time the rate was last decreased
+    private long lastDecreaseNanos = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+
+    /**
+     * Default Constructor
+     *
+     * @param maxRate       Maximum and starting requests per second
+     * @param minRate       Minimum requests per second
+     * @param increase      Requests per second the rate grows by every second
+     * @param decrease      Factor the rate is multiplied by when throttled
+     */
+    public SimpleDBRateLimiter(double maxRate, double minRate, double increase, double decrease) {
+        this.maxRate = maxRate;
+        this.minRate = minRate;
+        this.increase = increase;
+        this.decrease = decrease;
+        this.rate = maxRate;
+    }
+
+    /**
+     * Gets the shared rate limiter for a domain, creating it if this is the first time
+     * the domain is queried in this JVM
+     *
+     * @param jobConf   Hadoop Job Configuration
+     * @param domain    The SimpleDB domain
+     * @return          The shared rate limiter for the domain
+     */
+    public static synchronized SimpleDBRateLimiter getLimiter(JobConf jobConf, String domain) {
+
+        String key = jobConf.get(SimpleDBDAO.SIMPLEDB_AWS_REGION) + "|" + domain;
+        SimpleDBRateLimiter limiter = LIMITERS.get(key);
+
+        if (limiter == null) {
+            limiter = new SimpleDBRateLimiter(
+                    jobConf.getFloat(SIMPLEDB_THROTTLE_MAX_RATE, 1000.0f),
+                    jobConf.getFloat(SIMPLEDB_THROTTLE_MIN_RATE, 1.0f),
+                    jobConf.getFloat(SIMPLEDB_THROTTLE_INCREASE, 5.0f),
+                    jobConf.getFloat(SIMPLEDB_THROTTLE_DECREASE, 0.5f));
+            LIMITERS.put(key, limiter);
+        }
+
+        return limiter;
+    }
+
+    /**
+     * Waits until a request can be sent at the current rate
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long permit = Math.max(now, nextPermitNanos);
+            nextPermitNanos = permit + (long) (1000000000L / rate);
+            waitNanos = permit - now;
+        }
+
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        }
+    }
+
+    /**
+     * Additively increases the rate after a successful request. Each request adds
+     * increase / rate, so the rate grows by increase every second
+     */
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + (increase / rate));
+    }
+
+    /**
+     * Multiplicatively decreases the rate after a throttled request
+     */
+    public synchronized void onThrottle() {
+
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+            rate = Math.max(minRate, rate * decrease);
+            lastDecreaseNanos = now;
+            LOG.info("SimpleDB throttled requests, reduced rate to " + String.format("%.1f", rate) + " requests/s");
+        }
+    }
+
+    /**
+     * Get the current rate
+     *
+     * @return  The current requests per second
+     */
+    public synchronized double getRate() {
+        return this.rate;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.io.Text;
+
+/**
+ * A SimpleDB item decoded straight into UTF-8 Texts by the SimpleDBSelectDecoder, instead
+ * of the Item, Attribute and String objects the AWS SDK creates. The Texts are reused when
+ * the item is decoded into again, so only hold on to copies of them.
+ * 
+ * Each attribute value is a separate attribute, so multi-valued attributes appear once
+ * per value, the same as in the SDK's Item.
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBRawItem {
+    
+    // Item Name
+    private final Text name = new Text();
+    
+    // Attribute names and values, reused between items
+    private final List<Text> attributeNames = new ArrayList<Text>();
+    private final List<Text> attributeValues = new ArrayList<Text>();
+    
+    // Number of attributes in the current item
+    private int attributeCount = 0;
+    
+    /**
+     * Get the item name
+     * 
+     * @return  The item name
+     */
+    public Text getName() {
+        return this.name;
+    }
+    
+    /**
+     * Get the number of attributes
+     * 
+     * @return  The number of attributes
+     */
+    public int getAttributeCount() {
+        return this.attributeCount;
+    }
+    
+    /**
+     * Get the name of an attribute
+     * 
+     * @param index     The index of the attribute
+     * @return          The attribute name
+     */
+    public Text getAttributeName(int index) {
+        return attributeNames.get(index);
+    }
+    
+    /**
+     * Get the value of an attribute
+     * 
+     * @param index     The index of the attribute
+     * @return          The attribute value
+     */
+    public Text getAttributeValue(int index) {
+        return attributeValues.get(index);
+    }
+    
+    /**
+     * Removes all the attributes, keeping their Texts to reuse
+     */
+    void clear() {
+        attributeCount = 0;
+    }
+    
+    /**
+     * Adds an attribute, reusing the Texts of a previous attribute if there is one
+     * 
+     * @return      The index of the new attribute
+     */
+    int addAttribute() {
+        
+        if (attributeCount == attributeNames.size()) {
+            attributeNames.add(new Text());
+            attributeValues.add(new Text());
+        }
+        return attributeCount++;
+    }
+    
+    /**
+     * Override toString() method
+     * 
+     * @return      String value of the item
+     */
+    @Override
+    public String toString() {
+        
+        StringBuilder builder = new StringBuilder(name.toString()).append(" {");
+        for (int i = 0; i < attributeCount; i++) {
+            builder.append(i > 0 ? ", " : "").append(attributeNames.get(i)).append('=').append(attributeValues.get(i));
+        }
+        return builder.append('}').toString();
+    }
+}
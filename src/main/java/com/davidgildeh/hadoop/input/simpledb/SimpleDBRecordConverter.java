@@ -0,0 +1,319 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Converts SimpleDB Items into key/value records without allocating objects per record,
+ * so GC doesn't dominate map time on wide items.
+ *
+ * Attribute names are interned into one Text per name, which is used as the key in every
+ * record. Attribute values are copied into the Text already in the value MapWritable for
+ * that name, so the value Texts are reused across records, and attributes that aren't in
+ * the current item are removed from the MapWritable. Strings are UTF-8 encoded with a
+ * SimpleDBTextEncoder rather than Text.set(String), which allocates a new array every time.
+ *
+ * As with other Hadoop RecordReaders, Mappers must copy any key or value they want to keep
+ * after the next call to next(), since the Texts are overwritten.
+ *
+ * If an item has several values for an attribute, the last value is used.
+ *
+ * Tag attributes, such as the item's source domain or query, can be added to every record
+ * with the same values. They replace any attributes of the item with the same names, and are
+ * added even when only keys are converted.
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBRecordConverter {
+
+    // Maximum number of attribute names to intern, the cache is reset once it is reached
+    private static final int MAX_INTERNED_NAMES = 10000;
+
+    // Attributes to put into the value, null for all attributes
+    private final Set<String> selectAttributes;
+    private final Set<Text> selectAttributeTexts;
+
+    // True if only the item names are converted
+    private final boolean keysOnly;
+
+    // Interned attribute names by name, and by the interned Text to find stale attributes
+    private final Map<String, AttributeName> namesByString = new HashMap<String, AttributeName>();
+    private final Map<Text, AttributeName> namesByText = new HashMap<Text, AttributeName>();
+
+    // Number of the current record, to tell which attributes were set by the current item
+    private long generation = 0;
+
+    // Encodes strings into Texts without allocating
+    private final SimpleDBTextEncoder encoder = new SimpleDBTextEncoder();
+    
+    // Attribute names and values added to every record
+    private final List<Text> tagNames = new ArrayList<Text>();
+    private final List<Text> tagValues = new ArrayList<Text>();
+
+    /**
+     * Default Constructor
+     *
+     * @param selectAttributes  Attributes to put into the value, null for all attributes
+     * @param keysOnly          True - only set the key and leave the value empty, apart from any tag
+     */
+    public SimpleDBRecordConverter(Set<String> selectAttributes, boolean keysOnly) {
+        this.selectAttributes = selectAttributes;
+        this.keysOnly = keysOnly;
+        
+        if (selectAttributes != null) {
+            selectAttributeTexts = new HashSet<Text>();
+            for (String attribute : selectAttributes) {
+                selectAttributeTexts.add(new Text(attribute));
+            }
+        } else {
+            selectAttributeTexts = null;
+        }
+    }
+
+    /**
+     * Adds a tag attribute to add to every record
+     *
+     * @param name      The attribute name
+     * @param value     The attribute value
+     */
+    public void addTag(String name, String value) {
+        tagNames.add(new Text(name));
+        tagValues.add(new Text(value));
+    }
+
+    /**
+     * Sets the key to the item name and the value to the item's attributes, reusing the
+     * Texts already in the value and removing attributes left over from the previous record
+     *
+     * @param item      The SimpleDB Item to convert
+     * @param key       The key to set
+     * @param value     The value to set
+     */
+    public void convert(Item item, Text key, MapWritable value) {
+
+        encoder.set(key, item.getName());
+
+        if (!startRecord(value)) {
+            return;
+        }
+
+        int attributesSet = 0;
+        for (Attribute attribute : item.getAttributes()) {
+            if (selectAttributes != null && !selectAttributes.contains(attribute.getName())) {
+                continue;
+            }
+
+            AttributeName name = intern(attribute.getName());
+            if (name.generation != generation) {
+                name.generation = generation;
+                attributesSet++;
+            }
+
+            encoder.set(getValueText(name, value), attribute.getValue());
+        }
+
+        removeStale(value, attributesSet + setTags(value));
+    }
+
+    /**
+     * Sets the key to the item name and the value to the item's attributes for an item
+     * decoded by the SimpleDBSelectDecoder, copying the bytes of the raw Texts
+     *
+     * @param item      The raw item to convert
+     * @param key       The key to set
+     * @param value     The value to set
+     */
+    public void convert(SimpleDBRawItem item, Text key, MapWritable value) {
+
+        key.set(item.getName());
+
+        if (!startRecord(value)) {
+            return;
+        }
+
+        int attributesSet = 0;
+        for (int i = 0; i < item.getAttributeCount(); i++) {
+            Text attributeName = item.getAttributeName(i);
+            if (selectAttributeTexts != null && !selectAttributeTexts.contains(attributeName)) {
+                continue;
+            }
+
+            AttributeName name = intern(attributeName);
+            if (name.generation != generation) {
+                name.generation = generation;
+                attributesSet++;
+            }
+
+            getValueText(name, value).set(item.getAttributeValue(i));
+        }
+
+        removeStale(value, attributesSet + setTags(value));
+    }
+
+    /**
+     * Starts converting a record's attributes
+     *
+     * @param value     The value to set
+     * @return          False if only keys are converted, so there are no attributes
+     */
+    private boolean startRecord(MapWritable value) {
+
+        if (keysOnly) {
+            if (value.size() != tagNames.size() || !value.keySet().containsAll(tagNames)) {
+                value.clear();
+            }
+            // Set the tags on the Texts already in the value, which may have been put there by
+            // another converter sharing the value with different tags
+            for (int i = 0; i < tagNames.size(); i++) {
+                Writable existing = value.get(tagNames.get(i));
+                if (existing instanceof Text) {
+                    ((Text) existing).set(tagValues.get(i));
+                } else {
+                    value.put(tagNames.get(i), new Text(tagValues.get(i)));
+                }
+            }
+            return false;
+        }
+
+        // Stop the interned names growing without bound on domains with dynamic attribute names
+        if (namesByString.size() >= MAX_INTERNED_NAMES || namesByText.size() >= MAX_INTERNED_NAMES) {
+            namesByString.clear();
+            namesByText.clear();
+            value.clear();
+        }
+
+        generation++;
+        return true;
+    }
+
+    /**
+     * Sets the tag attributes in the value, after the item's attributes so they replace any
+     * attributes with the same names
+     *
+     * @param value     The value
+     * @return          The number of attributes the tags added to those set by the item
+     */
+    private int setTags(MapWritable value) {
+
+        int attributesSet = 0;
+        for (int i = 0; i < tagNames.size(); i++) {
+            AttributeName name = intern(tagNames.get(i));
+            getValueText(name, value).set(tagValues.get(i));
+            if (name.generation != generation) {
+                name.generation = generation;
+                attributesSet++;
+            }
+        }
+        return attributesSet;
+    }
+
+    /**
+     * Gets the Text in the value for an attribute, adding a new one if there isn't one
+     *
+     * @param name      The interned attribute name
+     * @param value     The value
+     * @return          The Text to set to the attribute value
+     */
+    private Text getValueText(AttributeName name, MapWritable value) {
+
+        Writable existing = value.get(name.text);
+        if (existing instanceof Text) {
+            return (Text) existing;
+        }
+
+        Text text = new Text();
+        value.put(name.text, text);
+        return text;
+    }
+
+    /**
+     * Removes attributes from the previous record that weren't set by this record
+     *
+     * @param value             The value
+     * @param attributesSet     The number of different attributes set by this record
+     */
+    private void removeStale(MapWritable value, int attributesSet) {
+
+        if (value.size() > attributesSet) {
+            Iterator<Writable> keys = value.keySet().iterator();
+            while (keys.hasNext()) {
+                AttributeName name = namesByText.get(keys.next());
+                if (name == null || name.generation != generation) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the interned Text for an attribute name, creating it the first time the name is seen
+     *
+     * @param attributeName     The attribute name
+     * @return                  The interned attribute name
+     */
+    private AttributeName intern(String attributeName) {
+
+        AttributeName name = namesByString.get(attributeName);
+        if (name == null) {
+            name = new AttributeName(new Text(attributeName));
+            namesByString.put(attributeName, name);
+            namesByText.put(name.text, name);
+        }
+        return name;
+    }
+
+    /**
+     * Gets the interned Text for a raw attribute name, copying it the first time the name is seen
+     *
+     * @param attributeName     The raw attribute name, which is reused by the decoder
+     * @return                  The interned attribute name
+     */
+    private AttributeName intern(Text attributeName) {
+
+        AttributeName name = namesByText.get(attributeName);
+        if (name == null) {
+            name = new AttributeName(new Text(attributeName));
+            namesByText.put(name.text, name);
+        }
+        return name;
+    }
+
+    /**
+     * Interned attribute name with the number of the last record that set it
+     */
+    private static class AttributeName {
+
+        private final Text text;
+        private long generation = 0;
+
+        private AttributeName(Text text) {
+            this.text = text;
+        }
+    }
+}
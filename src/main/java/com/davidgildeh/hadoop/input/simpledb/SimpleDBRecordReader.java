@@ -16,16 +16,23 @@
 
 package com.davidgildeh.hadoop.input.simpledb;
 
-import com.amazonaws.services.simpledb.model.Attribute;
 import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectResult;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.io.MapWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 
 /**
  * RecordReader takes a split and produces individual key/value pair records (Tuples)
@@ -34,6 +41,58 @@ import org.apache.hadoop.mapred.RecordReader;
  * The SimpleDBRecordReader loads the InputSplit range from SimpleDB and then iterates
  * through each item (row) from to creates a key/value pair record (Tuple) for the Mappers
  * 
+ * By default the whole split range is loaded into memory when the RecordReader is created.
+ * If simpledb.reader.streaming is set to true, the RecordReader instead fetches one Select
+ * page at a time as next() needs it, so at most one page of items is held in memory and the
+ * Mapper can start as soon as the first page arrives. Progress is reported to the Reporter
+ * after every page fetch so long fetches don't cause the task to time out.
+ * 
+ * Setting simpledb.reader.prefetch.depth to a number of pages greater than 0 turns on
+ * streaming and starts a background SimpleDBPagePrefetcher that follows the nextToken
+ * chain and queues up to that many pages while the Mappers process the current page.
+ * 
+ * Setting simpledb.reader.parallel.streams to a number greater than 1 divides a range split
+ * into that many sub-ranges, which are fetched concurrently by the prefetcher, so a single
+ * Mapper can read a split at several times the rate of one nextToken chain. By default items
+ * are passed to the Mapper in the order the pages arrive. If simpledb.reader.parallel.ordered
+ * is set to true, each sub-range is queued separately and the sub-ranges are read in order,
+ * so the items come out in the same order as a single stream. Token splits can't be divided
+ * as their rows are only reachable by following one nextToken chain, so they're always read
+ * with a single stream.
+ * 
+ * When streaming, the LIMIT of each page is chosen by a SimpleDBPageSizer from the size of
+ * the items seen so far and the rows left in the split, so wide items don't come back in
+ * truncated pages and the last page doesn't fetch rows past the end of the split.
+ * 
+ * If simpledb.select.attributes is set to a comma separated list of attributes, only those
+ * attributes are selected from SimpleDB and put into the value MapWritable.
+ * 
+ * If simpledb.select.keysonly is set to true, only the item names are selected with
+ * SELECT itemName(), and the value MapWritable is always empty.
+ * 
+ * If simpledb.reader.raw is set to true, pages are fetched one at a time and decoded by the
+ * SimpleDBSelectDecoder straight into reusable Texts, skipping the AWS SDK's SelectResult,
+ * Item, Attribute and String objects. It is ignored when prefetching.
+ * 
+ * Records are built by a SimpleDBRecordConverter, which reuses the key and value Texts
+ * between calls to next() and removes attributes left over from the previous record, so
+ * Mappers must copy any key or value they want to keep.
+ * 
+ * Splits of sharded input and named queries read the domain and query they were planned for.
+ * Unless simpledb.domain.tag or simpledb.query.tag are empty, the source domain and query name
+ * are added to every value under those attribute names.
+ * 
+ * If simpledb.reader.checkpoint.dir is set, a SimpleDBCheckpoint of the nextToken and rows
+ * read is saved on HDFS every few pages while streaming, prefetching or reading raw pages with
+ * a single stream, and a retried attempt of the task resumes from the last checkpoint. Rows
+ * read after the checkpoint are read again, and rows before it are left out of the job output,
+ * so only use checkpoints with Mappers that write to an external idempotent sink and with
+ * speculative execution of maps off. See SimpleDBCheckpoint.
+ * 
+ * Every Select request the RecordReader makes, from any stream, is recorded in one
+ * SimpleDBMetrics and reported as counters. When the RecordReader is closed the task's select
+ * latency percentiles are reported and a summary of its SimpleDB I/O is written to the task log.
+ * 
  * @author David Gildeh
  */
 public class SimpleDBRecordReader implements RecordReader<Text, MapWritable> {
@@ -41,17 +100,75 @@ public class SimpleDBRecordReader implements RecordReader<Text, MapWritable> {
     // Log4J Logger
     private static final Log LOG = LogFactory.getLog(SimpleDBRecordReader.class);
     
+    // Highest progress reported before the last row has been read
+    private static final float MAX_UNFINISHED_PROGRESS = 0.99f;
+    
+    // Set to true to fetch one page at a time instead of the whole split, defaults to false
+    public static final String SIMPLEDB_READER_STREAMING = "simpledb.reader.streaming";
+    
+    // Number of pages to prefetch in the background, defaults to 0 (no prefetching)
+    public static final String SIMPLEDB_READER_PREFETCH_DEPTH = "simpledb.reader.prefetch.depth";
+    
+    // Set to true to decode pages straight into Texts without the AWS SDK object model, defaults to false
+    public static final String SIMPLEDB_READER_RAW = "simpledb.reader.raw";
+    
+    // Number of concurrent streams to fetch range splits with, defaults to 1
+    public static final String SIMPLEDB_READER_PARALLEL_STREAMS = "simpledb.reader.parallel.streams";
+    
+    // Set to true to read parallel streams in range order, defaults to false
+    public static final String SIMPLEDB_READER_PARALLEL_ORDERED = "simpledb.reader.parallel.ordered";
+    
     // InputSplit
     private final SimpleDBInputSplit split;
     
     // SimpleDBDAO Client
     private final SimpleDBDAO sdb;
     
+    // Reporter to keep the task alive while fetching pages
+    private final Reporter reporter;
+    
+    // Maximum number of items to read from the split
+    private final long maxItems;
+    
     // Position Cursor to data
-    private int cursor = 0;
+    private long cursor = 0;
+    
+    // Position Cursor in the current page of items
+    private int pageCursor = 0;
     
-    // Current token of item to get
+    // Current page of items, or the whole split if not streaming
     private List<Item> items;
+    
+    // Reusable page of raw items, null if not decoding raw pages
+    private SimpleDBSelectPage rawPage = null;
+    
+    // Token to fetch the next page of items from
+    private String nextToken;
+    
+    // True once there are no more pages to fetch from SimpleDB
+    private boolean exhausted;
+    
+    // Background page fetchers read in turn, null if not prefetching
+    private List<SimpleDBPagePrefetcher> prefetchers = null;
+    
+    // Index of the prefetcher pages are currently taken from
+    private int prefetcherIndex = 0;
+    
+    // Converts items into records, reusing the key and value Texts
+    private final SimpleDBRecordConverter converter;
+    
+    // True if the reader created its metrics, so summarises them when closed
+    private final boolean ownsMetrics;
+    
+    // Checkpoint of the rows read for retried attempts to resume from, null if not checkpointing
+    private SimpleDBCheckpoint checkpoint = null;
+    
+    // Pages read since the last checkpoint was saved
+    private int pagesSinceCheckpoint = 0;
+    
+    // Highest progress reported so far, and set once the last row has been read
+    private float progress = 0.0f;
+    private boolean finished = false;
 
     /**
      * Default Constructor creates new SimpleDBRecordReader for a SimpleDBInputSplit
@@ -60,39 +177,408 @@ public class SimpleDBRecordReader implements RecordReader<Text, MapWritable> {
      * @param jobConf   Hadoop Job Configuration
      */
     public SimpleDBRecordReader(SimpleDBInputSplit split, JobConf jobConf) {
+        this(split, jobConf, Reporter.NULL);
+    }
+    
+    /**
+     * Creates new SimpleDBRecordReader for a SimpleDBInputSplit that reports progress
+     * while fetching items from SimpleDB
+     * 
+     * @param split     The Input Split
+     * @param jobConf   Hadoop Job Configuration
+     * @param reporter  Reporter to report progress to
+     */
+    public SimpleDBRecordReader(SimpleDBInputSplit split, JobConf jobConf, Reporter reporter) {
+        this(split, jobConf, reporter, null);
+    }
+    
+    /**
+     * Creates new SimpleDBRecordReader that records its requests in metrics shared with
+     * other readers in the task. The owner of shared metrics summarises them, not the reader
+     * 
+     * @param split     The Input Split
+     * @param jobConf   Hadoop Job Configuration
+     * @param reporter  Reporter to report progress to
+     * @param metrics   The shared metrics, or null for the reader to create its own
+     */
+    SimpleDBRecordReader(SimpleDBInputSplit split, JobConf jobConf, Reporter reporter, SimpleDBMetrics metrics) {
+        
+        // Splits of sharded input, named queries and incremental scans read their own domain
+        // and query, with the split's filter
+        if (split.getDomain() != null || split.getQuery() != null || split.getFilter() != null) {
+            jobConf = SimpleDBInputFormat.getSplitConf(jobConf, split);
+        }
+        
         this.split = split;
-        this.sdb = new SimpleDBDAO(jobConf);  
-        this.items = sdb.getItems(split.getSplitToken(), (int) split.getLength());
+        this.sdb = new SimpleDBDAO(jobConf);
+        this.reporter = reporter;
+        
+        String[] attributes = SimpleDBDAO.getSelectAttributes(jobConf);
+        this.converter = new SimpleDBRecordConverter(
+                (attributes != null) ? new HashSet<String>(Arrays.asList(attributes)) : null,
+                jobConf.getBoolean(SimpleDBDAO.SIMPLEDB_SELECT_KEYSONLY, false));
+        for (Map.Entry<String, String> tag : getTags(jobConf, split).entrySet()) {
+            converter.addTag(tag.getKey(), tag.getValue());
+        }
+        
+        // Range splits are read to the end of the range, token splits stop after the split length
+        sdb.setRange(split.getRange());
+        this.ownsMetrics = (metrics == null);
+        sdb.setMetrics(ownsMetrics ? new SimpleDBMetrics(reporter) : metrics);
+        this.maxItems = (split.getRange() != null) ? Long.MAX_VALUE : split.getRowCount();
+        
+        int prefetchDepth = jobConf.getInt(SIMPLEDB_READER_PREFETCH_DEPTH, 0);
+        int streams = jobConf.getInt(SIMPLEDB_READER_PARALLEL_STREAMS, 1);
+        boolean raw = jobConf.getBoolean(SIMPLEDB_READER_RAW, false);
+        
+        if (raw && (streams > 1 || prefetchDepth > 0)) {
+            LOG.warn(SIMPLEDB_READER_RAW + " is ignored when prefetching or reading parallel streams");
+        }
+        
+        // Resume from the checkpoint of a failed attempt. Checkpoints need a single nextToken
+        // chain read a page at a time, so they aren't used with parallel streams or when the
+        // whole split is loaded at once
+        String startToken = split.getSplitToken();
+        boolean paged = raw || prefetchDepth > 0 || jobConf.getBoolean(SIMPLEDB_READER_STREAMING, false);
+        if (SimpleDBCheckpoint.isEnabled(jobConf)) {
+            if (streams > 1 || !paged) {
+                LOG.warn(SimpleDBCheckpoint.SIMPLEDB_READER_CHECKPOINT_DIR + " is ignored unless streaming, "
+                        + "prefetching or reading raw pages with a single stream");
+            } else {
+                startToken = resumeFromCheckpoint(jobConf, startToken);
+            }
+        }
+        
+        if (streams > 1) {
+            // Sub-ranges are fetched concurrently in the background and taken off the queues by next()
+            this.items = Collections.emptyList();
+            this.exhausted = false;
+            this.prefetchers = createParallelPrefetchers(jobConf, streams, Math.max(1, prefetchDepth),
+                    jobConf.getBoolean(SIMPLEDB_READER_PARALLEL_ORDERED, false));
+            for (SimpleDBPagePrefetcher prefetcher : prefetchers) {
+                prefetcher.start();
+            }
+        } else if (prefetchDepth > 0) {
+            // Pages are fetched in the background and taken off the queue by next()
+            this.items = Collections.emptyList();
+            this.exhausted = false;
+            this.prefetchers = Arrays.asList(new SimpleDBPagePrefetcher(sdb, startToken, maxItems - cursor, prefetchDepth));
+            this.nextToken = startToken;
+            this.prefetchers.get(0).start();
+        } else if (raw) {
+            // Pages are fetched lazily by next() and decoded into the same reusable page
+            this.items = Collections.emptyList();
+            this.rawPage = new SimpleDBSelectPage();
+            this.nextToken = startToken;
+            this.exhausted = false;
+        } else if (jobConf.getBoolean(SIMPLEDB_READER_STREAMING, false)) {
+            // Pages are fetched lazily by next()
+            this.items = Collections.emptyList();
+            this.nextToken = startToken;
+            this.exhausted = false;
+        } else {
+            this.items = sdb.getItems(split.getSplitToken(), (int) Math.min(Integer.MAX_VALUE, maxItems));
+            this.exhausted = true;
+        }
     }
     
     /**
-     * Get next Key/Value Record (Tuple) from the Split
+     * Gets the attributes to tag records with their source domain and query name
      * 
-     * @param key           The key to set
-     * @param value         The HashMap value to set
-     * @return              True - next Item available, False - No more items available
-     * @throws IOException 
+     * @param jobConf       Hadoop Job Configuration
+     * @param split         The split being read
+     * @return              The tag attribute names and values, empty if the records aren't tagged
      */
-    public boolean next(Text key, MapWritable value) throws IOException {
+    static Map<String, String> getTags(JobConf jobConf, SimpleDBInputSplit split) {
+        
+        Map<String, String> tags = new LinkedHashMap<String, String>();
+        String domainTag = jobConf.get(SimpleDBInputFormat.SIMPLEDB_DOMAIN_TAG, SimpleDBInputFormat.DEFAULT_DOMAIN_TAG);
+        if (split.getDomain() != null && !domainTag.isEmpty()) {
+            tags.put(domainTag, split.getDomain());
+        }
+        String queryTag = jobConf.get(SimpleDBInputFormat.SIMPLEDB_QUERY_TAG, SimpleDBInputFormat.DEFAULT_QUERY_TAG);
+        if (split.getQuery() != null && !queryTag.isEmpty()) {
+            tags.put(queryTag, split.getQuery());
+        }
+        return tags;
+    }
+    
+    /**
+     * Loads the checkpoint saved by a failed attempt of the task, if any, and moves the
+     * cursor to the rows it had read. Checkpointing is disabled if the checkpoint can't be read
+     * 
+     * @param jobConf       Hadoop Job Configuration
+     * @param startToken    The token to start reading from without a checkpoint
+     * @return              The token to start reading from
+     */
+    private String resumeFromCheckpoint(JobConf jobConf, String startToken) {
+        
+        try {
+            checkpoint = new SimpleDBCheckpoint(jobConf, split);
+            if (checkpoint.load() && !checkpoint.isCompleted()) {
+                cursor = checkpoint.getRows();
+                reporter.incrCounter(SimpleDBCheckpoint.Counter.RESUMED, 1);
+                reporter.incrCounter(SimpleDBCheckpoint.Counter.RESUMED_ROWS, cursor);
+                return checkpoint.getNextToken();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to load checkpoint, reading the split without checkpoints", e);
+            checkpoint = null;
+        }
+        
+        return startToken;
+    }
+    
+    /**
+     * Saves a checkpoint every simpledb.reader.checkpoint.interval pages. Called between pages,
+     * when every row before nextToken has been handed to the Mapper. Failing to save a
+     * checkpoint doesn't fail the task, a retried attempt just resumes from an older checkpoint
+     */
+    private void saveCheckpoint() {
+        
+        if (checkpoint == null || nextToken == null || ++pagesSinceCheckpoint < checkpoint.getInterval()) {
+            return;
+        }
+        
+        pagesSinceCheckpoint = 0;
+        try {
+            checkpoint.save(nextToken, cursor);
+            reporter.incrCounter(SimpleDBCheckpoint.Counter.SAVED, 1);
+        } catch (IOException e) {
+            LOG.warn("Failed to save checkpoint after " + cursor + " rows", e);
+        }
+    }
+    
+    /**
+     * Creates the prefetchers to fetch the split with several concurrent streams, one per
+     * sub-range of the split. Falls back to a single stream if the split can't be divided
+     * 
+     * @param jobConf   Hadoop Job Configuration
+     * @param streams   The number of streams to divide the split into
+     * @param depth     Maximum number of pages to queue ahead of the Mapper per stream
+     * @param ordered   True - one prefetcher per sub-range in range order, False - one shared prefetcher
+     * @return          The prefetchers to take pages from in turn
+     */
+    private List<SimpleDBPagePrefetcher> createParallelPrefetchers(JobConf jobConf, int streams, 
+            int depth, boolean ordered) {
         
-        // Get next item off the ArrayList unless we're at the end
-        if (cursor < split.getLength()) {
+        List<SimpleDBKeyRange> subRanges = divideRange(split.getRange(), streams);
+        
+        if (subRanges.size() <= 1) {
+            LOG.info("Split " + split + " can't be divided, reading with a single stream");
+            return Arrays.asList(new SimpleDBPagePrefetcher(sdb, split.getSplitToken(), maxItems, depth));
+        }
+        
+        LOG.info("Reading split with " + subRanges.size() + " parallel streams");
+        
+        // Each stream gets its own DAO limited to its sub-range, sharing the pooled SimpleDB client
+        List<SimpleDBDAO> streamDAOs = new ArrayList<SimpleDBDAO>();
+        for (SimpleDBKeyRange subRange : subRanges) {
+            SimpleDBDAO streamDAO = new SimpleDBDAO(jobConf);
+            streamDAO.setRange(subRange);
+            streamDAO.setMetrics(sdb.getMetrics());
+            streamDAOs.add(streamDAO);
+        }
+        
+        List<SimpleDBPagePrefetcher> streamPrefetchers = new ArrayList<SimpleDBPagePrefetcher>();
+        if (ordered) {
+            for (SimpleDBDAO streamDAO : streamDAOs) {
+                streamPrefetchers.add(new SimpleDBPagePrefetcher(streamDAO, null, Long.MAX_VALUE, depth));
+            }
+        } else {
+            streamPrefetchers.add(new SimpleDBPagePrefetcher(streamDAOs, null, Long.MAX_VALUE, depth));
+        }
+        return streamPrefetchers;
+    }
+    
+    /**
+     * Divides a split range into sub-ranges in range order. Item name ranges are divided
+     * between the first and last item names in the range, keeping the range's own bounds on
+     * the outer sub-ranges. Attribute ranges can only be divided if both bounds are set
+     * 
+     * @param range     The range of the split, null for token splits
+     * @param parts     The number of sub-ranges to divide into
+     * @return          The sub-ranges, or a single range if the range can't be divided
+     */
+    private List<SimpleDBKeyRange> divideRange(SimpleDBKeyRange range, int parts) {
+        
+        if (range == null) {
+            return Collections.singletonList(range);
+        }
+        
+        String first;
+        String last;
+        if (SimpleDBKeyRange.ITEM_NAME.equals(range.getExpression())) {
+            first = sdb.getBoundaryItemName(range, false);
+            last = sdb.getBoundaryItemName(range, true);
+        } else {
+            first = range.getLower();
+            last = range.getUpper();
+        }
+        
+        if (first == null || last == null || first.compareTo(last) >= 0) {
+            return Collections.singletonList(range);
+        }
+        
+        List<SimpleDBKeyRange> subRanges = new ArrayList<SimpleDBKeyRange>();
+        String lower = range.getLower();
+        for (String boundary : SimpleDBKeyRange.divide(first, last, parts)) {
+            subRanges.add(new SimpleDBKeyRange(range.getExpression(), lower, boundary));
+            lower = boundary;
+        }
+        subRanges.add(new SimpleDBKeyRange(range.getExpression(), lower, range.getUpper()));
+        return subRanges;
+    }
+    
+    /**
+     * Fetches the next non-empty page of items from SimpleDB into the items list
+     * 
+     * @return      True - a new page was fetched, False - no more items in SimpleDB
+     * @throws IOException
+     */
+    private boolean fetchNextPage() throws IOException {
+        
+        // SimpleDB can return empty pages with a nextToken, so keep going until we get items
+        while (!exhausted) {
             
-            Item item = items.get(cursor++);
+            if (pageCursor > 0) {
+                saveCheckpoint();
+            }
             
-            key.set(item.getName());
-            for (Attribute attribute : item.getAttributes()) {
-                value.put(new Text(attribute.getName()), new Text(attribute.getValue()));
+            if (rawPage != null) {
+                reporter.progress();
+                sdb.getNextItemsPage(nextToken, maxItems - cursor, rawPage);
+                reporter.progress();
+                
+                pageCursor = 0;
+                nextToken = rawPage.getNextToken();
+                exhausted = (nextToken == null);
+            } else {
+                SelectResult result;
+                if (prefetchers != null) {
+                    result = prefetchers.get(prefetcherIndex).take(reporter);
+                    if (result == null) {
+                        // Move on to the next prefetcher once this one has no more pages
+                        if (++prefetcherIndex >= prefetchers.size()) {
+                            exhausted = true;
+                        }
+                        continue;
+                    }
+                } else {
+                    reporter.progress();
+                    result = sdb.getNextItemsPage(nextToken, maxItems - cursor);
+                    reporter.progress();
+                }
+                
+                items = result.getItems();
+                pageCursor = 0;
+                nextToken = result.getNextToken();
+                if (prefetchers == null) {
+                    exhausted = (nextToken == null);
+                }
             }
             
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Sending next record to Mappers: " + key.toString());                
+                LOG.debug("Fetched page of " + getPageSize() + " items, nextToken=" + nextToken);
             }
             
-            return true;
-        } else {
+            if (getPageSize() > 0) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Get the number of items in the current page
+     * 
+     * @return      The page size
+     */
+    private int getPageSize() {
+        return (rawPage != null) ? rawPage.size() : items.size();
+    }
+    
+    /**
+     * Moves on to the next item, fetching the next page if the current page is finished
+     * 
+     * @return              True - there is a next item, False - no more items
+     * @throws IOException 
+     */
+    private boolean advance() throws IOException {
+        
+        // Get next item off the current page unless we're at the end
+        if (cursor >= maxItems || (pageCursor >= getPageSize() && !fetchNextPage())) {
+            finished = true;
             return false;
         }
+        
+        cursor++;
+        pageCursor++;
+        return true;
+    }
+    
+    /**
+     * Check if the items are decoded as raw items, so nextRawItem() must be used
+     * instead of nextItem()
+     * 
+     * @return      True if simpledb.reader.raw is in effect
+     */
+    boolean isRaw() {
+        return rawPage != null;
+    }
+    
+    /**
+     * Get the next SimpleDB Item from the Split, used by readers that build their own
+     * records from the items
+     * 
+     * @return              The next Item, or null if there are no more items
+     * @throws IOException 
+     */
+    Item nextItem() throws IOException {
+        return advance() ? items.get(pageCursor - 1) : null;
+    }
+    
+    /**
+     * Get the next raw item from the Split when decoding raw pages. The item is reused
+     * when the next page is fetched
+     * 
+     * @return              The next raw item, or null if there are no more items
+     * @throws IOException 
+     */
+    SimpleDBRawItem nextRawItem() throws IOException {
+        return advance() ? rawPage.getItem(pageCursor - 1) : null;
+    }
+    
+    /**
+     * Get next Key/Value Record (Tuple) from the Split
+     * 
+     * @param key           The key to set
+     * @param value         The HashMap value to set
+     * @return              True - next Item available, False - No more items available
+     * @throws IOException 
+     */
+    public boolean next(Text key, MapWritable value) throws IOException {
+        
+        if (rawPage != null) {
+            SimpleDBRawItem item = nextRawItem();
+            if (item == null) {
+                return false;
+            }
+            converter.convert(item, key, value);
+        } else {
+            Item item = nextItem();
+            if (item == null) {
+                return false;
+            }
+            converter.convert(item, key, value);
+        }
+        
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending next record to Mappers: " + key.toString());                
+        }
+        
+        return true;
     }
 
     /**
@@ -124,31 +610,55 @@ public class SimpleDBRecordReader implements RecordReader<Text, MapWritable> {
     }
 
     /**
-     * Called when RecordReader is closed. Used for cleanup code. In our cases
-     * there is nothing to clean up.
+     * Called when RecordReader is closed. Used for cleanup code. Stops the background
+     * prefetchers if there are any.
      * 
      * @throws IOException 
      */
     public void close() throws IOException {
-        // Do Nothing
+        
+        if (prefetchers != null) {
+            for (SimpleDBPagePrefetcher prefetcher : prefetchers) {
+                prefetcher.close();
+            }
+        }
+        
+        // The split has been read, so failing to delete the checkpoint mustn't fail the task
+        if (checkpoint != null && finished) {
+            try {
+                checkpoint.delete();
+            } catch (IOException e) {
+                LOG.warn("Failed to delete checkpoint of finished split " + split, e);
+            }
+        }
+        
+        if (ownsMetrics) {
+            sdb.getMetrics().summarise(LOG, "split " + split);
+            reporter.setStatus("SimpleDB " + sdb.getMetrics());
+        }
     }
 
     /**
      * Get percentage (float) progress of how far RecordReader has iterated
-     * over total rows in Split
+     * over total rows in Split. Progress counts the rows handed to the Mapper, so it holds
+     * steady while a page is being fetched, never goes backwards and is 1.0 once the
+     * split has been read
      * 
      * @return                  Percentage progress as float
      * @throws IOException 
      */
     public float getProgress() throws IOException {
         
-        if(this.cursor  == this.split.getLength())
-        {
-            return 0.0f;
+        if (finished) {
+            return 1.0f;
         }
-        else
-        {
-            return Math.min(1.0f, this.cursor / (float)(this.split.getLength()));
+        
+        // Range splits can hold more rows than were counted at planning time, so hold
+        // back from 1.0 until the last row has been read
+        long rows = split.getRowCount();
+        if (rows > 0) {
+            progress = Math.max(progress, Math.min(MAX_UNFINISHED_PROGRESS, cursor / (float) rows));
         }
+        return progress;
     }
 }
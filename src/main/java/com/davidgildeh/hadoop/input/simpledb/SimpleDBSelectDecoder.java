@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Streaming StAX decoder for SimpleDB Select responses. It writes item names, attribute
+ * names and attribute values straight into the reusable UTF-8 Texts of a SimpleDBSelectPage,
+ * without the SelectResult, Item, Attribute and String objects the AWS SDK builds for every
+ * item, which readers would only re-encode into Texts. Element text is copied out of the
+ * parser's character buffer, so Strings are only created for the nextToken and response
+ * metadata.
+ * 
+ * Names and values SimpleDB returns with encoding="base64", because they contain characters
+ * that aren't allowed in XML, are decoded back to their original bytes.
+ * 
+ * Not thread safe, use one decoder per thread.
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBSelectDecoder {
+    
+    // Factory for the StAX parsers
+    private final XMLInputFactory factory;
+    
+    // Encodes element text into Texts
+    private final SimpleDBTextEncoder encoder = new SimpleDBTextEncoder();
+    
+    // Text of the current element
+    private char[] chars = new char[256];
+    private int length = 0;
+
+    /**
+     * Default Constructor
+     */
+    public SimpleDBSelectDecoder() {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+    
+    /**
+     * Decodes a Select response into a page, replacing its previous contents
+     * 
+     * @param in        The Select response XML
+     * @param page      The page to decode into
+     * @throws XMLStreamException   If the response isn't a valid Select response
+     */
+    public void decode(InputStream in, SimpleDBSelectPage page) throws XMLStreamException {
+        
+        page.clear();
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        
+        try {
+            SimpleDBRawItem item = null;
+            int attribute = -1;
+            
+            while (reader.hasNext()) {
+                
+                int event = reader.next();
+                
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    
+                    String element = reader.getLocalName();
+                    
+                    if ("Item".equals(element)) {
+                        item = page.addItem();
+                    } else if ("Attribute".equals(element)) {
+                        if (item == null) {
+                            throw new XMLStreamException("Attribute outside of an Item", reader.getLocation());
+                        }
+                        attribute = item.addAttribute();
+                    } else if ("Name".equals(element) && item != null) {
+                        boolean base64 = isBase64(reader);
+                        readText(reader);
+                        setText((attribute >= 0) ? item.getAttributeName(attribute) : item.getName(), base64);
+                    } else if ("Value".equals(element) && attribute >= 0) {
+                        boolean base64 = isBase64(reader);
+                        readText(reader);
+                        setText(item.getAttributeValue(attribute), base64);
+                    } else if ("NextToken".equals(element)) {
+                        readText(reader);
+                        page.setNextToken(new String(chars, 0, length));
+                    } else if ("RequestId".equals(element)) {
+                        readText(reader);
+                        page.setRequestId(new String(chars, 0, length));
+                    } else if ("BoxUsage".equals(element)) {
+                        readText(reader);
+                        page.setBoxUsage(new String(chars, 0, length));
+                    }
+                    
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    
+                    String element = reader.getLocalName();
+                    
+                    if ("Attribute".equals(element)) {
+                        attribute = -1;
+                    } else if ("Item".equals(element)) {
+                        item = null;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Check if the current element's text is base64 encoded
+     * 
+     * @param reader    The parser, positioned at the start of the element
+     * @return          True if the element has encoding="base64"
+     */
+    private static boolean isBase64(XMLStreamReader reader) {
+        
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if ("encoding".equals(reader.getAttributeLocalName(i))) {
+                return "base64".equals(reader.getAttributeValue(i));
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Reads the text of the current element into the character buffer, leaving the
+     * parser at the end of the element
+     * 
+     * @param reader    The parser, positioned at the start of the element
+     * @throws XMLStreamException   If the element contains other elements
+     */
+    private void readText(XMLStreamReader reader) throws XMLStreamException {
+        
+        length = 0;
+        
+        while (true) {
+            int event = reader.next();
+            
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA 
+                    || event == XMLStreamConstants.SPACE) {
+                
+                int textLength = reader.getTextLength();
+                if (length + textLength > chars.length) {
+                    char[] grown = new char[Math.max(chars.length * 2, length + textLength)];
+                    System.arraycopy(chars, 0, grown, 0, length);
+                    chars = grown;
+                }
+                System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), chars, length, textLength);
+                length += textLength;
+                
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                throw new XMLStreamException("Unexpected element " + reader.getLocalName(), reader.getLocation());
+            }
+        }
+    }
+    
+    /**
+     * Sets a Text to the text read from the current element
+     * 
+     * @param text      The Text to set
+     * @param base64    True if the element's text is base64 encoded
+     */
+    private void setText(Text text, boolean base64) {
+        
+        if (base64) {
+            byte[] encoded = new byte[length];
+            for (int i = 0; i < length; i++) {
+                encoded[i] = (byte) chars[i];
+            }
+            byte[] decoded = Base64.decodeBase64(encoded);
+            text.set(decoded, 0, decoded.length);
+        } else {
+            encoder.set(text, chars, 0, length);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of Select results decoded by the SimpleDBSelectDecoder. The page and its items
+ * are reused when the next page is decoded into it, so a reader paging through a split
+ * with one SimpleDBSelectPage allocates almost nothing per item.
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBSelectPage {
+    
+    // Items in the page, reused between pages
+    private final List<SimpleDBRawItem> items = new ArrayList<SimpleDBRawItem>();
+    
+    // Number of items in the current page
+    private int size = 0;
+    
+    // Token for the next page, or null if there's no more data
+    private String nextToken = null;
+    
+    // Request ID of the response
+    private String requestId = null;
+    
+    // Box usage of the request in machine hours
+    private String boxUsage = null;
+    
+    /**
+     * Get the number of items in the page
+     * 
+     * @return  The number of items
+     */
+    public int size() {
+        return this.size;
+    }
+    
+    /**
+     * Get an item in the page
+     * 
+     * @param index     The index of the item
+     * @return          The item
+     */
+    public SimpleDBRawItem getItem(int index) {
+        
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not less than page size " + size);
+        }
+        return items.get(index);
+    }
+    
+    /**
+     * Get the token for the next page
+     * 
+     * @return  The nextToken, or null if there's no more data
+     */
+    public String getNextToken() {
+        return this.nextToken;
+    }
+    
+    /**
+     * Get the request ID of the response
+     * 
+     * @return  The request ID, or null if not in the response
+     */
+    public String getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Get the box usage of the request
+     * 
+     * @return  The box usage in machine hours, or null if not in the response
+     */
+    public String getBoxUsage() {
+        return this.boxUsage;
+    }
+    
+    /**
+     * Empties the page, keeping the items to reuse
+     */
+    void clear() {
+        size = 0;
+        nextToken = null;
+        requestId = null;
+        boxUsage = null;
+    }
+    
+    /**
+     * Adds an item, reusing a previous item if there is one
+     * 
+     * @return      The new empty item
+     */
+    SimpleDBRawItem addItem() {
+        
+        if (size == items.size()) {
+            items.add(new SimpleDBRawItem());
+        }
+        SimpleDBRawItem item = items.get(size++);
+        item.clear();
+        return item;
+    }
+    
+    /**
+     * Set the token for the next page
+     */
+    void setNextToken(String nextToken) {
+        this.nextToken = nextToken;
+    }
+    
+    /**
+     * Set the request ID of the response
+     */
+    void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+    
+    /**
+     * Set the box usage of the request
+     */
+    void setBoxUsage(String boxUsage) {
+        this.boxUsage = boxUsage;
+    }
+}
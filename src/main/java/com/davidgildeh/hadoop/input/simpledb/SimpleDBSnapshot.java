@@ -0,0 +1,342 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectResult;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Snapshot of a SimpleDB domain materialised on HDFS, so jobs that scan the same domain many
+ * times a day can read block-compressed SequenceFiles instead of paying for SimpleDB selects.
+ *
+ * export() pages through the domain with the adaptive page size of SimpleDBDAO, honouring the
+ * where query and selected attributes, and writes every item as a Text item name and a
+ * MapWritable of attributes, the same records SimpleDBInputFormat reads. Each snapshot is
+ * written into its own directory, <simpledb.snapshot.dir>/<domain>/<creation time>, and
+ * only becomes visible once its _MANIFEST has been written, so readers never see a partial
+ * snapshot. The manifest records the domain, a fingerprint of the query, the number of items
+ * and the domain's metadata when the export started.
+ *
+ * SimpleDBSnapshotInputFormat reads the latest snapshot with a matching fingerprint if it is
+ * younger than simpledb.snapshot.max.age, and falls back to reading SimpleDB otherwise. Items
+ * written while the export runs may or may not be in the snapshot.
+ *
+ * Usage, e.g. from an hourly cron job:
+ *
+ * SimpleDBSnapshot.export(jobConf);
+ *
+ * Configuration:
+ *
+ * - simpledb.snapshot.dir: Directory on HDFS to write the snapshots in
+ * - simpledb.snapshot.max.age: (OPTIONAL) Age in seconds after which a snapshot is too stale to
+ *                              read. Defaults to 86400 (1 day)
+ * - simpledb.snapshot.keep: (OPTIONAL) Number of snapshots of a domain and query to keep, older
+ *                           ones with the same fingerprint are deleted after each export, so
+ *                           exports with other queries never delete each other's snapshots.
+ *                           The latest snapshot is always kept. Defaults to 2
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBSnapshot {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBSnapshot.class);
+
+    // Configuration Name Constants
+    public static final String SIMPLEDB_SNAPSHOT_DIR = "simpledb.snapshot.dir";
+    public static final String SIMPLEDB_SNAPSHOT_MAX_AGE = "simpledb.snapshot.max.age";
+    public static final String SIMPLEDB_SNAPSHOT_KEEP = "simpledb.snapshot.keep";
+
+    // Default Values
+    public static final long DEFAULT_MAX_AGE = 86400;
+    public static final int DEFAULT_KEEP = 2;
+
+    // Files in a snapshot directory, the manifest is hidden from FileInputFormat by its _ prefix
+    public static final String MANIFEST_NAME = "_MANIFEST";
+    public static final String DATA_NAME = "part-00000";
+
+    // Manifest Properties
+    public static final String MANIFEST_DOMAIN = "domain";
+    public static final String MANIFEST_FINGERPRINT = "fingerprint";
+    public static final String MANIFEST_WHERE_QUERY = "wherequery";
+    public static final String MANIFEST_CREATED = "created";
+    public static final String MANIFEST_ITEMS = "items";
+    public static final String MANIFEST_DOMAIN_ITEMS = "domain.items";
+    public static final String MANIFEST_DOMAIN_TIMESTAMP = "domain.timestamp";
+
+    // Pages to read between progress log messages
+    private static final int LOG_INTERVAL = 100;
+
+    /**
+     * Exports the domain in simpledb.domain into a new snapshot, then deletes the snapshots
+     * older than the last simpledb.snapshot.keep
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @return              The new snapshot's directory
+     * @throws IOException  If simpledb.snapshot.dir or simpledb.domain isn't set, or the
+     *                      snapshot couldn't be written
+     */
+    public static Path export(JobConf jobConf) throws IOException {
+
+        String domain = jobConf.get(SimpleDBDAO.SIMPLEDB_DOMAIN);
+        if (domain == null) {
+            throw new IOException(SimpleDBDAO.SIMPLEDB_DOMAIN + " must be set to export a snapshot");
+        }
+
+        SimpleDBDAO sdb = new SimpleDBDAO(jobConf);
+        String[] attributes = SimpleDBDAO.getSelectAttributes(jobConf);
+        SimpleDBRecordConverter converter = new SimpleDBRecordConverter(
+                (attributes != null) ? new HashSet<String>(Arrays.asList(attributes)) : null,
+                jobConf.getBoolean(SimpleDBDAO.SIMPLEDB_SELECT_KEYSONLY, false));
+
+        long created = System.currentTimeMillis();
+        DomainMetadataResult metadata = sdb.getDomainMetadata();
+        Path domainDir = new Path(getDir(jobConf), domain);
+        Path snapshotDir = new Path(domainDir, String.format("%015d", created));
+        FileSystem fs = snapshotDir.getFileSystem(jobConf);
+
+        LOG.info("Exporting snapshot of " + domain + " to " + snapshotDir);
+        long items = 0;
+        try {
+            SequenceFile.Writer writer = SequenceFile.createWriter(fs, jobConf, new Path(snapshotDir, DATA_NAME),
+                    Text.class, MapWritable.class, CompressionType.BLOCK);
+            try {
+                Text key = new Text();
+                MapWritable value = new MapWritable();
+                String nextToken = null;
+                int pages = 0;
+                do {
+                    SelectResult result = sdb.getNextItemsPage(nextToken, Long.MAX_VALUE);
+                    for (Item item : result.getItems()) {
+                        converter.convert(item, key, value);
+                        writer.append(key, value);
+                    }
+                    items += result.getItems().size();
+                    nextToken = result.getNextToken();
+                    if (++pages % LOG_INTERVAL == 0) {
+                        LOG.info("Exported " + items + " items of " + domain);
+                    }
+                } while (nextToken != null);
+            } finally {
+                writer.close();
+            }
+
+            Properties manifest = new Properties();
+            manifest.setProperty(MANIFEST_DOMAIN, domain);
+            manifest.setProperty(MANIFEST_FINGERPRINT, getFingerprint(jobConf));
+            if (sdb.getWhereQuery() != null) {
+                manifest.setProperty(MANIFEST_WHERE_QUERY, sdb.getWhereQuery());
+            }
+            manifest.setProperty(MANIFEST_CREATED, String.valueOf(created));
+            manifest.setProperty(MANIFEST_ITEMS, String.valueOf(items));
+            manifest.setProperty(MANIFEST_DOMAIN_ITEMS, String.valueOf(metadata.getItemCount()));
+            manifest.setProperty(MANIFEST_DOMAIN_TIMESTAMP, String.valueOf(metadata.getTimestamp()));
+            writeManifest(fs, snapshotDir, manifest);
+        } catch (IOException e) {
+            fs.delete(snapshotDir, true);
+            throw e;
+        } catch (RuntimeException e) {
+            fs.delete(snapshotDir, true);
+            throw e;
+        }
+
+        sdb.getMetrics().summarise(LOG, "Snapshot of " + domain);
+        LOG.info("Exported " + items + " items of " + domain + " to " + snapshotDir);
+        deleteOld(fs, domainDir, getFingerprint(jobConf), jobConf.getInt(SIMPLEDB_SNAPSHOT_KEEP, DEFAULT_KEEP));
+        return snapshotDir;
+    }
+
+    /**
+     * Finds the latest snapshot of the domain in simpledb.domain that was exported with the
+     * same query and is younger than simpledb.snapshot.max.age
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @return              The snapshot's directory, or null if there is no fresh snapshot
+     * @throws IOException  If simpledb.snapshot.dir isn't set
+     */
+    public static Path findLatest(JobConf jobConf) throws IOException {
+
+        String domain = jobConf.get(SimpleDBDAO.SIMPLEDB_DOMAIN);
+        if (domain == null) {
+            return null;
+        }
+
+        Path domainDir = new Path(getDir(jobConf), domain);
+        FileSystem fs = domainDir.getFileSystem(jobConf);
+        FileStatus[] snapshots = fs.listStatus(domainDir);
+        if (snapshots == null) {
+            LOG.info("No snapshots of " + domain + " in " + domainDir);
+            return null;
+        }
+
+        // Snapshot directories are named by their zero-padded creation time, so the latest sorts last
+        Arrays.sort(snapshots);
+        String fingerprint = getFingerprint(jobConf);
+        long maxAge = jobConf.getLong(SIMPLEDB_SNAPSHOT_MAX_AGE, DEFAULT_MAX_AGE) * 1000;
+        long now = System.currentTimeMillis();
+        for (int i = snapshots.length - 1; i >= 0; i--) {
+            Path manifestFile = new Path(snapshots[i].getPath(), MANIFEST_NAME);
+            if (!fs.exists(manifestFile)) {
+                continue;
+            }
+            Properties manifest = readManifest(fs, manifestFile);
+            if (!fingerprint.equals(manifest.getProperty(MANIFEST_FINGERPRINT))) {
+                continue;
+            }
+            if (isFresh(manifest, now, maxAge)) {
+                LOG.info("Reading snapshot " + snapshots[i].getPath() + " of " 
+                        + manifest.getProperty(MANIFEST_ITEMS) + " items");
+                return snapshots[i].getPath();
+            }
+            LOG.info("Latest snapshot of " + domain + " " + snapshots[i].getPath() + " is older than " 
+                    + (maxAge / 1000) + " seconds");
+            return null;
+        }
+
+        LOG.info("No complete snapshots of " + domain + " with the same query in " + domainDir);
+        return null;
+    }
+
+    /**
+     * Gets the fingerprint of the query a snapshot is exported with, so snapshots are only read
+     * by jobs that select the same items and attributes
+     *
+     * @param jobConf   Hadoop Job Configuration
+     * @return          The MD5 of the where query and selected attributes
+     */
+    public static String getFingerprint(JobConf jobConf) {
+        return MD5Hash.digest(jobConf.get(SimpleDBDAO.SIMPLEDB_WHERE_QUERY)
+                + "|" + jobConf.get(SimpleDBDAO.SIMPLEDB_SELECT_ATTRIBUTES)
+                + "|" + jobConf.getBoolean(SimpleDBDAO.SIMPLEDB_SELECT_KEYSONLY, false)).toString();
+    }
+
+    /**
+     * Checks if a snapshot is young enough to read
+     *
+     * @param manifest  The snapshot's manifest
+     * @param now       The current time in milliseconds
+     * @param maxAge    The maximum age in milliseconds
+     * @return          True if the snapshot was created less than maxAge ago
+     */
+    static boolean isFresh(Properties manifest, long now, long maxAge) {
+        String created = manifest.getProperty(MANIFEST_CREATED);
+        return created != null && now - Long.parseLong(created) <= maxAge;
+    }
+
+    /**
+     * Gets the directory the snapshots are written in
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @return              The snapshot directory
+     * @throws IOException  If simpledb.snapshot.dir isn't set
+     */
+    private static Path getDir(JobConf jobConf) throws IOException {
+
+        String dir = jobConf.get(SIMPLEDB_SNAPSHOT_DIR);
+        if (dir == null) {
+            throw new IOException(SIMPLEDB_SNAPSHOT_DIR + " must be set for snapshots");
+        }
+        return new Path(dir);
+    }
+
+    /**
+     * Writes the manifest to a temporary file and renames it into place, which marks the
+     * snapshot as complete
+     */
+    static void writeManifest(FileSystem fs, Path snapshotDir, Properties manifest) throws IOException {
+
+        Path manifestFile = new Path(snapshotDir, MANIFEST_NAME);
+        Path tmpFile = manifestFile.suffix(".tmp");
+        FSDataOutputStream out = fs.create(tmpFile, true);
+        try {
+            manifest.store(out, "SimpleDB snapshot");
+        } finally {
+            out.close();
+        }
+        if (!fs.rename(tmpFile, manifestFile)) {
+            throw new IOException("Failed to write snapshot manifest " + manifestFile);
+        }
+    }
+
+    /**
+     * Reads a snapshot's manifest
+     */
+    private static Properties readManifest(FileSystem fs, Path manifestFile) throws IOException {
+
+        Properties manifest = new Properties();
+        FSDataInputStream in = fs.open(manifestFile);
+        try {
+            manifest.load(in);
+        } finally {
+            in.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * Deletes all but the latest complete snapshots of a domain exported with a fingerprint.
+     * Snapshots without a manifest may still be being exported, so they're left alone
+     *
+     * @param fs            The FileSystem of the snapshots
+     * @param domainDir     The directory of the domain's snapshots
+     * @param fingerprint   The fingerprint of the snapshots to delete
+     * @param keep          The number of snapshots to keep, at least the latest is always kept
+     * @throws IOException
+     */
+    static void deleteOld(FileSystem fs, Path domainDir, String fingerprint, int keep) throws IOException {
+
+        FileStatus[] snapshots = fs.listStatus(domainDir);
+        if (snapshots == null) {
+            return;
+        }
+
+        // Newest first, so the first snapshots with the fingerprint are the ones to keep
+        Arrays.sort(snapshots);
+        int kept = 0;
+        for (int i = snapshots.length - 1; i >= 0; i--) {
+            Path manifestFile = new Path(snapshots[i].getPath(), MANIFEST_NAME);
+            if (!fs.exists(manifestFile)) {
+                continue;
+            }
+            if (!fingerprint.equals(readManifest(fs, manifestFile).getProperty(MANIFEST_FINGERPRINT))) {
+                continue;
+            }
+            if (++kept > Math.max(1, keep)) {
+                fs.delete(snapshots[i].getPath(), true);
+                LOG.info("Deleted old snapshot " + snapshots[i].getPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.IOException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+
+/**
+ * Reads the latest snapshot of a SimpleDB domain exported by SimpleDBSnapshot whenever it is
+ * fresh enough, and reads SimpleDB with SimpleDBInputFormat otherwise. The records are the
+ * same either way, so jobs can switch to this InputFormat without changing their Mappers.
+ *
+ * A snapshot is read if it was exported from the domain in simpledb.domain with the same
+ * where query and selected attributes, and is younger than simpledb.snapshot.max.age. Its
+ * block-compressed SequenceFiles are split like any other SequenceFile input. Sharded input,
+ * named queries and incremental scans always read SimpleDB, as snapshots hold a single domain.
+ *
+ * Configuration is the same as SimpleDBInputFormat and SimpleDBSnapshot.
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBSnapshotInputFormat implements InputFormat<Text, MapWritable> {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBSnapshotInputFormat.class);
+
+    private final SimpleDBInputFormat liveFormat = new SimpleDBInputFormat();
+    private final SequenceFileInputFormat<Text, MapWritable> snapshotFormat = new SequenceFileInputFormat<Text, MapWritable>();
+
+    /**
+     * Splits the latest fresh snapshot into FileSplits, or plans SimpleDBInputSplits to read
+     * SimpleDB if there isn't one
+     *
+     * @param jobConf       The Job Configuration
+     * @param numSplits     The number of splits suggested by Hadoop
+     * @return              The input splits
+     * @throws IOException
+     */
+    public InputSplit[] getSplits(JobConf jobConf, int numSplits) throws IOException {
+
+        Path snapshot = null;
+        if (jobConf.get(SimpleDBInputFormat.SIMPLEDB_DOMAINS) != null
+                || jobConf.get(SimpleDBInputFormat.SIMPLEDB_DOMAIN_PREFIX) != null
+                || jobConf.get(SimpleDBInputFormat.SIMPLEDB_QUERIES) != null
+                || SimpleDBWatermark.isEnabled(jobConf)) {
+            LOG.info("Snapshots hold a single full domain, reading SimpleDB");
+        } else {
+            snapshot = SimpleDBSnapshot.findLatest(jobConf);
+        }
+
+        if (snapshot == null) {
+            return liveFormat.getSplits(jobConf, numSplits);
+        }
+
+        JobConf snapshotConf = new JobConf(jobConf);
+        FileInputFormat.setInputPaths(snapshotConf, snapshot);
+        return snapshotFormat.getSplits(snapshotConf, numSplits);
+    }
+
+    /**
+     * Creates a SequenceFile RecordReader for snapshot splits, or a SimpleDBRecordReader for
+     * splits that read SimpleDB
+     *
+     * @param split         The Input Split to process
+     * @param jobConf       The Job Configuration
+     * @param reporter
+     * @return              A new Record Reader that processes the Input Split
+     * @throws IOException
+     */
+    public RecordReader<Text, MapWritable> getRecordReader(InputSplit split, JobConf jobConf, Reporter reporter) throws IOException {
+
+        if (split instanceof FileSplit) {
+            return snapshotFormat.getRecordReader(split, jobConf, reporter);
+        }
+        return liveFormat.getRecordReader(split, jobConf, reporter);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Persistent cache of planned SimpleDBInputSplits on HDFS, so jobs that re-plan the
+ * same domain and query on every run can skip planning while the domain hasn't changed.
+ *
+ * Each cache file is keyed by the domain name plus an MD5 hash of the plan key (the where
+ * query, split size and split strategy), and holds the splits with their tokens and row
+ * ranges, along with the DomainMetadata item count and timestamp at the time the splits were
+ * planned. The cached splits are reused while the current DomainMetadata item count and
+ * timestamp are within the configured tolerances of the cached values, otherwise the domain
+ * is re-planned.
+ *
+ * Note that rows added within the item count tolerance are not read from a cached plan, so
+ * only set a tolerance if your job can accept that.
+ *
+ * Configuration:
+ *
+ * - simpledb.split.cache.dir: Directory on HDFS to store the cache files in. Caching is only
+ *                             enabled when this is set
+ * - simpledb.split.cache.count.tolerance: (OPTIONAL) Fraction the item count can change by
+ *                             before the cache is stale, e.g. 0.01 for 1%. Defaults to 0
+ * - simpledb.split.cache.timestamp.tolerance: (OPTIONAL) Seconds the DomainMetadata timestamp
+ *                             can change by before the cache is stale. Defaults to 0
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBSplitCache {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBSplitCache.class);
+
+    // Configuration Name Constants
+    public static final String SIMPLEDB_SPLIT_CACHE_DIR = "simpledb.split.cache.dir";
+    public static final String SIMPLEDB_SPLIT_CACHE_COUNT_TOLERANCE = "simpledb.split.cache.count.tolerance";
+    public static final String SIMPLEDB_SPLIT_CACHE_TIMESTAMP_TOLERANCE = "simpledb.split.cache.timestamp.tolerance";
+
+    // Version of the cache file format, files with a different version are ignored
+    private static final int CACHE_VERSION = 5;
+
+    private final JobConf jobConf;
+    private final Path cacheFile;
+    private final float countTolerance;
+    private final long timestampTolerance;
+
+    /**
+     * Default Constructor
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @param domain        The SimpleDB domain the splits are planned for
+     * @param planKey       String identifying the planning settings, e.g. the where query
+     *                      and split size. Different keys are cached in different files
+     */
+    public SimpleDBSplitCache(JobConf jobConf, String domain, String planKey) {
+        this.jobConf = jobConf;
+        this.cacheFile = new Path(jobConf.get(SIMPLEDB_SPLIT_CACHE_DIR),
+                domain + "-" + MD5Hash.digest(planKey).toString());
+        this.countTolerance = jobConf.getFloat(SIMPLEDB_SPLIT_CACHE_COUNT_TOLERANCE, 0.0f);
+        this.timestampTolerance = jobConf.getLong(SIMPLEDB_SPLIT_CACHE_TIMESTAMP_TOLERANCE, 0);
+    }
+
+    /**
+     * Check if split caching is enabled in the Job Configuration
+     *
+     * @param jobConf   Hadoop Job Configuration
+     * @return          True if simpledb.split.cache.dir is set
+     */
+    public static boolean isEnabled(JobConf jobConf) {
+        return jobConf.get(SIMPLEDB_SPLIT_CACHE_DIR) != null;
+    }
+
+    /**
+     * Loads the cached splits if they exist and the domain hasn't changed since
+     * they were planned
+     *
+     * @param metadata      The current DomainMetadata of the domain
+     * @return              The cached splits, or null if there are none or they're stale
+     * @throws IOException
+     */
+    public List<SimpleDBInputSplit> load(DomainMetadataResult metadata) throws IOException {
+
+        FileSystem fs = cacheFile.getFileSystem(jobConf);
+        if (!fs.exists(cacheFile)) {
+            LOG.info("No cached splits found at " + cacheFile);
+            return null;
+        }
+
+        FSDataInputStream in = fs.open(cacheFile);
+        try {
+            if (in.readInt() != CACHE_VERSION) {
+                LOG.info("Ignoring cached splits with old version at " + cacheFile);
+                return null;
+            }
+
+            long createdTime = in.readLong();
+            long itemCount = in.readLong();
+            long timestamp = in.readLong();
+
+            long countChange = Math.abs(metadata.getItemCount().longValue() - itemCount);
+            long timestampChange = Math.abs(metadata.getTimestamp().longValue() - timestamp);
+            if (countChange > (long) (itemCount * countTolerance) || timestampChange > timestampTolerance) {
+                LOG.info("Cached splits at " + cacheFile + " are stale, item count changed by "
+                        + countChange + ", timestamp changed by " + timestampChange + "s");
+                return null;
+            }
+
+            int numSplits = in.readInt();
+            if (numSplits < 0) {
+                throw new IOException("Invalid number of cached splits: " + numSplits);
+            }
+            List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>(numSplits);
+            for (int i = 0; i < numSplits; i++) {
+                SimpleDBInputSplit split = new SimpleDBInputSplit();
+                split.readFields(in);
+                splits.add(split);
+            }
+
+            LOG.info("Loaded " + numSplits + " cached splits planned at " + createdTime + " from " + cacheFile);
+            return splits;
+
+        } catch (IOException e) {
+            // A corrupt or incompatible cache file is no worse than a missing one
+            LOG.warn("Ignoring unreadable cached splits at " + cacheFile, e);
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the splits to the cache, replacing any existing cached splits
+     *
+     * @param metadata      The DomainMetadata of the domain before the splits were planned
+     * @param splits        The planned splits
+     * @throws IOException
+     */
+    public void save(DomainMetadataResult metadata, List<SimpleDBInputSplit> splits) throws IOException {
+
+        FileSystem fs = cacheFile.getFileSystem(jobConf);
+
+        // Write to a temporary file first so concurrent jobs never read a partial cache file
+        Path tmpFile = cacheFile.suffix(".tmp" + System.currentTimeMillis());
+        FSDataOutputStream out = fs.create(tmpFile, true);
+        try {
+            out.writeInt(CACHE_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(metadata.getItemCount().longValue());
+            out.writeLong(metadata.getTimestamp().longValue());
+            out.writeInt(splits.size());
+            for (SimpleDBInputSplit split : splits) {
+                split.write(out);
+            }
+        } finally {
+            out.close();
+        }
+
+        fs.delete(cacheFile, false);
+        if (!fs.rename(tmpFile, cacheFile)) {
+            fs.delete(tmpFile, false);
+            throw new IOException("Failed to save cached splits to " + cacheFile);
+        }
+
+        LOG.info("Saved " + splits.size() + " splits to " + cacheFile);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.AmazonWebServiceResponse;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.ResponseMetadata;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.QueryStringSigner;
+import com.amazonaws.http.DefaultErrorResponseHandler;
+import com.amazonaws.http.ExecutionContext;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.http.HttpResponseHandler;
+import com.amazonaws.services.simpledb.AmazonSimpleDBClient;
+import com.amazonaws.services.simpledb.SimpleDBResponseMetadata;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.transform.SelectRequestMarshaller;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SimpleDB client that can decode Select responses with a SimpleDBSelectDecoder instead
+ * of the AWS SDK's object model. Requests are signed, sent, retried and their errors parsed
+ * by the SDK in exactly the same way as AmazonSimpleDBClient.select(), only the successful
+ * response body is handed to the decoder. All other requests go through the normal client.
+ * 
+ * The response metadata is cached the same way as the SDK's, so getCachedResponseMetadata()
+ * returns the request ID and box usage of streamed Selects too.
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBStreamingClient extends AmazonSimpleDBClient {
+    
+    // One decoder per thread, as they reuse buffers
+    private static final ThreadLocal<SimpleDBSelectDecoder> DECODERS = new ThreadLocal<SimpleDBSelectDecoder>() {
+        @Override
+        protected SimpleDBSelectDecoder initialValue() {
+            return new SimpleDBSelectDecoder();
+        }
+    };
+    
+    // AWS Credentials to sign requests with
+    private final AWSCredentials credentials;
+    
+    // Signer for SimpleDB's query string signatures
+    private final QueryStringSigner signer = new QueryStringSigner();
+
+    /**
+     * Default Constructor
+     * 
+     * @param credentials   The AWS Credentials
+     * @param config        The client configuration
+     */
+    public SimpleDBStreamingClient(AWSCredentials credentials, ClientConfiguration config) {
+        super(credentials, config);
+        this.credentials = credentials;
+    }
+    
+    /**
+     * Runs a Select request, decoding the response straight into a page
+     * 
+     * @param selectRequest     The Select request
+     * @param page              The page to decode the results into
+     */
+    public void select(SelectRequest selectRequest, final SimpleDBSelectPage page) {
+        
+        Request<SelectRequest> request = new SelectRequestMarshaller().marshall(selectRequest);
+        request.setEndpoint(endpoint);
+        
+        ExecutionContext context = createExecutionContext();
+        context.setSigner(signer);
+        context.setCredentials(credentials);
+        
+        client.execute(request, new HttpResponseHandler<AmazonWebServiceResponse<Object>>() {
+            
+            public AmazonWebServiceResponse<Object> handle(HttpResponse response) throws Exception {
+                
+                DECODERS.get().decode(response.getContent(), page);
+                
+                Map<String, String> metadata = new HashMap<String, String>();
+                metadata.put(ResponseMetadata.AWS_REQUEST_ID, page.getRequestId());
+                if (page.getBoxUsage() != null) {
+                    metadata.put(SimpleDBResponseMetadata.BOX_USAGE, page.getBoxUsage());
+                }
+                
+                AmazonWebServiceResponse<Object> awsResponse = new AmazonWebServiceResponse<Object>();
+                awsResponse.setResponseMetadata(new SimpleDBResponseMetadata(metadata));
+                return awsResponse;
+            }
+            
+            public boolean needsConnectionLeftOpen() {
+                return false;
+            }
+            
+        }, new DefaultErrorResponseHandler(exceptionUnmarshallers), context);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Sets Texts to strings or character arrays by UTF-8 encoding them into a reusable buffer,
+ * so the Text's own byte array is reused when it is big enough. Text.set(String) allocates
+ * a new byte array every time. Unpaired surrogates are replaced with '?', the same as
+ * Text.set(String).
+ * 
+ * Not thread safe, use one encoder per thread.
+ * 
+ * @author David Gildeh
+ */
+public class SimpleDBTextEncoder {
+    
+    // Reusable buffer to UTF-8 encode into
+    private byte[] buffer = new byte[256];
+    
+    /**
+     * Sets a Text to a string
+     * 
+     * @param text      The Text to set
+     * @param s         The string to set it to
+     */
+    public void set(Text text, String s) {
+        
+        int length = s.length();
+        ensureCapacity(length);
+        
+        int pos = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+            } else {
+                char next = (i + 1 < length) ? s.charAt(i + 1) : 0;
+                int encoded = encode(c, next, pos);
+                pos += encoded & 0xFF;
+                i += encoded >> 8;
+            }
+        }
+        
+        text.set(buffer, 0, pos);
+    }
+    
+    /**
+     * Sets a Text to characters in an array
+     * 
+     * @param text      The Text to set
+     * @param chars     The array of characters
+     * @param offset    The offset of the first character to set
+     * @param length    The number of characters to set
+     */
+    public void set(Text text, char[] chars, int offset, int length) {
+        
+        ensureCapacity(length);
+        
+        int pos = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+            } else {
+                char next = (i + 1 < end) ? chars[i + 1] : 0;
+                int encoded = encode(c, next, pos);
+                pos += encoded & 0xFF;
+                i += encoded >> 8;
+            }
+        }
+        
+        text.set(buffer, 0, pos);
+    }
+    
+    /**
+     * Grows the buffer to fit the UTF-8 encoding of a number of characters
+     * 
+     * @param length    The number of characters
+     */
+    private void ensureCapacity(int length) {
+        
+        if (buffer.length < length * 3) {
+            buffer = new byte[length * 3];
+        }
+    }
+    
+    /**
+     * Encodes a non-ASCII character into the buffer
+     * 
+     * @param c         The character to encode
+     * @param next      The character after it, or 0 if none, used if c is a high surrogate
+     * @param pos       The position in the buffer to encode to
+     * @return          The number of bytes written, plus 256 if next was used as well
+     */
+    private int encode(char c, char next, int pos) {
+        
+        if (c < 0x800) {
+            buffer[pos] = (byte) (0xC0 | (c >> 6));
+            buffer[pos + 1] = (byte) (0x80 | (c & 0x3F));
+            return 2;
+        } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+            int codePoint = Character.toCodePoint(c, next);
+            buffer[pos] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[pos + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[pos + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[pos + 3] = (byte) (0x80 | (codePoint & 0x3F));
+            return 256 + 4;
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            buffer[pos] = (byte) '?';
+            return 1;
+        } else {
+            buffer[pos] = (byte) (0xE0 | (c >> 12));
+            buffer[pos + 1] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[pos + 2] = (byte) (0x80 | (c & 0x3F));
+            return 3;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 David Gildeh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.util.SimpleDBUtils;
+import java.io.IOException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Watermark of an incremental scan, saved on HDFS, so each run of a job only reads the items
+ * modified since the last successful run instead of rescanning the whole domain.
+ *
+ * Incremental scans are keyed on a modification time attribute, which must be written in a
+ * format that sorts lexicographically, such as zero-padded epoch millis or ISO 8601 in UTC.
+ * When the splits are planned, the highest value of the attribute above the committed
+ * watermark is found, and every split reads the items with watermark < attribute <= high
+ * watermark. The high watermark is saved as pending, and only becomes the committed watermark
+ * when the job's driver calls commit() after the job succeeds. If the job fails, the next run
+ * reads the same items again, along with any new ones.
+ *
+ * There is one watermark per domain and where query, so sharded domains and named queries
+ * each keep their own. Use a separate simpledb.incremental.dir for each job, as planning
+ * discards any pending watermarks left in the directory by a failed run. Items written with
+ * a modification time at or below the committed watermark after it was committed, e.g. by
+ * writers with slow clocks, are not read.
+ *
+ * Usage:
+ *
+ * RunningJob job = JobClient.runJob(jobConf);
+ * if (job.isSuccessful()) {
+ *     SimpleDBWatermark.commit(jobConf);
+ * }
+ *
+ * Configuration:
+ *
+ * - simpledb.incremental.attribute: Modification time attribute to scan incrementally by.
+ *                                   Incremental scans are only enabled when this is set
+ * - simpledb.incremental.dir: Directory on HDFS to save the watermarks in
+ *
+ * @author David Gildeh
+ */
+public class SimpleDBWatermark {
+
+    // Log4J Logger
+    private static final Log LOG = LogFactory.getLog(SimpleDBWatermark.class);
+
+    // Configuration Name Constants
+    public static final String SIMPLEDB_INCREMENTAL_ATTRIBUTE = "simpledb.incremental.attribute";
+    public static final String SIMPLEDB_INCREMENTAL_DIR = "simpledb.incremental.dir";
+
+    // Suffix of watermarks waiting for the job to succeed
+    private static final String PENDING_SUFFIX = ".pending";
+
+    private final JobConf jobConf;
+    private final String attribute;
+    private final Path watermarkFile;
+    private final Path pendingFile;
+
+    /**
+     * Default Constructor
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @param domain        The domain scanned
+     * @param whereQuery    The where query of the scan, or null if there is none
+     * @throws IOException  If simpledb.incremental.dir isn't set
+     */
+    public SimpleDBWatermark(JobConf jobConf, String domain, String whereQuery) throws IOException {
+        this.jobConf = jobConf;
+        this.attribute = jobConf.get(SIMPLEDB_INCREMENTAL_ATTRIBUTE);
+        this.watermarkFile = new Path(getDir(jobConf), domain + "-" + MD5Hash.digest(attribute + "|" + whereQuery).toString());
+        this.pendingFile = watermarkFile.suffix(PENDING_SUFFIX);
+    }
+
+    /**
+     * Check if incremental scans are enabled in the Job Configuration
+     *
+     * @param jobConf   Hadoop Job Configuration
+     * @return          True if simpledb.incremental.attribute is set
+     */
+    public static boolean isEnabled(JobConf jobConf) {
+        return jobConf.get(SIMPLEDB_INCREMENTAL_ATTRIBUTE) != null;
+    }
+
+    /**
+     * Gets the directory the watermarks are saved in
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @return              The watermark directory
+     * @throws IOException  If simpledb.incremental.dir isn't set
+     */
+    private static Path getDir(JobConf jobConf) throws IOException {
+
+        String dir = jobConf.get(SIMPLEDB_INCREMENTAL_DIR);
+        if (dir == null) {
+            throw new IOException(SIMPLEDB_INCREMENTAL_DIR + " must be set for incremental scans");
+        }
+        return new Path(dir);
+    }
+
+    /**
+     * Loads the committed watermark
+     *
+     * @return              The watermark, or null if no run has been committed yet
+     * @throws IOException
+     */
+    public String load() throws IOException {
+
+        FileSystem fs = watermarkFile.getFileSystem(jobConf);
+        if (!fs.exists(watermarkFile)) {
+            LOG.info("No watermark at " + watermarkFile + ", scanning every item with " + attribute);
+            return null;
+        }
+
+        FSDataInputStream in = fs.open(watermarkFile);
+        try {
+            String watermark = in.readUTF();
+            LOG.info("Scanning items with " + attribute + " after watermark " + watermark);
+            return watermark;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the high watermark of the scan as pending until the job succeeds
+     *
+     * @param watermark     The highest value of the attribute the scan reads
+     * @throws IOException
+     */
+    public void savePending(String watermark) throws IOException {
+
+        FSDataOutputStream out = pendingFile.getFileSystem(jobConf).create(pendingFile, true);
+        try {
+            out.writeUTF(watermark);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Limits a scan of the DAO's domain and where query to the items modified between the
+     * committed watermark and the highest value of the attribute, and saves that value as the
+     * pending watermark
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @param sdb           The DAO planning the scan, its where query is replaced
+     * @return              The condition limiting the scan, or null if no items were modified
+     *                      after the committed watermark
+     * @throws IOException
+     */
+    public static String plan(JobConf jobConf, SimpleDBDAO sdb) throws IOException {
+
+        String attribute = jobConf.get(SIMPLEDB_INCREMENTAL_ATTRIBUTE);
+        String whereQuery = sdb.getWhereQuery();
+        SimpleDBWatermark watermark = new SimpleDBWatermark(jobConf, sdb.getDomain(), whereQuery);
+        String low = watermark.load();
+
+        sdb.setWhereQuery(SimpleDBDAO.andWhere(whereQuery, getCondition(attribute, low)));
+        String high = sdb.getMaxValue(attribute);
+        if (high == null) {
+            LOG.info("No items modified after watermark " + low + " in " + sdb.getDomain());
+            sdb.setWhereQuery(whereQuery);
+            return null;
+        }
+
+        String filter = getCondition(attribute, low, high);
+        sdb.setWhereQuery(SimpleDBDAO.andWhere(whereQuery, filter));
+        watermark.savePending(high);
+        return filter;
+    }
+
+    /**
+     * Gets the condition that selects the items after a watermark, which also lets the
+     * items be sorted by the attribute
+     *
+     * @param attribute     The modification time attribute
+     * @param low           The committed watermark, or null for every item with the attribute
+     * @return              The condition
+     */
+    public static String getCondition(String attribute, String low) {
+
+        String name = SimpleDBUtils.quoteName(attribute);
+        return (low != null) ? name + " > " + SimpleDBUtils.quoteValue(low) : name + " IS NOT NULL";
+    }
+
+    /**
+     * Gets the condition that selects the items after a watermark up to the high watermark
+     *
+     * @param attribute     The modification time attribute
+     * @param low           The committed watermark, or null for every item with the attribute
+     * @param high          The high watermark
+     * @return              The condition
+     */
+    public static String getCondition(String attribute, String low, String high) {
+
+        String name = SimpleDBUtils.quoteName(attribute);
+        String upper = name + " <= " + SimpleDBUtils.quoteValue(high);
+        return (low != null) ? name + " > " + SimpleDBUtils.quoteValue(low) + " AND " + upper : upper;
+    }
+
+    /**
+     * Commits the pending high watermarks of every scan in the job, so the next run only
+     * reads items modified after them. Call once the job has succeeded
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @throws IOException
+     */
+    public static void commit(JobConf jobConf) throws IOException {
+
+        Path dir = getDir(jobConf);
+        FileSystem fs = dir.getFileSystem(jobConf);
+        FileStatus[] files = fs.listStatus(dir);
+        if (files == null) {
+            return;
+        }
+
+        for (FileStatus file : files) {
+            String name = file.getPath().getName();
+            if (name.endsWith(PENDING_SUFFIX)) {
+                Path watermarkFile = new Path(dir, name.substring(0, name.length() - PENDING_SUFFIX.length()));
+                fs.delete(watermarkFile, false);
+                if (!fs.rename(file.getPath(), watermarkFile)) {
+                    throw new IOException("Failed to commit watermark " + file.getPath());
+                }
+                LOG.info("Committed watermark " + watermarkFile);
+            }
+        }
+    }
+
+    /**
+     * Discards the pending high watermarks of a failed job, so the next run reads the same
+     * items again. Optional, as the next run replaces the pending watermarks anyway
+     *
+     * @param jobConf       Hadoop Job Configuration
+     * @throws IOException
+     */
+    public static void abort(JobConf jobConf) throws IOException {
+
+        Path dir = getDir(jobConf);
+        FileSystem fs = dir.getFileSystem(jobConf);
+        FileStatus[] files = fs.listStatus(dir);
+        if (files == null) {
+            return;
+        }
+
+        for (FileStatus file : files) {
+            if (file.getPath().getName().endsWith(PENDING_SUFFIX)) {
+                fs.delete(file.getPath(), false);
+            }
+        }
+    }
+}
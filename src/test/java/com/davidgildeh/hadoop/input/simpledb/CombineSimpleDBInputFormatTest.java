@@ -0,0 +1,94 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for CombineSimpleDBInputFormat.
+ */
+public class CombineSimpleDBInputFormatTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public CombineSimpleDBInputFormatTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( CombineSimpleDBInputFormatTest.class );
+    }
+
+    private List<SimpleDBInputSplit> createSplits( long... rows )
+    {
+        List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
+        long start = 0;
+        for (long count : rows) {
+            SimpleDBInputSplit split = new SimpleDBInputSplit( start, start + count, "token" + start );
+            split.setItemBytes( 100 );
+            splits.add( split );
+            start += count;
+        }
+        return splits;
+    }
+
+    /**
+     * Splits are packed in order until the next one would go over the budget
+     */
+    public void testCombineByRows()
+    {
+        List<CombineSimpleDBInputSplit> combined = CombineSimpleDBInputFormat.combine(
+                createSplits( 100, 100, 100, 250, 50, 100 ), 300, Long.MAX_VALUE );
+        
+        assertEquals( 3, combined.size() );
+        assertEquals( 3, combined.get( 0 ).getSplits().size() );
+        assertEquals( 300, combined.get( 0 ).getRowCount() );
+        assertEquals( 300, combined.get( 1 ).getRowCount() );
+        assertEquals( 100, combined.get( 2 ).getRowCount() );
+        assertEquals( 100 * 100, combined.get( 2 ).getLength() );
+    }
+
+    /**
+     * A split over the budget gets a combined split of its own
+     */
+    public void testCombineOversizedSplit()
+    {
+        List<CombineSimpleDBInputSplit> combined = CombineSimpleDBInputFormat.combine(
+                createSplits( 10, 1000, 10 ), Long.MAX_VALUE, 5000 );
+        
+        assertEquals( 3, combined.size() );
+        assertEquals( 1000, combined.get( 1 ).getRowCount() );
+    }
+
+    /**
+     * Combined splits serialise all their sub-splits
+     */
+    public void testWritable() throws Exception
+    {
+        CombineSimpleDBInputSplit split = new CombineSimpleDBInputSplit( createSplits( 10, 20 ) );
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        split.write( new DataOutputStream( bytes ) );
+        
+        CombineSimpleDBInputSplit copy = new CombineSimpleDBInputSplit();
+        copy.readFields( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+        
+        assertEquals( 2, copy.getSplits().size() );
+        assertEquals( "token10", copy.getSplits().get( 1 ).getSplitToken() );
+        assertEquals( split.getLength(), copy.getLength() );
+    }
+}
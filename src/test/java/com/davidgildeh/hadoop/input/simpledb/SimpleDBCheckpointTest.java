@@ -0,0 +1,208 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Unit test for SimpleDBCheckpoint on the local FileSystem.
+ */
+public class SimpleDBCheckpointTest 
+    extends TestCase
+{
+    private File dir;
+    private JobConf jobConf;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBCheckpointTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBCheckpointTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = File.createTempFile( "checkpoints", "" );
+        dir.delete();
+        jobConf = new JobConf();
+        jobConf.set( SimpleDBCheckpoint.SIMPLEDB_READER_CHECKPOINT_DIR, dir.toURI().toString() );
+        jobConf.set( "mapred.job.id", "job_201301010000_0001" );
+        jobConf.set( "mapred.tip.id", "task_201301010000_0001_m_000003" );
+        jobConf.set( "mapred.task.id", "attempt_201301010000_0001_m_000003_0" );
+        jobConf.setMapSpeculativeExecution( false );
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        FileUtil.fullyDelete( dir );
+    }
+
+    /**
+     * Speculative attempts would resume from checkpoints the original attempt is still writing
+     */
+    public void testDisabledWhileSpeculative()
+    {
+        assertTrue( SimpleDBCheckpoint.isEnabled( jobConf ) );
+        
+        jobConf.setMapSpeculativeExecution( true );
+        assertFalse( SimpleDBCheckpoint.isEnabled( jobConf ) );
+        
+        JobConf noDir = new JobConf( false );
+        noDir.setMapSpeculativeExecution( false );
+        assertFalse( SimpleDBCheckpoint.isEnabled( noDir ) );
+    }
+
+    /**
+     * A retried attempt of the task resumes from the checkpoint saved by the failed attempt
+     */
+    public void testSaveAndResume() throws IOException
+    {
+        SimpleDBInputSplit split = new SimpleDBInputSplit( 0, 5000, "token0" );
+        SimpleDBCheckpoint failed = new SimpleDBCheckpoint( jobConf, split );
+        assertFalse( failed.load() );
+        
+        failed.save( "token1", 2500 );
+        failed.save( "token2", 5000 );
+        
+        SimpleDBCheckpoint retried = new SimpleDBCheckpoint( jobConf, split );
+        assertTrue( retried.load() );
+        assertEquals( "token2", retried.getNextToken() );
+        assertEquals( 5000, retried.getRows() );
+        
+        retried.delete();
+        assertFalse( new SimpleDBCheckpoint( jobConf, split ).load() );
+    }
+
+    /**
+     * A checkpoint is never applied to a different split
+     */
+    public void testDifferentSplit() throws IOException
+    {
+        SimpleDBInputSplit split = new SimpleDBInputSplit( 0, 5000, "token0" );
+        SimpleDBInputSplit other = new SimpleDBInputSplit( 5000, 10000, "token2" );
+        SimpleDBCheckpoint checkpoint = new SimpleDBCheckpoint( jobConf, split );
+        checkpoint.save( "token1", 2500 );
+        
+        SimpleDBCheckpoint otherCheckpoint = new SimpleDBCheckpoint( jobConf, other );
+        assertFalse( otherCheckpoint.load() );
+        
+        // Even if the other split's file holds this split's checkpoint
+        FileSystem fs = checkpoint.getFile().getFileSystem( jobConf );
+        FileUtil.copy( fs, checkpoint.getFile(), fs, otherCheckpoint.getFile(), false, jobConf );
+        assertFalse( otherCheckpoint.load() );
+        assertNull( otherCheckpoint.getNextToken() );
+    }
+
+    /**
+     * Corrupt checkpoints are ignored and the split is read from the start
+     */
+    public void testCorruptCheckpoint() throws IOException
+    {
+        SimpleDBInputSplit split = new SimpleDBInputSplit( 0, 5000, "token0" );
+        SimpleDBCheckpoint checkpoint = new SimpleDBCheckpoint( jobConf, split );
+        
+        FSDataOutputStream out = checkpoint.getFile().getFileSystem( jobConf ).create( checkpoint.getFile(), true );
+        out.writeInt( 1 );
+        out.close();
+        
+        assertFalse( checkpoint.load() );
+        assertEquals( 0, checkpoint.getRows() );
+    }
+
+    /**
+     * A finished split's checkpoint is replaced by a completed marker
+     */
+    public void testCompletedMarker() throws IOException
+    {
+        SimpleDBInputSplit split = new SimpleDBInputSplit( 0, 5000, "token0" );
+        SimpleDBCheckpoint checkpoint = new SimpleDBCheckpoint( jobConf, split );
+        checkpoint.save( "token1", 2500 );
+        checkpoint.complete( 5012 );
+        
+        SimpleDBCheckpoint retried = new SimpleDBCheckpoint( jobConf, split );
+        assertTrue( retried.load() );
+        assertTrue( retried.isCompleted() );
+        assertNull( retried.getNextToken() );
+        assertEquals( 5012, retried.getRows() );
+    }
+
+    /**
+     * A retried attempt of a combined split skips the sub-splits the failed attempt finished
+     */
+    public void testCombinedSkipsCompleted() throws IOException
+    {
+        List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
+        splits.add( new SimpleDBInputSplit( 0, 100, "token0" ) );
+        splits.add( new SimpleDBInputSplit( 100, 300, "token1" ) );
+        new SimpleDBCheckpoint( jobConf, splits.get( 0 ) ).complete( 100 );
+        new SimpleDBCheckpoint( jobConf, splits.get( 1 ) ).complete( 200 );
+        
+        // Every sub-split is completed, so SimpleDB is never queried
+        CombineSimpleDBRecordReader reader = new CombineSimpleDBRecordReader( 
+                new CombineSimpleDBInputSplit( splits ), jobConf, Reporter.NULL );
+        assertFalse( reader.next( reader.createKey(), reader.createValue() ) );
+        assertEquals( 300, reader.getPos() );
+        assertEquals( 1.0f, reader.getProgress(), 0.0001f );
+        reader.close();
+    }
+
+    /**
+     * A speculative attempt of a combined split reads every sub-split, even completed ones
+     */
+    public void testCombinedSpeculativeIgnoresCompleted() throws IOException
+    {
+        List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
+        splits.add( new SimpleDBInputSplit( 0, 100, "token0" ) );
+        new SimpleDBCheckpoint( jobConf, splits.get( 0 ) ).complete( 100 );
+        
+        // Point the reader at a closed port, so opening the sub-split fails instead of skipping it
+        jobConf.setMapSpeculativeExecution( true );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_ACCESSKEY, "accessKey" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_SECRETKEY, "secretKey" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_REGION, "http://127.0.0.1:1" );
+        jobConf.setInt( SimpleDBDAO.SIMPLEDB_RETRY_MAX, 0 );
+        try {
+            new CombineSimpleDBRecordReader( new CombineSimpleDBInputSplit( splits ), jobConf, Reporter.NULL );
+            fail( "Skipped a completed sub-split while speculative" );
+        } catch (RuntimeException e) {
+            // Tried to read the sub-split from SimpleDB
+        }
+    }
+
+    /**
+     * Cleaning up after the job deletes the checkpoints its failed tasks left behind
+     */
+    public void testCleanup() throws IOException
+    {
+        SimpleDBCheckpoint checkpoint = new SimpleDBCheckpoint( jobConf, new SimpleDBInputSplit( 0, 5000, "token0" ) );
+        checkpoint.save( "token1", 2500 );
+        
+        SimpleDBCheckpoint.cleanup( jobConf, "job_201301010000_0001" );
+        FileSystem fs = checkpoint.getFile().getFileSystem( jobConf );
+        assertFalse( fs.exists( checkpoint.getFile() ) );
+        assertFalse( fs.exists( checkpoint.getFile().getParent() ) );
+    }
+}
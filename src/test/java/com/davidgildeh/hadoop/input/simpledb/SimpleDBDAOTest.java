@@ -0,0 +1,81 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.AmazonServiceException;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Unit test for the retries of SimpleDBDAO.
+ */
+public class SimpleDBDAOTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBDAOTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBDAOTest.class );
+    }
+
+    private static AmazonServiceException error( int statusCode, String errorCode )
+    {
+        AmazonServiceException ase = new AmazonServiceException( errorCode );
+        ase.setStatusCode( statusCode );
+        ase.setErrorCode( errorCode );
+        return ase;
+    }
+
+    /**
+     * Throttling and server errors are retried, client errors aren't
+     */
+    public void testRetryableErrors()
+    {
+        assertTrue( SimpleDBDAO.isThrottled( error( 503, "ServiceUnavailable" ) ) );
+        assertTrue( SimpleDBDAO.isThrottled( error( 400, "ServiceUnavailable" ) ) );
+        assertFalse( SimpleDBDAO.isThrottled( error( 500, "InternalError" ) ) );
+        
+        assertTrue( SimpleDBDAO.isRetryable( error( 500, "InternalError" ) ) );
+        assertTrue( SimpleDBDAO.isRetryable( error( 408, "RequestTimeout" ) ) );
+        assertFalse( SimpleDBDAO.isRetryable( error( 400, "InvalidQueryExpression" ) ) );
+        assertFalse( SimpleDBDAO.isRetryable( error( 400, "NoSuchDomain" ) ) );
+        assertFalse( SimpleDBDAO.isRetryable( error( 403, "AuthFailure" ) ) );
+    }
+
+    /**
+     * Backoff delays grow exponentially up to the maximum, without overflowing
+     */
+    public void testBackoffDelay()
+    {
+        assertEquals( 0, SimpleDBDAO.getBackoffDelay( 0, 100, 20000, 0.0 ) );
+        assertEquals( 50, SimpleDBDAO.getBackoffDelay( 0, 100, 20000, 0.5 ) );
+        assertEquals( 400, SimpleDBDAO.getBackoffDelay( 3, 100, 20000, 0.5 ) );
+        assertEquals( 10000, SimpleDBDAO.getBackoffDelay( 10, 100, 20000, 0.5 ) );
+        assertEquals( 10000, SimpleDBDAO.getBackoffDelay( 100, 100, 20000, 0.5 ) );
+        assertTrue( SimpleDBDAO.getBackoffDelay( 100, 100, 20000, 0.999 ) < 20000 );
+    }
+
+    /**
+     * The AWS SDK doesn't retry underneath the DAO's retries unless asked to
+     */
+    public void testClientDoesNotRetry()
+    {
+        JobConf jobConf = new JobConf( false );
+        assertEquals( 0, SimpleDBClientRegistry.getClientConfiguration( jobConf ).getMaxErrorRetry() );
+        
+        jobConf.setInt( SimpleDBClientRegistry.SIMPLEDB_CLIENT_MAX_RETRIES, 2 );
+        assertEquals( 2, SimpleDBClientRegistry.getClientConfiguration( jobConf ).getMaxErrorRetry() );
+    }
+}
@@ -0,0 +1,115 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Unit test for SimpleDBItemWritable.
+ */
+public class SimpleDBItemWritableTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBItemWritableTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBItemWritableTest.class );
+    }
+
+    private static Configuration getConf()
+    {
+        Configuration conf = new Configuration( false );
+        conf.set( SimpleDBItemWritable.SIMPLEDB_ITEM_DICTIONARY, "name, email" );
+        return conf;
+    }
+
+    private static SimpleDBItemWritable createItem( String itemName )
+    {
+        SimpleDBItemWritable item = new SimpleDBItemWritable( getConf() );
+        item.set( new Item( itemName, Arrays.asList( new Attribute( "name", "Alice" ), 
+                new Attribute( "tag", "a" ), new Attribute( "email", "alice@example.com" ), 
+                new Attribute( "tag", "b" ) ) ) );
+        return item;
+    }
+
+    private static byte[] serialise( Writable writable ) throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        writable.write( out );
+        return Arrays.copyOf( out.getData(), out.getLength() );
+    }
+
+    /**
+     * Items with dictionary and other attribute names and multiple values survive a round trip
+     */
+    public void testRoundTrip() throws IOException
+    {
+        SimpleDBItemWritable item = createItem( "item1" );
+        assertEquals( Arrays.asList( "a", "b" ), item.getValues( "tag" ) );
+        
+        byte[] bytes = serialise( item );
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset( bytes, bytes.length );
+        SimpleDBItemWritable copy = new SimpleDBItemWritable( getConf() );
+        copy.readFields( in );
+        
+        assertEquals( item, copy );
+        assertEquals( "Alice", copy.getValue( "name" ) );
+        assertEquals( Arrays.asList( "a", "b" ), copy.getValues( "tag" ) );
+    }
+
+    /**
+     * The item is smaller than the same attributes in a MapWritable
+     */
+    public void testSmallerThanMapWritable() throws IOException
+    {
+        MapWritable map = new MapWritable();
+        map.put( new Text( "name" ), new Text( "Alice" ) );
+        map.put( new Text( "email" ), new Text( "alice@example.com" ) );
+        map.put( new Text( "tag" ), new Text( "b" ) );
+        
+        assertTrue( serialise( createItem( "item1" ) ).length < serialise( map ).length );
+    }
+
+    /**
+     * The RawComparator orders serialised items the same as compareTo
+     */
+    public void testRawComparator() throws IOException
+    {
+        WritableComparator comparator = WritableComparator.get( SimpleDBItemWritable.class );
+        String[] names = { "a", "ab", "b", "é", "￿", "😀" };
+        
+        for (String name1 : names) {
+            for (String name2 : names) {
+                byte[] b1 = serialise( createItem( name1 ) );
+                byte[] b2 = serialise( createItem( name2 ) );
+                int expected = Integer.signum( createItem( name1 ).compareTo( createItem( name2 ) ) );
+                assertEquals( name1 + " vs " + name2, expected, 
+                        Integer.signum( comparator.compare( b1, 0, b1.length, b2, 0, b2.length ) ) );
+            }
+        }
+    }
+}
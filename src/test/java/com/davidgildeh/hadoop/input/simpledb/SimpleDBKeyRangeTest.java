@@ -0,0 +1,89 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for SimpleDBKeyRange.
+ */
+public class SimpleDBKeyRangeTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBKeyRangeTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBKeyRangeTest.class );
+    }
+
+    /**
+     * The midpoint is always greater than lo and no greater than hi
+     */
+    public void testMidpointIsBetween()
+    {
+        String[][] pairs = {
+            { "a", "b" }, { "a", "z" }, { "", "a" }, { "abc", "abd" }, { "ab", "abc" },
+            { "item-0000001", "item-9999999" }, { "user-100", "user-1000" }, { "xÿ", "y" },
+            { "a", "a\u0000" }
+        };
+        
+        for (String[] pair : pairs) {
+            String mid = SimpleDBKeyRange.midpoint(pair[0], pair[1]);
+            assertTrue( mid + " > " + pair[0], pair[0].compareTo( mid ) < 0 );
+            assertTrue( mid + " <= " + pair[1], mid.compareTo( pair[1] ) <= 0 );
+        }
+    }
+
+    /**
+     * Keys sharing a prefix and using a small alphabet are divided near the middle
+     */
+    public void testMidpointDividesSharedPrefix()
+    {
+        String mid = SimpleDBKeyRange.midpoint( "item-0000000", "item-9999999" );
+        assertTrue( mid, mid.startsWith( "item-4" ) || mid.startsWith( "item-5" ) );
+    }
+
+    /**
+     * Dividing returns strictly increasing boundaries between lo and hi
+     */
+    public void testDivide()
+    {
+        List<String> boundaries = SimpleDBKeyRange.divide( "item-0000", "item-9999", 10 );
+        assertEquals( 9, boundaries.size() );
+        
+        String previous = "item-0000";
+        for (String boundary : boundaries) {
+            assertTrue( boundary + " > " + previous, previous.compareTo( boundary ) < 0 );
+            previous = boundary;
+        }
+        assertTrue( previous.compareTo( "item-9999" ) <= 0 );
+        
+        assertTrue( SimpleDBKeyRange.divide( "a", "a\u0000", 4 ).size() <= 1 );
+    }
+
+    /**
+     * Ranges are turned into where clauses with quoted bounds
+     */
+    public void testWhereClause()
+    {
+        assertEquals( "itemName() IS NOT NULL",
+                new SimpleDBKeyRange( SimpleDBKeyRange.ITEM_NAME, null, null ).getWhereClause() );
+        assertEquals( "itemName() >= 'a' AND itemName() < 'b''s'",
+                new SimpleDBKeyRange( SimpleDBKeyRange.ITEM_NAME, "a", "b's" ).getWhereClause() );
+        assertEquals( "`time` < '0100'",
+                new SimpleDBKeyRange( "`time`", null, "0100" ).getWhereClause() );
+    }
+}
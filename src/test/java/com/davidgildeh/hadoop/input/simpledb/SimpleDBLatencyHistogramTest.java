@@ -0,0 +1,65 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for SimpleDBLatencyHistogram.
+ */
+public class SimpleDBLatencyHistogramTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBLatencyHistogramTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBLatencyHistogramTest.class );
+    }
+
+    /**
+     * An empty histogram reports 0 for every percentile
+     */
+    public void testEmpty()
+    {
+        SimpleDBLatencyHistogram histogram = new SimpleDBLatencyHistogram();
+        assertEquals( 0, histogram.getCount() );
+        assertEquals( 0, histogram.getPercentile( 50 ) );
+        assertEquals( 0, histogram.getPercentile( 99 ) );
+    }
+
+    /**
+     * Percentiles are reported as the upper bound of the bucket they fall in
+     */
+    public void testPercentiles()
+    {
+        SimpleDBLatencyHistogram histogram = new SimpleDBLatencyHistogram();
+        
+        // 90 fast requests, 8 slower ones and 2 very slow ones
+        for (int i = 0; i < 90; i++) {
+            histogram.record( 40 );
+        }
+        for (int i = 0; i < 8; i++) {
+            histogram.record( 450 );
+        }
+        histogram.record( 4000 );
+        histogram.record( 60000 );
+        
+        assertEquals( 100, histogram.getCount() );
+        assertEquals( 50, histogram.getPercentile( 50 ) );
+        assertEquals( 500, histogram.getPercentile( 95 ) );
+        assertEquals( 5000, histogram.getPercentile( 99 ) );
+        assertEquals( 20000, histogram.getPercentile( 100 ) );
+    }
+}
@@ -0,0 +1,127 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Unit test for SimpleDBPageSizer.
+ */
+public class SimpleDBPageSizerTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBPageSizerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBPageSizerTest.class );
+    }
+
+    /**
+     * The limit never asks for more rows than are left in the split
+     */
+    public void testLimitCappedByRemainingRows()
+    {
+        SimpleDBPageSizer sizer = new SimpleDBPageSizer( new JobConf( false ) );
+        assertEquals( SimpleDBDAO.MAX_SELECT_LIMIT, sizer.getLimit( Long.MAX_VALUE ) );
+        assertEquals( 17, sizer.getLimit( 17 ) );
+        assertEquals( 1, sizer.getLimit( 0 ) );
+    }
+
+    /**
+     * Truncated pages shrink the limit to what was returned, and wide items cap it by size
+     */
+    public void testLimitAdaptsToResponses()
+    {
+        SimpleDBPageSizer sizer = new SimpleDBPageSizer( new JobConf( false ) );
+        
+        // 400 items of 2KB came back before SimpleDB truncated the response
+        sizer.update( 2500, 400, 400 * 2000, true, 500, Reporter.NULL );
+        assertEquals( 400, sizer.getLimit( Long.MAX_VALUE ) );
+        
+        // Full fast pages grow the limit, but not past the target response size
+        for (int i = 0; i < 20; i++) {
+            int limit = sizer.getLimit( Long.MAX_VALUE );
+            sizer.update( limit, limit, limit * 2000L, true, 500, Reporter.NULL );
+        }
+        assertEquals( 450, sizer.getLimit( Long.MAX_VALUE ) );
+        
+        // Slow pages halve the limit
+        sizer.update( 450, 450, 450 * 2000L, true, 4000, Reporter.NULL );
+        assertEquals( 225, sizer.getLimit( Long.MAX_VALUE ) );
+    }
+
+    /**
+     * Empty and short pages cut off by the time limit on filtered scans keep the limit
+     */
+    public void testTimeCappedPagesKeepLimit()
+    {
+        SimpleDBPageSizer sizer = new SimpleDBPageSizer( new JobConf( false ) );
+        
+        sizer.update( 2500, 0, 0, true, 5000, Reporter.NULL );
+        assertEquals( SimpleDBDAO.MAX_SELECT_LIMIT, sizer.getLimit( Long.MAX_VALUE ) );
+        
+        sizer.update( 2500, 12, 12 * 200L, true, 5000, Reporter.NULL );
+        assertEquals( SimpleDBDAO.MAX_SELECT_LIMIT, sizer.getLimit( Long.MAX_VALUE ) );
+        
+        sizer.update( 2500, 40, 40 * 200L, true, 800, Reporter.NULL );
+        assertEquals( SimpleDBDAO.MAX_SELECT_LIMIT, sizer.getLimit( Long.MAX_VALUE ) );
+    }
+
+    /**
+     * Slow full pages halve the limit, but not below a sensible minimum
+     */
+    public void testSlowPagesMinimum()
+    {
+        SimpleDBPageSizer sizer = new SimpleDBPageSizer( new JobConf( false ) );
+        
+        for (int i = 0; i < 20; i++) {
+            int limit = sizer.getLimit( Long.MAX_VALUE );
+            sizer.update( limit, limit, limit * 100L, true, 4000, Reporter.NULL );
+        }
+        assertEquals( 100, sizer.getLimit( Long.MAX_VALUE ) );
+    }
+
+    /**
+     * Adaptive sizing can be turned off
+     */
+    public void testNotAdaptive()
+    {
+        JobConf jobConf = new JobConf( false );
+        jobConf.setBoolean( SimpleDBPageSizer.SIMPLEDB_READER_PAGE_ADAPTIVE, false );
+        SimpleDBPageSizer sizer = new SimpleDBPageSizer( jobConf );
+        
+        sizer.update( 2500, 10, 10 * 100000, true, 4000, Reporter.NULL );
+        assertEquals( SimpleDBDAO.MAX_SELECT_LIMIT, sizer.getLimit( Long.MAX_VALUE ) );
+    }
+
+    /**
+     * The item size is estimated from the DomainMetadata like page sizes are
+     */
+    public void testEstimateItemBytes()
+    {
+        DomainMetadataResult metadata = new DomainMetadataResult()
+                .withItemCount( 100 ).withItemNamesSizeBytes( 1000L )
+                .withAttributeNameCount( 5 ).withAttributeNamesSizeBytes( 50L )
+                .withAttributeValueCount( 500 ).withAttributeValuesSizeBytes( 10000L );
+        
+        // 30 + 10 bytes per item, plus 5 attributes of 60 + 10 + 20 bytes
+        assertEquals( 490, SimpleDBPageSizer.estimateItemBytes( metadata, false ) );
+        assertEquals( 40, SimpleDBPageSizer.estimateItemBytes( metadata, true ) );
+        assertEquals( 0, SimpleDBPageSizer.estimateItemBytes( new DomainMetadataResult().withItemCount( 0 ), false ) );
+    }
+}
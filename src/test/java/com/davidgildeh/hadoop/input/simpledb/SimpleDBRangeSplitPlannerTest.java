@@ -0,0 +1,222 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Unit test for SimpleDBRangeSplitPlanner, planning over a domain held in memory.
+ */
+public class SimpleDBRangeSplitPlannerTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBRangeSplitPlannerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBRangeSplitPlannerTest.class );
+    }
+
+    /**
+     * DAO over a sorted list of item names instead of SimpleDB. The selected item names are
+     * the ones the where query matches, and every range counted is recorded. Attribute ranges
+     * are counted over a separate list of attribute values
+     */
+    private static class InMemoryDAO extends SimpleDBDAO
+    {
+        private final List<String> itemNames;
+        private final Set<String> selected;
+        private final List<SimpleDBKeyRange> counted = Collections.synchronizedList( new ArrayList<SimpleDBKeyRange>() );
+        private List<String> attributeValues = new ArrayList<String>();
+
+        InMemoryDAO( List<String> itemNames, Set<String> selected )
+        {
+            super( createConf() );
+            this.itemNames = itemNames;
+            this.selected = selected;
+        }
+
+        private static JobConf createConf()
+        {
+            JobConf jobConf = new JobConf( false );
+            jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_ACCESSKEY, "accessKey" );
+            jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_SECRETKEY, "secretKey" );
+            jobConf.set( SimpleDBDAO.SIMPLEDB_DOMAIN, "users" );
+            jobConf.set( SimpleDBDAO.SIMPLEDB_WHERE_QUERY, "active = 'true'" );
+            return jobConf;
+        }
+
+        private static boolean inRange( SimpleDBKeyRange range, String itemName )
+        {
+            return (range.getLower() == null || itemName.compareTo( range.getLower() ) >= 0)
+                    && (range.getUpper() == null || itemName.compareTo( range.getUpper() ) < 0);
+        }
+
+        @Override
+        public long getCount( SimpleDBKeyRange range )
+        {
+            counted.add( range );
+            long count = 0;
+            Iterable<String> keys = range.getExpression().equals( SimpleDBKeyRange.ITEM_NAME ) ? selected : attributeValues;
+            for (String itemName : keys) {
+                if (inRange( range, itemName )) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public long getParallelCount( SimpleDBKeyRange range, int shards, int threads )
+        {
+            return getCount( range );
+        }
+
+        @Override
+        public String getBoundaryItemName( SimpleDBKeyRange range, boolean last )
+        {
+            String boundary = null;
+            for (String itemName : itemNames) {
+                if (selected.contains( itemName ) && inRange( range, itemName )) {
+                    if (boundary == null || last) {
+                        boundary = itemName;
+                    }
+                }
+            }
+            return boundary;
+        }
+
+        @Override
+        public List<String> getAllItemNames( SimpleDBKeyRange range, int limit )
+        {
+            List<String> names = new ArrayList<String>();
+            for (String itemName : itemNames) {
+                if (inRange( range, itemName ) && names.size() < Math.min( limit, SimpleDBDAO.MAX_SELECT_LIMIT )) {
+                    names.add( itemName );
+                }
+            }
+            return names;
+        }
+    }
+
+    private static List<String> itemNames( int count )
+    {
+        List<String> itemNames = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            itemNames.add( String.format( "item%04d", i ) );
+        }
+        return itemNames;
+    }
+
+    /**
+     * Sampled runs are bounded by the next sampled item name, so the where query's selectivity
+     * is counted exactly and no bound holds characters that aren't legal in XML
+     */
+    public void testEstimatedSelectivity() throws Exception
+    {
+        List<String> itemNames = itemNames( 1000 );
+        Set<String> selected = new HashSet<String>();
+        for (int i = 0; i < itemNames.size(); i += 2) {
+            selected.add( itemNames.get( i ) );
+        }
+        
+        InMemoryDAO sdb = new InMemoryDAO( itemNames, selected );
+        List<SimpleDBInputSplit> splits = new SimpleDBRangeSplitPlanner( sdb, 100, 4 )
+                .planEstimatedItemNameSplits( 1000, 4, 50 );
+        
+        // Half the sampled items are selected, so 500 rows are estimated in splits of 100
+        assertEquals( 5, splits.size() );
+        assertFalse( sdb.counted.isEmpty() );
+        for (SimpleDBKeyRange range : sdb.counted) {
+            assertTrue( range.getUpper() == null || range.getUpper().indexOf( '\u0000' ) < 0 );
+        }
+    }
+
+    /**
+     * Asserts the splits cover every key from lower to upper without gaps
+     */
+    private static void assertCovers( List<SimpleDBInputSplit> splits, String lower, String upper )
+    {
+        assertEquals( lower, splits.get( 0 ).getRange().getLower() );
+        for (int i = 1; i < splits.size(); i++) {
+            assertEquals( splits.get( i - 1 ).getRange().getUpper(), splits.get( i ).getRange().getLower() );
+        }
+        assertEquals( upper, splits.get( splits.size() - 1 ).getRange().getUpper() );
+    }
+
+    /**
+     * Item name splits cover every key, including the gaps between clusters of items
+     */
+    public void testItemNameSplitsCoverKeys() throws Exception
+    {
+        List<String> itemNames = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            itemNames.add( String.format( "a%04d", i ) );
+        }
+        for (int i = 0; i < 50; i++) {
+            itemNames.add( String.format( "z%04d", i ) );
+        }
+        
+        InMemoryDAO sdb = new InMemoryDAO( itemNames, new HashSet<String>( itemNames ) );
+        List<SimpleDBInputSplit> splits = new SimpleDBRangeSplitPlanner( sdb, 20, 4 ).planItemNameSplits();
+        
+        assertCovers( splits, null, null );
+        long rows = 0;
+        for (SimpleDBInputSplit split : splits) {
+            assertTrue( split.getRowCount() > 0 );
+            rows += split.getRowCount();
+        }
+        assertEquals( 100, rows );
+    }
+
+    /**
+     * Attribute buckets that are empty when planned are merged into their neighbours, so
+     * items written with values in them before the tasks run are still read
+     */
+    public void testEmptyBucketsMerged() throws Exception
+    {
+        InMemoryDAO sdb = new InMemoryDAO( itemNames( 100 ), new HashSet<String>() );
+        for (int i = 0; i < 50; i++) {
+            sdb.attributeValues.add( String.format( "%010d", 100 + i ) );
+            sdb.attributeValues.add( String.format( "%010d", 900 + i ) );
+        }
+        
+        List<SimpleDBInputSplit> splits = new SimpleDBRangeSplitPlanner( sdb, 100, 4 )
+                .planAttributeSplits( "time", "0000000000", "0000001000", 100 );
+        
+        assertEquals( 2, splits.size() );
+        assertCovers( splits, "0000000000", "0000001000" );
+        assertEquals( "0000000900", splits.get( 1 ).getRange().getLower() );
+        assertEquals( 50, splits.get( 0 ).getRowCount() );
+        assertEquals( 50, splits.get( 1 ).getRowCount() );
+    }
+
+    /**
+     * A domain with no selected items still plans one split over every key
+     */
+    public void testEmptyDomain() throws Exception
+    {
+        InMemoryDAO sdb = new InMemoryDAO( itemNames( 10 ), new HashSet<String>() );
+        List<SimpleDBInputSplit> splits = new SimpleDBRangeSplitPlanner( sdb, 20, 4 ).planItemNameSplits();
+        
+        assertEquals( 1, splits.size() );
+        assertCovers( splits, null, null );
+    }
+}
@@ -0,0 +1,85 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for SimpleDBRateLimiter.
+ */
+public class SimpleDBRateLimiterTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBRateLimiterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBRateLimiterTest.class );
+    }
+
+    /**
+     * Throttling halves the rate once per burst, and successes grow it back up to the maximum
+     */
+    public void testAimd()
+    {
+        SimpleDBRateLimiter limiter = new SimpleDBRateLimiter( 100, 1, 5, 0.5 );
+        assertEquals( 100.0, limiter.getRate(), 0.001 );
+        
+        limiter.onSuccess();
+        assertEquals( 100.0, limiter.getRate(), 0.001 );
+        
+        limiter.onThrottle();
+        assertEquals( 50.0, limiter.getRate(), 0.001 );
+        
+        // Requests sent at the old rate are throttled together, so only the first cuts the rate
+        limiter.onThrottle();
+        limiter.onThrottle();
+        assertEquals( 50.0, limiter.getRate(), 0.001 );
+        
+        // Each success adds increase / rate
+        limiter.onSuccess();
+        assertEquals( 50.1, limiter.getRate(), 0.001 );
+        for (int i = 0; i < 10000; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals( 100.0, limiter.getRate(), 0.001 );
+    }
+
+    /**
+     * The rate never drops below the minimum
+     */
+    public void testMinRate()
+    {
+        SimpleDBRateLimiter limiter = new SimpleDBRateLimiter( 100, 5, 5, 0.01 );
+        limiter.onThrottle();
+        assertEquals( 5.0, limiter.getRate(), 0.001 );
+    }
+
+    /**
+     * Permits are spaced out at the current rate
+     */
+    public void testAcquire() throws InterruptedException
+    {
+        SimpleDBRateLimiter limiter = new SimpleDBRateLimiter( 50, 1, 5, 0.5 );
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire();
+        }
+        long millis = (System.nanoTime() - start) / 1000000L;
+        
+        // The first permit is immediate, the next 5 are 20ms apart
+        assertTrue( "Took " + millis + "ms", millis >= 95 );
+    }
+}
@@ -0,0 +1,102 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Microbenchmark of the bytes allocated per record when converting SimpleDB Items into
+ * key/value records, comparing a new Text per attribute name and value against the
+ * SimpleDBRecordConverter reuse path. Run with:
+ *
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.davidgildeh.hadoop.input.simpledb.SimpleDBRecordConverterBenchmark
+ */
+public class SimpleDBRecordConverterBenchmark
+{
+    private static final int ATTRIBUTES = 50;
+    private static final int ITEMS = 1000;
+    private static final int ROUNDS = 200;
+
+    public static void main( String[] args )
+    {
+        List<Item> items = new ArrayList<Item>();
+        for (int i = 0; i < ITEMS; i++) {
+            List<Attribute> attributes = new ArrayList<Attribute>();
+            for (int j = 0; j < ATTRIBUTES; j++) {
+                // Leave out some attributes so stale attributes have to be removed
+                if ((i + j) % 7 != 0) {
+                    attributes.add( new Attribute( "attribute" + j, "value-" + i + "-" + j ) );
+                }
+            }
+            items.add( new Item( "item" + i, attributes ) );
+        }
+
+        // Warm up both paths before measuring
+        for (int i = 0; i < 20; i++) {
+            runAllocating( items );
+            runConverter( items );
+        }
+
+        long allocating = measure( items, false );
+        long reusing = measure( items, true );
+        long records = (long) ITEMS * ROUNDS;
+
+        System.out.println( "Items with up to " + ATTRIBUTES + " attributes, " + records + " records" );
+        System.out.println( "new Text per attribute: " + (allocating / records) + " bytes/record" );
+        System.out.println( "SimpleDBRecordConverter: " + (reusing / records) + " bytes/record" );
+    }
+
+    private static long measure( List<Item> items, boolean reuse )
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes( thread );
+        for (int i = 0; i < ROUNDS; i++) {
+            if (reuse) {
+                runConverter( items );
+            } else {
+                runAllocating( items );
+            }
+        }
+        return threads.getThreadAllocatedBytes( thread ) - before;
+    }
+
+    /**
+     * The conversion next() did before SimpleDBRecordConverter, clearing the value so the
+     * comparison is between correct records
+     */
+    private static int runAllocating( List<Item> items )
+    {
+        Text key = new Text();
+        MapWritable value = new MapWritable();
+        int size = 0;
+        for (Item item : items) {
+            key.set( item.getName() );
+            value.clear();
+            for (Attribute attribute : item.getAttributes()) {
+                value.put( new Text( attribute.getName() ), new Text( attribute.getValue() ) );
+            }
+            size += value.size();
+        }
+        return size;
+    }
+
+    private static final SimpleDBRecordConverter CONVERTER = new SimpleDBRecordConverter( null, false );
+
+    private static int runConverter( List<Item> items )
+    {
+        Text key = new Text();
+        MapWritable value = new MapWritable();
+        int size = 0;
+        for (Item item : items) {
+            CONVERTER.convert( item, key, value );
+            size += value.size();
+        }
+        return size;
+    }
+}
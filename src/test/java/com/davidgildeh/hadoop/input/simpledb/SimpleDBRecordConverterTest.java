@@ -0,0 +1,147 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import java.util.Arrays;
+import java.util.HashSet;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Unit test for SimpleDBRecordConverter.
+ */
+public class SimpleDBRecordConverterTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBRecordConverterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBRecordConverterTest.class );
+    }
+
+    /**
+     * Attributes from the previous record are removed and value Texts are reused
+     */
+    public void testReusesValuesAndRemovesStaleAttributes()
+    {
+        SimpleDBRecordConverter converter = new SimpleDBRecordConverter( null, false );
+        Text key = new Text();
+        MapWritable value = new MapWritable();
+        
+        converter.convert( new Item( "item1", Arrays.asList( new Attribute( "a", "1" ), new Attribute( "b", "2" ) ) ),
+                key, value );
+        assertEquals( "item1", key.toString() );
+        assertEquals( 2, value.size() );
+        Text a = (Text) value.get( new Text( "a" ) );
+        
+        converter.convert( new Item( "item2", Arrays.asList( new Attribute( "a", "3" ) ) ), key, value );
+        assertEquals( "item2", key.toString() );
+        assertEquals( 1, value.size() );
+        assertSame( a, value.get( new Text( "a" ) ) );
+        assertEquals( "3", a.toString() );
+    }
+
+    /**
+     * Only the selected attributes are put into the value
+     */
+    public void testSelectAttributes()
+    {
+        SimpleDBRecordConverter converter = new SimpleDBRecordConverter( new HashSet<String>( Arrays.asList( "b" ) ), false );
+        MapWritable value = new MapWritable();
+        
+        converter.convert( new Item( "item1", Arrays.asList( new Attribute( "a", "1" ), new Attribute( "b", "2" ) ) ),
+                new Text(), value );
+        assertEquals( 1, value.size() );
+        assertEquals( "2", value.get( new Text( "b" ) ).toString() );
+    }
+
+    /**
+     * The tag is added to every record, replacing any attribute with the same name
+     */
+    public void testTag()
+    {
+        SimpleDBRecordConverter converter = new SimpleDBRecordConverter( null, false );
+        converter.addTag( "_domain", "users-2013-01" );
+        MapWritable value = new MapWritable();
+        
+        converter.convert( new Item( "item1", Arrays.asList( new Attribute( "a", "1" ), new Attribute( "_domain", "x" ) ) ),
+                new Text(), value );
+        assertEquals( 2, value.size() );
+        assertEquals( "users-2013-01", value.get( new Text( "_domain" ) ).toString() );
+        
+        converter.convert( new Item( "item2", Arrays.asList( new Attribute( "b", "2" ) ) ), new Text(), value );
+        assertEquals( 2, value.size() );
+        assertEquals( "users-2013-01", value.get( new Text( "_domain" ) ).toString() );
+        assertNull( value.get( new Text( "a" ) ) );
+        
+        SimpleDBRecordConverter keys = new SimpleDBRecordConverter( null, true );
+        keys.addTag( "_domain", "users-2013-01" );
+        keys.convert( new Item( "item3", Arrays.asList( new Attribute( "b", "2" ) ) ), new Text(), value );
+        assertEquals( 1, value.size() );
+        assertEquals( "users-2013-01", value.get( new Text( "_domain" ) ).toString() );
+    }
+
+    /**
+     * Readers of a combined split share one value, so each converter sets its own tags on it
+     */
+    public void testTagSharedValue()
+    {
+        MapWritable value = new MapWritable();
+        Text domainTag = new Text( "_domain" );
+        
+        SimpleDBRecordConverter first = new SimpleDBRecordConverter( null, true );
+        first.addTag( "_domain", "users-2013-01" );
+        SimpleDBRecordConverter second = new SimpleDBRecordConverter( null, true );
+        second.addTag( "_domain", "users-2013-02" );
+        
+        first.convert( new Item( "item1", Arrays.<Attribute>asList() ), new Text(), value );
+        assertEquals( "users-2013-01", value.get( domainTag ).toString() );
+        second.convert( new Item( "item2", Arrays.<Attribute>asList() ), new Text(), value );
+        assertEquals( 1, value.size() );
+        assertEquals( "users-2013-02", value.get( domainTag ).toString() );
+        
+        // Setting the value must not change the tags of the converter that put the Text there
+        first.convert( new Item( "item3", Arrays.<Attribute>asList() ), new Text(), value );
+        assertEquals( "users-2013-01", value.get( domainTag ).toString() );
+        
+        SimpleDBRecordConverter third = new SimpleDBRecordConverter( null, false );
+        third.addTag( "_domain", "users-2013-03" );
+        third.convert( new Item( "item4", Arrays.asList( new Attribute( "a", "1" ) ) ), new Text(), value );
+        assertEquals( 2, value.size() );
+        assertEquals( "users-2013-03", value.get( domainTag ).toString() );
+        
+        second.convert( new Item( "item5", Arrays.<Attribute>asList() ), new Text(), value );
+        assertEquals( 1, value.size() );
+        assertEquals( "users-2013-02", value.get( domainTag ).toString() );
+    }
+
+    /**
+     * Strings are encoded the same as Text.set(String)
+     */
+    public void testEncodesLikeText()
+    {
+        SimpleDBRecordConverter converter = new SimpleDBRecordConverter( null, false );
+        Text key = new Text();
+        
+        String[] names = { "", "ascii", "café", "日本", "😀", "bad\ud800surrogate" };
+        for (String name : names) {
+            converter.convert( new Item( name, Arrays.<Attribute>asList() ), key, new MapWritable() );
+            assertEquals( name, new Text( name ), key );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.AmazonWebServiceResponse;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.services.simpledb.internal.SimpleDBStaxResponseHandler;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectResult;
+import com.amazonaws.services.simpledb.model.transform.SelectResultStaxUnmarshaller;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Microbenchmark of decoding a Select response page into records, comparing the AWS SDK's
+ * unmarshaller followed by SimpleDBRecordConverter against the SimpleDBSelectDecoder, in
+ * CPU time and bytes allocated per item. Run with:
+ *
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.davidgildeh.hadoop.input.simpledb.SimpleDBSelectDecoderBenchmark
+ */
+public class SimpleDBSelectDecoderBenchmark
+{
+    private static final int ATTRIBUTES = 20;
+    private static final int ITEMS = 2500;
+    private static final int ROUNDS = 50;
+
+    public static void main( String[] args ) throws Exception
+    {
+        StringBuilder xml = new StringBuilder( "<?xml version=\"1.0\"?><SelectResponse xmlns=\"http://sdb.amazonaws.com/doc/2009-04-15/\"><SelectResult>" );
+        for (int i = 0; i < ITEMS; i++) {
+            xml.append( "<Item><Name>item-" ).append( i ).append( "</Name>" );
+            for (int j = 0; j < ATTRIBUTES; j++) {
+                xml.append( "<Attribute><Name>attribute" ).append( j ).append( "</Name><Value>value-" )
+                        .append( i ).append( '-' ).append( j ).append( "</Value></Attribute>" );
+            }
+            xml.append( "</Item>" );
+        }
+        xml.append( "<NextToken>token</NextToken></SelectResult><ResponseMetadata><RequestId>id</RequestId>" )
+                .append( "<BoxUsage>0.0000219907</BoxUsage></ResponseMetadata></SelectResponse>" );
+        byte[] response = xml.toString().getBytes( "UTF-8" );
+
+        // Warm up both paths before measuring
+        for (int i = 0; i < 10; i++) {
+            runSdk( response );
+            runDecoder( response );
+        }
+
+        long items = (long) ITEMS * ROUNDS;
+        long[] sdk = measure( response, false );
+        long[] decoder = measure( response, true );
+
+        System.out.println( ITEMS + " items per page with " + ATTRIBUTES + " attributes, " + items + " items" );
+        System.out.println( "AWS SDK + converter:    " + (sdk[0] / items) + " ns/item, " + (sdk[1] / items) + " bytes/item" );
+        System.out.println( "SimpleDBSelectDecoder:  " + (decoder[0] / items) + " ns/item, " + (decoder[1] / items) + " bytes/item" );
+    }
+
+    private static long[] measure( byte[] response, boolean decoder ) throws Exception
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = threads.getThreadAllocatedBytes( thread );
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            if (decoder) {
+                runDecoder( response );
+            } else {
+                runSdk( response );
+            }
+        }
+        return new long[] { threads.getCurrentThreadCpuTime() - cpuBefore, threads.getThreadAllocatedBytes( thread ) - bytesBefore };
+    }
+
+    private static final SimpleDBRecordConverter CONVERTER = new SimpleDBRecordConverter( null, false );
+    private static final SimpleDBStaxResponseHandler<SelectResult> HANDLER = 
+            new SimpleDBStaxResponseHandler<SelectResult>( SelectResultStaxUnmarshaller.getInstance() );
+    private static final SimpleDBSelectDecoder DECODER = new SimpleDBSelectDecoder();
+    private static final SimpleDBSelectPage PAGE = new SimpleDBSelectPage();
+    private static final Text KEY = new Text();
+    private static final MapWritable VALUE = new MapWritable();
+
+    private static int runSdk( byte[] response ) throws Exception
+    {
+        HttpResponse httpResponse = new HttpResponse( null, null );
+        httpResponse.setContent( new ByteArrayInputStream( response ) );
+        AmazonWebServiceResponse<SelectResult> result = HANDLER.handle( httpResponse );
+        int size = 0;
+        for (Item item : result.getResult().getItems()) {
+            CONVERTER.convert( item, KEY, VALUE );
+            size += VALUE.size();
+        }
+        return size;
+    }
+
+    private static int runDecoder( byte[] response ) throws Exception
+    {
+        DECODER.decode( new ByteArrayInputStream( response ), PAGE );
+        int size = 0;
+        for (int i = 0; i < PAGE.size(); i++) {
+            CONVERTER.convert( PAGE.getItem( i ), KEY, VALUE );
+            size += VALUE.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,92 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Unit test for SimpleDBSelectDecoder against a recorded Select response.
+ */
+public class SimpleDBSelectDecoderTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBSelectDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBSelectDecoderTest.class );
+    }
+
+    private static SimpleDBSelectPage decode( SimpleDBSelectDecoder decoder, SimpleDBSelectPage page ) throws Exception
+    {
+        InputStream in = SimpleDBSelectDecoderTest.class.getResourceAsStream( "select-response.xml" );
+        try {
+            decoder.decode( in, page );
+        } finally {
+            in.close();
+        }
+        return page;
+    }
+
+    /**
+     * Items, attributes, the nextToken and metadata are decoded from the recorded response
+     */
+    public void testDecodeRecordedResponse() throws Exception
+    {
+        SimpleDBSelectPage page = decode( new SimpleDBSelectDecoder(), new SimpleDBSelectPage() );
+        
+        assertEquals( 3, page.size() );
+        assertEquals( "rO0ABXNyACdjb20uYW1hem9uLnNkcy5RdWVyeVByb2Nlc3Nvci5Nb3JlVG9rZW4=", page.getNextToken() );
+        assertEquals( "b1e8f1f7-42e9-494c-ad09-2674e557526d", page.getRequestId() );
+        assertEquals( "0.0000219907", page.getBoxUsage() );
+        
+        SimpleDBRawItem first = page.getItem( 0 );
+        assertEquals( "user-0001", first.getName().toString() );
+        assertEquals( 4, first.getAttributeCount() );
+        assertEquals( "Alice & Bob", first.getAttributeValue( 0 ).toString() );
+        assertEquals( "tag", first.getAttributeName( 2 ).toString() );
+        assertEquals( "blue", first.getAttributeValue( 2 ).toString() );
+        assertEquals( new Text( "Zürich" ), first.getAttributeValue( 3 ) );
+        
+        SimpleDBRawItem second = page.getItem( 1 );
+        assertEquals( "Carol <c@example.com>", second.getAttributeValue( 0 ).toString() );
+        assertEquals( "line1\u0001line2", second.getAttributeValue( 1 ).toString() );
+        
+        SimpleDBRawItem third = page.getItem( 2 );
+        assertEquals( "key\u0001", third.getName().toString() );
+        assertEquals( 0, third.getAttributeCount() );
+    }
+
+    /**
+     * Decoding into a page again replaces its contents and reuses its items
+     */
+    public void testPageIsReused() throws Exception
+    {
+        SimpleDBSelectDecoder decoder = new SimpleDBSelectDecoder();
+        SimpleDBSelectPage page = decode( decoder, new SimpleDBSelectPage() );
+        SimpleDBRawItem first = page.getItem( 0 );
+        
+        String empty = "<SelectResponse><SelectResult><Item><Name>x</Name></Item></SelectResult></SelectResponse>";
+        decoder.decode( new ByteArrayInputStream( empty.getBytes( "UTF-8" ) ), page );
+        
+        assertEquals( 1, page.size() );
+        assertSame( first, page.getItem( 0 ) );
+        assertEquals( "x", first.getName().toString() );
+        assertEquals( 0, first.getAttributeCount() );
+        assertNull( page.getNextToken() );
+    }
+}
@@ -0,0 +1,175 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Unit test for SimpleDBSnapshot.
+ */
+public class SimpleDBSnapshotTest 
+    extends TestCase
+{
+    private File dir;
+    private JobConf jobConf;
+    private Path domainDir;
+    private FileSystem fs;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBSnapshotTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBSnapshotTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = File.createTempFile( "snapshots", "" );
+        dir.delete();
+        jobConf = new JobConf();
+        jobConf.set( SimpleDBDAO.SIMPLEDB_DOMAIN, "users" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_WHERE_QUERY, "active = 'true'" );
+        jobConf.set( SimpleDBSnapshot.SIMPLEDB_SNAPSHOT_DIR, dir.toURI().toString() );
+        jobConf.setLong( SimpleDBSnapshot.SIMPLEDB_SNAPSHOT_MAX_AGE, 3600 );
+        domainDir = new Path( new Path( dir.toURI() ), "users" );
+        fs = domainDir.getFileSystem( jobConf );
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        FileUtil.fullyDelete( dir );
+    }
+
+    /**
+     * Writes a snapshot directory the way export() names it
+     *
+     * @param created       The creation time of the snapshot
+     * @param fingerprint   The fingerprint in its manifest, or null for an incomplete snapshot
+     * @return              The snapshot directory
+     */
+    private Path snapshot( long created, String fingerprint ) throws IOException
+    {
+        Path snapshotDir = new Path( domainDir, String.format( "%015d", created ) );
+        fs.create( new Path( snapshotDir, SimpleDBSnapshot.DATA_NAME ) ).close();
+        if (fingerprint != null) {
+            Properties manifest = new Properties();
+            manifest.setProperty( SimpleDBSnapshot.MANIFEST_FINGERPRINT, fingerprint );
+            manifest.setProperty( SimpleDBSnapshot.MANIFEST_CREATED, String.valueOf( created ) );
+            SimpleDBSnapshot.writeManifest( fs, snapshotDir, manifest );
+        }
+        return snapshotDir;
+    }
+
+    /**
+     * The latest complete snapshot with the same query is read
+     */
+    public void testFindLatest() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        String fingerprint = SimpleDBSnapshot.getFingerprint( jobConf );
+        assertNull( SimpleDBSnapshot.findLatest( jobConf ) );
+        
+        Path complete = snapshot( now - 60000, fingerprint );
+        assertEquals( complete.getName(), SimpleDBSnapshot.findLatest( jobConf ).getName() );
+        
+        // Snapshots still being exported have no manifest, and other queries' snapshots don't match
+        snapshot( now - 30000, null );
+        snapshot( now - 20000, "otherquery" );
+        assertEquals( complete.getName(), SimpleDBSnapshot.findLatest( jobConf ).getName() );
+    }
+
+    /**
+     * Snapshots older than simpledb.snapshot.max.age aren't read
+     */
+    public void testFindLatestStale() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        snapshot( now - 7200000, SimpleDBSnapshot.getFingerprint( jobConf ) );
+        assertNull( SimpleDBSnapshot.findLatest( jobConf ) );
+        
+        jobConf.setLong( SimpleDBSnapshot.SIMPLEDB_SNAPSHOT_MAX_AGE, 86400 );
+        assertNotNull( SimpleDBSnapshot.findLatest( jobConf ) );
+    }
+
+    /**
+     * Only older snapshots of the same query are deleted after an export
+     */
+    public void testDeleteOld() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        String fingerprint = SimpleDBSnapshot.getFingerprint( jobConf );
+        Path oldest = snapshot( now - 40000, fingerprint );
+        Path other = snapshot( now - 35000, "otherquery" );
+        Path older = snapshot( now - 30000, fingerprint );
+        Path incomplete = snapshot( now - 25000, null );
+        Path latest = snapshot( now - 20000, fingerprint );
+        
+        SimpleDBSnapshot.deleteOld( fs, domainDir, fingerprint, 2 );
+        assertFalse( fs.exists( oldest ) );
+        assertTrue( fs.exists( other ) );
+        assertTrue( fs.exists( older ) );
+        assertTrue( fs.exists( incomplete ) );
+        assertTrue( fs.exists( latest ) );
+        
+        // The latest snapshot is kept, which is the one findLatest() reads
+        SimpleDBSnapshot.deleteOld( fs, domainDir, fingerprint, 0 );
+        assertFalse( fs.exists( older ) );
+        assertTrue( fs.exists( latest ) );
+        assertEquals( latest.getName(), SimpleDBSnapshot.findLatest( jobConf ).getName() );
+        assertTrue( fs.exists( other ) );
+    }
+
+    /**
+     * Snapshots are only read by jobs selecting the same items and attributes
+     */
+    public void testFingerprint()
+    {
+        JobConf jobConf = new JobConf( false );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_WHERE_QUERY, "a = '1'" );
+        String fingerprint = SimpleDBSnapshot.getFingerprint( jobConf );
+
+        jobConf.set( SimpleDBInputFormat.SIMPLEDB_SPLIT_SIZE, "1000" );
+        assertEquals( fingerprint, SimpleDBSnapshot.getFingerprint( jobConf ) );
+
+        jobConf.set( SimpleDBDAO.SIMPLEDB_SELECT_ATTRIBUTES, "a,b" );
+        assertFalse( fingerprint.equals( SimpleDBSnapshot.getFingerprint( jobConf ) ) );
+
+        JobConf otherConf = new JobConf( false );
+        otherConf.set( SimpleDBDAO.SIMPLEDB_WHERE_QUERY, "a = '2'" );
+        assertFalse( fingerprint.equals( SimpleDBSnapshot.getFingerprint( otherConf ) ) );
+    }
+
+    /**
+     * Snapshots older than the maximum age are too stale to read
+     */
+    public void testFresh()
+    {
+        Properties manifest = new Properties();
+        assertFalse( SimpleDBSnapshot.isFresh( manifest, 10000, 5000 ) );
+
+        manifest.setProperty( SimpleDBSnapshot.MANIFEST_CREATED, "6000" );
+        assertTrue( SimpleDBSnapshot.isFresh( manifest, 10000, 5000 ) );
+        assertTrue( SimpleDBSnapshot.isFresh( manifest, 11000, 5000 ) );
+        assertFalse( SimpleDBSnapshot.isFresh( manifest, 11001, 5000 ) );
+    }
+}
@@ -0,0 +1,239 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Unit test for SimpleDBSplitCache.
+ */
+public class SimpleDBSplitCacheTest
+    extends TestCase
+{
+    private File dir;
+    private JobConf jobConf;
+    private FileSystem fs;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBSplitCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBSplitCacheTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = File.createTempFile( "splitcache", "" );
+        dir.delete();
+        jobConf = new JobConf();
+        jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_ACCESSKEY, "accessKey" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_SECRETKEY, "secretKey" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_DOMAIN, "users" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_WHERE_QUERY, "active = 'true'" );
+        jobConf.set( SimpleDBSplitCache.SIMPLEDB_SPLIT_CACHE_DIR, dir.toURI().toString() );
+        fs = FileSystem.getLocal( jobConf );
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        FileUtil.fullyDelete( dir );
+    }
+
+    private static DomainMetadataResult metadata( long itemCount, long timestamp )
+    {
+        return new DomainMetadataResult().withItemCount( (int) itemCount ).withTimestamp( (int) timestamp );
+    }
+
+    /**
+     * @return  A token split, a range split and a filtered split of another domain and query
+     */
+    private static List<SimpleDBInputSplit> splits()
+    {
+        List<SimpleDBInputSplit> splits = new ArrayList<SimpleDBInputSplit>();
+        splits.add( new SimpleDBInputSplit( 0, 100, "token1" ) );
+        splits.add( new SimpleDBInputSplit( 100, 250,
+                new SimpleDBKeyRange( "itemName()", "user100", "user250" ) ) );
+        SimpleDBInputSplit filtered = new SimpleDBInputSplit( 0, 50, (String) null );
+        filtered.setDomain( "orders" );
+        filtered.setQuery( "recent" );
+        filtered.setFilter( "`modified` > '2013'" );
+        splits.add( filtered );
+        return splits;
+    }
+
+    /**
+     * @return  The only cache file in the cache directory
+     */
+    private Path cacheFile() throws IOException
+    {
+        FileStatus[] files = fs.listStatus( new Path( dir.toURI() ) );
+        assertEquals( 1, files.length );
+        return files[0].getPath();
+    }
+
+    public void testRoundTrip() throws IOException
+    {
+        SimpleDBSplitCache cache = new SimpleDBSplitCache( jobConf, "users", "key" );
+        assertNull( cache.load( metadata( 1000, 5000 ) ) );
+
+        cache.save( metadata( 1000, 5000 ), splits() );
+        List<SimpleDBInputSplit> loaded = new SimpleDBSplitCache( jobConf, "users", "key" ).load( metadata( 1000, 5000 ) );
+        assertNotNull( loaded );
+        assertEquals( 3, loaded.size() );
+
+        SimpleDBInputSplit token = loaded.get( 0 );
+        assertEquals( 0, token.getStartRow() );
+        assertEquals( 100, token.getEndRow() );
+        assertEquals( "token1", token.getSplitToken() );
+        assertNull( token.getRange() );
+
+        SimpleDBInputSplit range = loaded.get( 1 );
+        assertEquals( 100, range.getStartRow() );
+        assertEquals( 250, range.getEndRow() );
+        assertNull( range.getSplitToken() );
+        assertEquals( "itemName()", range.getRange().getExpression() );
+        assertEquals( "user100", range.getRange().getLower() );
+        assertEquals( "user250", range.getRange().getUpper() );
+
+        SimpleDBInputSplit filtered = loaded.get( 2 );
+        assertEquals( 50, filtered.getRowCount() );
+        assertEquals( "orders", filtered.getDomain() );
+        assertEquals( "recent", filtered.getQuery() );
+        assertEquals( "`modified` > '2013'", filtered.getFilter() );
+    }
+
+    public void testStaleCount() throws IOException
+    {
+        new SimpleDBSplitCache( jobConf, "users", "key" ).save( metadata( 1000, 5000 ), splits() );
+        assertNull( new SimpleDBSplitCache( jobConf, "users", "key" ).load( metadata( 1001, 5000 ) ) );
+
+        jobConf.setFloat( SimpleDBSplitCache.SIMPLEDB_SPLIT_CACHE_COUNT_TOLERANCE, 0.01f );
+        SimpleDBSplitCache cache = new SimpleDBSplitCache( jobConf, "users", "key" );
+        assertNotNull( cache.load( metadata( 1010, 5000 ) ) );
+        assertNotNull( cache.load( metadata( 990, 5000 ) ) );
+        assertNull( cache.load( metadata( 1011, 5000 ) ) );
+        assertNull( cache.load( metadata( 989, 5000 ) ) );
+    }
+
+    public void testStaleTimestamp() throws IOException
+    {
+        new SimpleDBSplitCache( jobConf, "users", "key" ).save( metadata( 1000, 5000 ), splits() );
+        assertNull( new SimpleDBSplitCache( jobConf, "users", "key" ).load( metadata( 1000, 5001 ) ) );
+
+        jobConf.setLong( SimpleDBSplitCache.SIMPLEDB_SPLIT_CACHE_TIMESTAMP_TOLERANCE, 60 );
+        SimpleDBSplitCache cache = new SimpleDBSplitCache( jobConf, "users", "key" );
+        assertNotNull( cache.load( metadata( 1000, 5060 ) ) );
+        assertNull( cache.load( metadata( 1000, 5061 ) ) );
+    }
+
+    public void testKeySettingsMiss() throws IOException
+    {
+        SimpleDBDAO sdb = new SimpleDBDAO( jobConf );
+        String key = SimpleDBInputFormat.getCacheKey( jobConf, sdb, 1000, SimpleDBInputFormat.SPLIT_STRATEGY_ITEMNAME );
+        new SimpleDBSplitCache( jobConf, "users", key ).save( metadata( 1000, 5000 ), splits() );
+        assertNotNull( new SimpleDBSplitCache( jobConf, "users",
+                SimpleDBInputFormat.getCacheKey( jobConf, sdb, 1000, SimpleDBInputFormat.SPLIT_STRATEGY_ITEMNAME ) )
+                .load( metadata( 1000, 5000 ) ) );
+
+        // Other domains, split sizes and strategies
+        assertNull( new SimpleDBSplitCache( jobConf, "orders", key ).load( metadata( 1000, 5000 ) ) );
+        assertNull( new SimpleDBSplitCache( jobConf, "users",
+                SimpleDBInputFormat.getCacheKey( jobConf, sdb, 500, SimpleDBInputFormat.SPLIT_STRATEGY_ITEMNAME ) )
+                .load( metadata( 1000, 5000 ) ) );
+        assertNull( new SimpleDBSplitCache( jobConf, "users",
+                SimpleDBInputFormat.getCacheKey( jobConf, sdb, 1000, SimpleDBInputFormat.SPLIT_STRATEGY_TOKEN ) )
+                .load( metadata( 1000, 5000 ) ) );
+
+        // Other where queries
+        sdb.setWhereQuery( "active = 'false'" );
+        assertNull( new SimpleDBSplitCache( jobConf, "users",
+                SimpleDBInputFormat.getCacheKey( jobConf, sdb, 1000, SimpleDBInputFormat.SPLIT_STRATEGY_ITEMNAME ) )
+                .load( metadata( 1000, 5000 ) ) );
+        sdb.setWhereQuery( "active = 'true'" );
+
+        // Other estimate and attribute settings
+        JobConf estimateConf = new JobConf( jobConf );
+        estimateConf.setBoolean( SimpleDBInputFormat.SIMPLEDB_SPLIT_ESTIMATE, true );
+        assertNull( new SimpleDBSplitCache( jobConf, "users",
+                SimpleDBInputFormat.getCacheKey( estimateConf, sdb, 1000, SimpleDBInputFormat.SPLIT_STRATEGY_ITEMNAME ) )
+                .load( metadata( 1000, 5000 ) ) );
+        JobConf attributeConf = new JobConf( jobConf );
+        attributeConf.set( SimpleDBInputFormat.SIMPLEDB_SPLIT_ATTRIBUTE_INTERVAL, "3600" );
+        assertNull( new SimpleDBSplitCache( jobConf, "users",
+                SimpleDBInputFormat.getCacheKey( attributeConf, sdb, 1000, SimpleDBInputFormat.SPLIT_STRATEGY_ITEMNAME ) )
+                .load( metadata( 1000, 5000 ) ) );
+    }
+
+    public void testCorruptCache() throws IOException
+    {
+        SimpleDBSplitCache cache = new SimpleDBSplitCache( jobConf, "users", "key" );
+        cache.save( metadata( 1000, 5000 ), splits() );
+        Path file = cacheFile();
+
+        // Truncated part way through the splits
+        FSDataInputStream in = fs.open( file );
+        byte[] data = new byte[(int) fs.getFileStatus( file ).getLen()];
+        in.readFully( data );
+        in.close();
+        FSDataOutputStream out = fs.create( file, true );
+        out.write( data, 0, data.length - 10 );
+        out.close();
+        assertNull( cache.load( metadata( 1000, 5000 ) ) );
+
+        // Negative split count
+        out = fs.create( file, true );
+        out.write( data, 0, 28 );
+        out.writeInt( -1 );
+        out.close();
+        assertNull( cache.load( metadata( 1000, 5000 ) ) );
+
+        // Not a cache file at all
+        out = fs.create( file, true );
+        out.writeBytes( "garbage" );
+        out.close();
+        assertNull( cache.load( metadata( 1000, 5000 ) ) );
+    }
+
+    public void testOldVersion() throws IOException
+    {
+        SimpleDBSplitCache cache = new SimpleDBSplitCache( jobConf, "users", "key" );
+        cache.save( metadata( 1000, 5000 ), splits() );
+        Path file = cacheFile();
+
+        FSDataInputStream in = fs.open( file );
+        byte[] data = new byte[(int) fs.getFileStatus( file ).getLen()];
+        in.readFully( data );
+        in.close();
+
+        FSDataOutputStream out = fs.create( file, true );
+        out.writeInt( 4 );
+        out.write( data, 4, data.length - 4 );
+        out.close();
+        assertNull( cache.load( metadata( 1000, 5000 ) ) );
+    }
+}
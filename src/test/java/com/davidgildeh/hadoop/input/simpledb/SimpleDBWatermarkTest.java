@@ -0,0 +1,159 @@
+package com.davidgildeh.hadoop.input.simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Unit test for SimpleDBWatermark.
+ */
+public class SimpleDBWatermarkTest 
+    extends TestCase
+{
+    private File dir;
+    private JobConf jobConf;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleDBWatermarkTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleDBWatermarkTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = File.createTempFile( "watermarks", "" );
+        dir.delete();
+        jobConf = new JobConf();
+        jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_ACCESSKEY, "accessKey" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_AWS_SECRETKEY, "secretKey" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_DOMAIN, "users" );
+        jobConf.set( SimpleDBDAO.SIMPLEDB_WHERE_QUERY, "active = 'true'" );
+        jobConf.set( SimpleDBWatermark.SIMPLEDB_INCREMENTAL_ATTRIBUTE, "modified" );
+        jobConf.set( SimpleDBWatermark.SIMPLEDB_INCREMENTAL_DIR, dir.toURI().toString() );
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        FileUtil.fullyDelete( dir );
+    }
+
+    /**
+     * DAO that returns a fixed highest value of the attribute instead of querying SimpleDB,
+     * recording the where queries it was asked with
+     */
+    private static class MaxValueDAO extends SimpleDBDAO
+    {
+        private final String maxValue;
+        private final List<String> whereQueries = new ArrayList<String>();
+
+        MaxValueDAO( JobConf jobConf, String maxValue )
+        {
+            super( jobConf );
+            this.maxValue = maxValue;
+        }
+
+        @Override
+        public String getMaxValue( String attribute )
+        {
+            whereQueries.add( getWhereQuery() );
+            return maxValue;
+        }
+    }
+
+    private String load() throws IOException
+    {
+        return new SimpleDBWatermark( jobConf, "users", "active = 'true'" ).load();
+    }
+
+    /**
+     * The first run reads every item with the attribute, and its high watermark stays pending
+     * until the job's driver commits it
+     */
+    public void testFirstRunCommit() throws IOException
+    {
+        MaxValueDAO sdb = new MaxValueDAO( jobConf, "0200" );
+        assertEquals( "`modified` <= '0200'", SimpleDBWatermark.plan( jobConf, sdb ) );
+        assertEquals( "(active = 'true') AND `modified` IS NOT NULL", sdb.whereQueries.get( 0 ) );
+        assertEquals( "(active = 'true') AND `modified` <= '0200'", sdb.getWhereQuery() );
+        
+        assertNull( load() );
+        SimpleDBWatermark.commit( jobConf );
+        assertEquals( "0200", load() );
+        
+        // The next run only reads the items after the committed watermark
+        sdb = new MaxValueDAO( jobConf, "0300" );
+        assertEquals( "`modified` > '0200' AND `modified` <= '0300'", SimpleDBWatermark.plan( jobConf, sdb ) );
+        assertEquals( "(active = 'true') AND `modified` > '0200'", sdb.whereQueries.get( 0 ) );
+    }
+
+    /**
+     * A failed run's pending watermark is discarded, so the next run reads the same items again
+     */
+    public void testAbort() throws IOException
+    {
+        SimpleDBWatermark.plan( jobConf, new MaxValueDAO( jobConf, "0200" ) );
+        SimpleDBWatermark.commit( jobConf );
+        
+        SimpleDBWatermark.plan( jobConf, new MaxValueDAO( jobConf, "0300" ) );
+        SimpleDBWatermark.abort( jobConf );
+        SimpleDBWatermark.commit( jobConf );
+        assertEquals( "0200", load() );
+    }
+
+    /**
+     * Runs with no modified items plan nothing and leave the watermark alone
+     */
+    public void testNoModifiedItems() throws IOException
+    {
+        MaxValueDAO sdb = new MaxValueDAO( jobConf, null );
+        assertNull( SimpleDBWatermark.plan( jobConf, sdb ) );
+        assertEquals( "active = 'true'", sdb.getWhereQuery() );
+        
+        SimpleDBWatermark.commit( jobConf );
+        assertNull( load() );
+    }
+
+    /**
+     * The first run reads every item up to the high watermark, later runs only the items after the watermark
+     */
+    public void testConditions()
+    {
+        assertEquals( "`modified` IS NOT NULL", SimpleDBWatermark.getCondition( "modified", null ) );
+        assertEquals( "`modified` > '0100'", SimpleDBWatermark.getCondition( "modified", "0100" ) );
+        assertEquals( "`modified` <= '0200'", SimpleDBWatermark.getCondition( "modified", null, "0200" ) );
+        assertEquals( "`modified` > '0100' AND `modified` <= '0200'", 
+                SimpleDBWatermark.getCondition( "modified", "0100", "0200" ) );
+    }
+
+    /**
+     * Watermark conditions are ANDed with the where query, keeping its ORDER BY at the end
+     */
+    public void testAndWhere()
+    {
+        assertEquals( "`modified` > '0100'", SimpleDBDAO.andWhere( null, "`modified` > '0100'" ) );
+        assertEquals( "(a = '1' OR b = '2') AND `modified` > '0100'", 
+                SimpleDBDAO.andWhere( "a = '1' OR b = '2'", "`modified` > '0100'" ) );
+        assertEquals( "(a > '1') AND `modified` > '0100' ORDER BY a", 
+                SimpleDBDAO.andWhere( "a > '1' ORDER BY a", "`modified` > '0100'" ) );
+    }
+}